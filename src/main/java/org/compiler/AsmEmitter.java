@@ -0,0 +1,156 @@
+package org.compiler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * The sink the Generator appends assembly to. Text is encoded to UTF-8 as it is appended, into fixed size chunks: a
+ * chunk is either kept, when the assembly is wanted as a String, or written to a channel as soon as it is full, so
+ * generating a program does not copy what has already been emitted and, with a channel, memory does not depend on the
+ * size of the program.
+ * <p>
+ * The methods mirror the ones of StringBuilder and return the emitter, so calls can be chained.
+ *
+ * @see Generator
+ */
+public final class AsmEmitter {
+    private static final int CHUNK = 1 << 16;
+    private final WritableByteChannel channel;
+    private final ArrayList<ByteBuffer> chunks = new ArrayList<>();
+    private ByteBuffer current;
+    private long written;
+
+    /**
+     * Creates an emitter that keeps the assembly in memory, read it with toString()
+     */
+    public AsmEmitter() {
+        this(null);
+    }
+
+    /**
+     * Creates an emitter that writes the assembly to a channel a chunk at a time
+     *
+     * @param channel
+     *            where the assembly is written, it is not closed by the emitter
+     */
+    public AsmEmitter(WritableByteChannel channel) {
+        this.channel = channel;
+        this.current = ByteBuffer.allocate(CHUNK);
+        this.written = 0;
+    }
+
+    public AsmEmitter append(CharSequence s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                put((byte) c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                putCodePoint(Character.toCodePoint(c, s.charAt(++i)));
+            } else {
+                putCodePoint(Character.isSurrogate(c) ? '?' : c);
+            }
+        }
+        return this;
+    }
+
+    public AsmEmitter append(char c) {
+        return append(String.valueOf(c));
+    }
+
+    public AsmEmitter append(long value) {
+        return append(Long.toString(value));
+    }
+
+    /**
+     * @return if the assembly is written to a channel instead of being kept in memory
+     */
+    public boolean isStreaming() {
+        return channel != null;
+    }
+
+    /**
+     * @return the number of bytes emitted so far
+     */
+    public long size() {
+        return written + current.position();
+    }
+
+    /**
+     * Writes what is left in the current chunk to the channel, does nothing if the assembly is kept in memory
+     */
+    public void flush() {
+        if (channel != null) {
+            drain();
+        }
+    }
+
+    /**
+     * @return the assembly emitted so far
+     *
+     * @throws IllegalStateException
+     *             if the assembly has been written to a channel
+     */
+    @Override
+    public String toString() {
+        if (channel != null) {
+            throw new IllegalStateException("The assembly has been written to a channel");
+        }
+        byte[] bytes = new byte[(int) size()];
+        int offset = 0;
+        for (ByteBuffer chunk : chunks) {
+            System.arraycopy(chunk.array(), 0, bytes, offset, chunk.position());
+            offset += chunk.position();
+        }
+        System.arraycopy(current.array(), 0, bytes, offset, current.position());
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void putCodePoint(int codePoint) {
+        if (codePoint < 0x800) {
+            put((byte) (0xC0 | codePoint >> 6));
+        } else {
+            if (codePoint < 0x10000) {
+                put((byte) (0xE0 | codePoint >> 12));
+            } else {
+                put((byte) (0xF0 | codePoint >> 18));
+                put((byte) (0x80 | codePoint >> 12 & 0x3F));
+            }
+            put((byte) (0x80 | codePoint >> 6 & 0x3F));
+        }
+        put((byte) (0x80 | codePoint & 0x3F));
+    }
+
+    private void put(byte b) {
+        if (!current.hasRemaining()) {
+            if (channel != null) {
+                drain();
+            } else {
+                written += current.position();
+                chunks.add(current);
+                current = ByteBuffer.allocate(CHUNK);
+            }
+        }
+        current.put(b);
+    }
+
+    /**
+     * Writes the current chunk to the channel and empties it
+     */
+    private void drain() {
+        current.flip();
+        written += current.remaining();
+        try {
+            while (current.hasRemaining()) {
+                channel.write(current);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        current.clear();
+    }
+}
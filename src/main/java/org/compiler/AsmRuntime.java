@@ -0,0 +1,563 @@
+package org.compiler;
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * The runtime of a generated program: the data section, the entry point, the assembly of the builtins and the routines
+ * they call. It is shared by the Generator and by the backend of the intermediate representation, so both produce the
+ * same program around their own code.
+ * <p>
+ * The routines form a small library: each one declares the data it uses and the routines it calls. The builtins mark
+ * the routines they call as used, and end() emits those and everything they reach, so a program carries only the
+ * runtime it needs.
+ * <p>
+ * The output of a program that prints is collected in a buffer in the .bss section and written when the buffer is full,
+ * before the program waits for input, so a prompt is shown, and before every exit. A division by zero kills the program
+ * with SIGFPE: a handler flushes the buffer first and lets the division fault again.
+ * <p>
+ * The input is read a buffer at a time too: a read parses the next whitespace-delimited number of the buffer and
+ * refills it only when it is exhausted. A terminal returns a line per read syscall, so a program reading from it still
+ * waits for one line at a time.
+ *
+ * @see org.compiler.ir.NasmBackend
+ */
+public final class AsmRuntime {
+    /**
+     * The size of the output buffer, a write larger than this is not copied
+     */
+    private static final int OUTPUT_SIZE = 1 << 16;
+    /**
+     * The size of the input buffer, the most a read syscall asks for
+     */
+    private static final int INPUT_SIZE = 1 << 16;
+
+    /**
+     * The data of the routines, in the order it is emitted
+     */
+    private enum Data {
+        DIGIT_PAIRS(false, "digit_pairs db '" + digitPairs() + "'"),
+        POWERS_OF_TEN(false, "powers_of_ten dq 1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000"),
+        // struct sigaction: the handler, SA_RESTORER | SA_RESETHAND, the restorer and an empty mask
+        FAULT_ACTION(false, "fault_action dq flush_on_fault, 0x84000000, fault_return, 0"),
+        OUTPUT_BUFFER(true, "output_buffer resb " + OUTPUT_SIZE), OUTPUT_LENGTH(true, "output_length resq 1"),
+        // the qword loads of atoi can go 7 bytes past the input
+        INPUT_BUFFER(true, "input_buffer resb " + (INPUT_SIZE + 8)), INPUT_POSITION(true, "input_position resq 1"),
+        INPUT_END(true, "input_end resq 1");
+
+        private final boolean bss;
+        private final String definition;
+
+        Data(boolean bss, String definition) {
+            this.bss = bss;
+            this.definition = definition;
+        }
+
+        private static String digitPairs() {
+            StringBuilder pairs = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                pairs.append(i / 10).append(i % 10);
+            }
+            return pairs.toString();
+        }
+    }
+
+    /**
+     * The routines of the runtime, in the order they are emitted, with the data they use and the routines they call
+     */
+    private enum Routine {
+        PRINT_NUMBER(AsmRuntime::printAssemblyFunc, List.of(Data.DIGIT_PAIRS)),
+        ATOI(AsmRuntime::atoiAssemblyFunc, List.of(Data.POWERS_OF_TEN, Data.INPUT_POSITION, Data.INPUT_END)),
+        REFILL_INPUT(AsmRuntime::refillInputFunc, List.of(Data.INPUT_BUFFER, Data.INPUT_END)),
+        WRITE_OUTPUT(AsmRuntime::writeOutputFunc, List.of(Data.OUTPUT_BUFFER, Data.OUTPUT_LENGTH)),
+        FLUSH_OUTPUT(AsmRuntime::flushOutputFunc, List.of(Data.OUTPUT_BUFFER, Data.OUTPUT_LENGTH)),
+        WRITE_ALL(AsmRuntime::writeAllFunc, List.of()),
+        FAULT_HANDLER(AsmRuntime::faultHandlerFunc, List.of(Data.FAULT_ACTION));
+
+        private final Consumer<AsmRuntime> emitter;
+        private final List<Data> data;
+
+        Routine(Consumer<AsmRuntime> emitter, List<Data> data) {
+            this.emitter = emitter;
+            this.data = data;
+        }
+
+        /**
+         * @param buffered
+         *            whether the output of the program is buffered
+         *
+         * @return the routines this one calls or jumps to
+         */
+        private List<Routine> calls(boolean buffered) {
+            return switch (this) {
+            case PRINT_NUMBER -> List.of(WRITE_OUTPUT);
+            case ATOI -> List.of(REFILL_INPUT);
+            case WRITE_OUTPUT -> List.of(FLUSH_OUTPUT, WRITE_ALL);
+            case FLUSH_OUTPUT -> List.of(WRITE_ALL);
+            case FAULT_HANDLER -> List.of(FLUSH_OUTPUT);
+            // refill_input flushes the output first, if there is any to flush
+            case REFILL_INPUT -> buffered ? List.of(FLUSH_OUTPUT) : List.of();
+            case WRITE_ALL -> List.of();
+            };
+        }
+    }
+
+    private final AsmEmitter out;
+    private final StringBuilder sbData = new StringBuilder();
+    private final EnumSet<Routine> used = EnumSet.noneOf(Routine.class);
+    private boolean buffered = false;
+    private final Map<String, String> messages = new HashMap<>();
+    private int msgCounter = 1;
+
+    /**
+     * @param out
+     *            where the text section is emitted, the data section is kept until end()
+     */
+    public AsmRuntime(AsmEmitter out) {
+        this.out = out;
+    }
+
+    /**
+     * Emits the start of the program, up to the entry point
+     *
+     * @param prints
+     *            whether the program prints, its output is then buffered and flushed by flushOutput()
+     */
+    public void begin(boolean prints) {
+        buffered = prints;
+        out.append("section .text\n");
+        out.append("     global main\n\nmain:\n");
+        if (buffered) {
+            use(Routine.FAULT_HANDLER);
+            out.append("     ;;flush the output on SIGFPE\n");
+            mov("rax", "13");
+            mov("rdi", "8");
+            mov("rsi", "fault_action");
+            mov("rdx", "0");
+            mov("r10", "8");
+            out.append("     syscall\n\n");
+        }
+    }
+
+    /**
+     * Writes what has been printed so far, before the program exits or reads. Clobbers rax, rcx and r11
+     */
+    public void flushOutput() {
+        if (buffered) {
+            use(Routine.FLUSH_OUTPUT);
+            out.append("     call flush_output\n");
+        }
+    }
+
+    /**
+     * Emits the routines the program reaches and their data, the data section is left out if there is none
+     *
+     * @return the whole assembly, null if it has been written to a channel
+     *
+     * @throws IllegalStateException
+     *             if a routine calls one it does not declare
+     */
+    public String end() {
+        // use() has closed the set over calls(), the emitters only mark routines that are in it already
+        EnumSet<Routine> reached = EnumSet.copyOf(used);
+        EnumSet<Data> data = EnumSet.noneOf(Data.class);
+        for (Routine routine : reached) {
+            routine.emitter.accept(this);
+            data.addAll(routine.data);
+        }
+        if (!used.equals(reached)) {
+            used.removeAll(reached);
+            throw new IllegalStateException("Routines called but not declared: " + used);
+        }
+
+        StringBuilder sections = new StringBuilder();
+        if (!sbData.isEmpty() || data.stream().anyMatch(d -> !d.bss)) {
+            sections.append("section .data\n").append(sbData);
+            data.stream().filter(d -> !d.bss).forEach(d -> sections.append("     ").append(d.definition).append("\n"));
+            sections.append("\n");
+        }
+        if (data.stream().anyMatch(d -> d.bss)) {
+            sections.append("section .bss\n");
+            data.stream().filter(d -> d.bss).forEach(d -> sections.append("     ").append(d.definition).append("\n"));
+            sections.append("\n");
+        }
+        if (out.isStreaming()) {
+            out.append(sections);
+            out.flush();
+            return null;
+        }
+        return sections + out.toString();
+    }
+
+    /**
+     * It generates the assembly code for a string to print, the message is stored with its newline so it is written at
+     * once. Equal strings share the same message
+     *
+     * @param value
+     *            the actual value to print
+     */
+    public void printString(String value) {
+        String label = messages.get(value);
+        if (label == null) {
+            label = "msg" + msgCounter++;
+            messages.put(value, label);
+            sbData.append("     ").append(label).append(" db ").append("'").append(value).append("'")
+                    .append(", 0x0a\n");
+        }
+        use(Routine.WRITE_OUTPUT);
+        out.append("     ;;print\n");
+        mov("rsi", label);
+        // the length in bytes of the UTF-8 the message is assembled to, with the newline
+        mov("rdx", Integer.toString(value.getBytes(StandardCharsets.UTF_8).length + 1));
+        out.append("     call write_output\n");
+        out.append("     ;;/print\n\n");
+    }
+
+    /**
+     * Prints the number in rax followed by a newline, clobbers rax, rbx, rcx, rdx, rsi, rdi and r11
+     */
+    public void printNumber() {
+        use(Routine.PRINT_NUMBER);
+        out.append("     call print_number\n\n");
+    }
+
+    /**
+     * Reads a number from the standard input, it is left in rax, -1 if there is none or it does not fit in 64 bits,
+     * clobbers rbx, rcx, rdx, rsi, rdi and r11
+     */
+    public void read() {
+        use(Routine.ATOI);
+        out.append("     ;;read\n");
+        out.append("     call atoi\n");
+    }
+
+    /**
+     * It generates the assembly code to print an ident: the text, sign, digits and newline, is built backwards in the
+     * stack and written at once. The digits come two at a time from a table, the quotient by 100 is the high half of a
+     * multiplication by the reciprocal, the unsigned one, so the absolute value of the minimum long is converted too
+     *
+     */
+    private void printAssemblyFunc() {
+        out.append("print_number:\n");
+        out.append("     sub rsp, 24\n");
+        out.append("     lea rsi, [rsp + 23]\n");
+        mov("byte [rsi]", "0x0a");
+        mov("rbx", "rax");
+        out.append("     ;; the absolute value, 2^63 for the minimum\n");
+        mov("rcx", "rax");
+        out.append("     neg rcx\n");
+        out.append("     cmovs rcx, rax\n");
+        mov("rax", "rcx");
+        out.append("     cmp rax, 100\n");
+        out.append("     jb .last\n");
+        out.append(".pairs:\n");
+        out.append("     ;; rdx = rax / 100, rcx = rax % 100\n");
+        mov("rcx", "rax");
+        out.append("     shr rax, 2\n");
+        mov("rdx", "0x28F5C28F5C28F5C3");
+        out.append("     mul rdx\n");
+        out.append("     shr rdx, 2\n");
+        out.append("     imul rdi, rdx, 100\n");
+        out.append("     sub rcx, rdi\n");
+        out.append("     movzx edi, word [digit_pairs + rcx * 2]\n");
+        out.append("     sub rsi, 2\n");
+        mov("[rsi]", "di");
+        mov("rax", "rdx");
+        out.append("     cmp rax, 100\n");
+        out.append("     jae .pairs\n");
+        out.append(".last:\n");
+        out.append("     cmp rax, 10\n");
+        out.append("     jb .one\n");
+        out.append("     movzx edi, word [digit_pairs + rax * 2]\n");
+        out.append("     sub rsi, 2\n");
+        mov("[rsi]", "di");
+        out.append("     jmp .sign\n");
+        out.append(".one:\n");
+        out.append("     add al, '0'\n");
+        out.append("     dec rsi\n");
+        mov("[rsi]", "al");
+        out.append(".sign:\n");
+        out.append("     test rbx, rbx\n");
+        out.append("     jns .write\n");
+        out.append("     dec rsi\n");
+        mov("byte [rsi]", "'-'");
+        out.append(".write:\n");
+        out.append("     ;;print\n");
+        out.append("     lea rdx, [rsp + 24]\n");
+        out.append("     sub rdx, rsi\n");
+        out.append("     call write_output\n");
+        out.append("     ;;/print\n\n");
+        out.append("     add rsp, 24\n");
+        out.append("     ret\n\n");
+    }
+
+    /**
+     * It generates write_output, that appends rdx bytes from rsi to the output buffer, flushing it when they do not
+     * fit, and clobbers rax, rcx, rdx, rsi, rdi and r11
+     */
+    private void writeOutputFunc() {
+        out.append("write_output:\n");
+        mov("rax", "QWORD [output_length]");
+        out.append("     add rax, rdx\n");
+        out.append("     cmp rax, ").append(OUTPUT_SIZE).append("\n");
+        out.append("     jbe .copy\n");
+        out.append("     call flush_output\n");
+        out.append("     cmp rdx, ").append(OUTPUT_SIZE).append("\n");
+        out.append("     ja write_all\n");
+        out.append(".copy:\n");
+        mov("rdi", "QWORD [output_length]");
+        out.append("     add QWORD [output_length], rdx\n");
+        out.append("     add rdi, output_buffer\n");
+        mov("rcx", "rdx");
+        out.append("     rep movsb\n");
+        out.append("     ret\n\n");
+    }
+
+    /**
+     * It generates flush_output, that writes the output buffer and empties it, clobbering only rax, rcx and r11, so the
+     * registers of the caller survive an exit or a read
+     */
+    private void flushOutputFunc() {
+        out.append("flush_output:\n");
+        out.append("     push rdi\n");
+        out.append("     push rsi\n");
+        out.append("     push rdx\n");
+        mov("rsi", "output_buffer");
+        mov("rdx", "QWORD [output_length]");
+        mov("QWORD [output_length]", "0");
+        out.append("     call write_all\n");
+        out.append("     pop rdx\n");
+        out.append("     pop rsi\n");
+        out.append("     pop rdi\n");
+        out.append("     ret\n\n");
+    }
+
+    /**
+     * It generates write_all, that writes rdx bytes from rsi to the standard output
+     */
+    private void writeAllFunc() {
+        out.append("write_all:\n");
+        out.append("     ;; a write can be partial, an error drops the rest\n");
+        out.append("     test rdx, rdx\n");
+        out.append("     jz .written\n");
+        mov("rax", "1");
+        mov("rdi", "1");
+        out.append("     syscall\n");
+        out.append("     test rax, rax\n");
+        out.append("     jle .written\n");
+        out.append("     add rsi, rax\n");
+        out.append("     sub rdx, rax\n");
+        out.append("     jmp write_all\n");
+        out.append(".written:\n");
+        out.append("     ret\n\n");
+    }
+
+    /**
+     * It generates the SIGFPE handler begin() installs: it flushes the output and returns through rt_sigreturn, so the
+     * division faults again with the default action
+     */
+    private void faultHandlerFunc() {
+        out.append("flush_on_fault:\n");
+        out.append("     call flush_output\n");
+        out.append("     ret\n\n");
+        out.append("fault_return:\n");
+        mov("rax", "15");
+        out.append("     syscall\n\n");
+    }
+
+    /**
+     * It generates the assembly code to convert a string to an integer(atoi). It takes no arguments: the next token of
+     * the input, skipping the whitespace before it, is parsed from input_position and consumed whole. It returns the
+     * number in rax and the outcome in rdx: 0 for a number, 1 if the token does not start with digits, after an
+     * optional minus, or the input has ended, 2 if the number does not fit in 64 bits. In both errors rax is -1. It
+     * clobbers rbx, rcx, rsi, rdi and r11.
+     * <p>
+     * The digits are converted 8 at a time: a qword of the input is loaded, the first byte that is not a digit is found
+     * comparing all the bytes at once, the digits are shifted to the high bytes and combined in pairs, quads and the
+     * two halves by three multiplications. The magnitude is accumulated unsigned, checking the carries, and compared
+     * with the limit of its sign at the end.
+     *
+     */
+    private void atoiAssemblyFunc() {
+        out.append("atoi:\n");
+        out.append("     xor rbx, rbx\n");
+        mov("rsi", "QWORD [input_position]");
+        mov("rdi", "QWORD [input_end]");
+        out.append(".skip:\n");
+        out.append("     cmp rsi, rdi\n");
+        out.append("     jb .skip_char\n");
+        out.append("     call refill_input\n");
+        out.append("     test rax, rax\n");
+        out.append("     jg .skip_char\n");
+        mov("QWORD [input_position]", "rsi");
+        mov("rax", "-1");
+        mov("rdx", "1");
+        out.append("     ret\n");
+        out.append(".skip_char:\n");
+        whitespace(".blank");
+        out.append("     jmp .token\n");
+        out.append(".blank:\n");
+        out.append("     inc rsi\n");
+        out.append("     jmp .skip\n\n");
+        out.append(".token:\n");
+        out.append("     ;; the flags of the token, on the stack: 1 negative, 2 digits read, 4 out of range\n");
+        out.append("     xor rax, rax\n");
+        out.append("     cmp byte [rsi], '-'\n");
+        out.append("     jne .sign\n");
+        out.append("     inc rsi\n");
+        mov("rax", "1");
+        out.append(".sign:\n");
+        out.append("     push rax\n");
+        out.append(".chunk:\n");
+        out.append("     cmp rsi, rdi\n");
+        out.append("     jb .load\n");
+        out.append("     call refill_input\n");
+        out.append("     test rax, rax\n");
+        out.append("     jle .end\n");
+        out.append(".load:\n");
+        out.append("     ;; a byte that is not a digit gets its high bit set by v - '0' or by v + 0x7f - '9'\n");
+        mov("rax", "QWORD [rsi]");
+        mov("rcx", "0xCFCFCFCFCFCFCFD0");
+        out.append("     add rcx, rax\n");
+        mov("rdx", "0x4646464646464646");
+        out.append("     add rdx, rax\n");
+        out.append("     or rdx, rcx\n");
+        mov("rax", "0x8080808080808080");
+        out.append("     and rdx, rax\n");
+        out.append("     ;; the digits before the first of them, no more than the block has left\n");
+        mov("r11", "71");
+        out.append("     bsf rdx, rdx\n");
+        out.append("     cmovz rdx, r11\n");
+        out.append("     shr rdx, 3\n");
+        mov("r11", "rdi");
+        out.append("     sub r11, rsi\n");
+        out.append("     cmp r11, rdx\n");
+        out.append("     cmova r11, rdx\n");
+        out.append("     test r11, r11\n");
+        out.append("     jz .rest\n");
+        out.append("     or QWORD [rsp], 2\n");
+        out.append("     add rsi, r11\n");
+        out.append("     ;; the digits go to the high bytes, the first one is the most significant\n");
+        mov("rax", "rcx");
+        out.append("     lea rcx, [r11 * 8]\n");
+        out.append("     neg rcx\n");
+        out.append("     add rcx, 64\n");
+        out.append("     shl rax, cl\n");
+        out.append("     imul rax, rax, 2561\n");
+        out.append("     shr rax, 8\n");
+        mov("rcx", "0x00FF00FF00FF00FF");
+        out.append("     and rax, rcx\n");
+        out.append("     imul rax, rax, 6553601\n");
+        out.append("     shr rax, 16\n");
+        mov("rcx", "0x0000FFFF0000FFFF");
+        out.append("     and rax, rcx\n");
+        mov("rcx", "42949672960001");
+        out.append("     imul rax, rcx\n");
+        out.append("     shr rax, 32\n");
+        out.append("     ;; rbx = rbx * 10^n + rax\n");
+        mov("rcx", "rax");
+        mov("rax", "QWORD [powers_of_ten + r11 * 8]");
+        out.append("     mul rbx\n");
+        out.append("     jc .overflow\n");
+        out.append("     add rax, rcx\n");
+        out.append("     jc .overflow\n");
+        mov("rbx", "rax");
+        out.append("     ;; 8 digits or the end of the block, the token can go on\n");
+        out.append("     cmp r11, 8\n");
+        out.append("     je .chunk\n");
+        out.append("     cmp rsi, rdi\n");
+        out.append("     jae .chunk\n");
+        out.append("     jmp .rest\n\n");
+        out.append(".overflow:\n");
+        out.append("     or QWORD [rsp], 4\n");
+        out.append(".rest:\n");
+        out.append("     ;; the rest of the token is skipped\n");
+        out.append("     cmp rsi, rdi\n");
+        out.append("     jb .rest_char\n");
+        out.append("     call refill_input\n");
+        out.append("     test rax, rax\n");
+        out.append("     jle .end\n");
+        out.append(".rest_char:\n");
+        whitespace(".end");
+        out.append("     inc rsi\n");
+        out.append("     jmp .rest\n\n");
+        out.append(".end:\n");
+        mov("QWORD [input_position]", "rsi");
+        out.append("     pop rcx\n");
+        mov("rax", "-1");
+        mov("rdx", "1");
+        out.append("     test rcx, 2\n");
+        out.append("     jz .done\n");
+        mov("rdx", "2");
+        out.append("     test rcx, 4\n");
+        out.append("     jnz .done\n");
+        out.append("     ;; at most 2^63 - 1, 2^63 if negative\n");
+        out.append("     and rcx, 1\n");
+        mov("rax", "0x7FFFFFFFFFFFFFFF");
+        out.append("     add rax, rcx\n");
+        out.append("     cmp rbx, rax\n");
+        mov("rax", "-1");
+        out.append("     ja .done\n");
+        mov("rax", "rbx");
+        out.append("     xor rdx, rdx\n");
+        out.append("     test rcx, rcx\n");
+        out.append("     jz .done\n");
+        out.append("     neg rax\n");
+        out.append(".done:\n");
+        out.append("     ret\n\n");
+    }
+
+    /**
+     * It generates refill_input, that reads the next block of the input, leaving its start in rsi and its end in rdi,
+     * and preserves rbx and rdx
+     */
+    private void refillInputFunc() {
+        out.append("refill_input:\n");
+        flushOutput();
+        out.append("     push rdx\n");
+        mov("rax", "0");
+        mov("rdi", "0");
+        mov("rsi", "input_buffer");
+        mov("rdx", Integer.toString(INPUT_SIZE));
+        out.append("     syscall\n");
+        out.append("     pop rdx\n");
+        mov("rsi", "input_buffer");
+        mov("rdi", "rsi");
+        out.append("     ;; the end of the input and the errors leave the buffer empty\n");
+        out.append("     test rax, rax\n");
+        out.append("     jle .empty\n");
+        out.append("     add rdi, rax\n");
+        out.append(".empty:\n");
+        mov("QWORD [input_end]", "rdi");
+        out.append("     ret\n\n");
+    }
+
+    /**
+     * Jumps to a label if the byte at rsi is whitespace: a space or a control character from tab to carriage return
+     */
+    private void whitespace(String label) {
+        out.append("     movzx ecx, byte [rsi]\n");
+        out.append("     cmp ecx, ' '\n");
+        out.append("     je ").append(label).append("\n");
+        out.append("     sub ecx, 9\n");
+        out.append("     cmp ecx, 4\n");
+        out.append("     jbe ").append(label).append("\n");
+    }
+
+    /**
+     * Marks a routine as used, with the ones it calls
+     */
+    private void use(Routine routine) {
+        if (used.add(routine)) {
+            routine.calls(buffered).forEach(this::use);
+        }
+    }
+
+    private void mov(String reg, String par) {
+        out.append("     mov ").append(reg).append(", ").append(par).append("\n");
+    }
+}
@@ -2,12 +2,20 @@ package org.compiler;
 
 import org.apache.commons.cli.*;
 import org.compiler.errors.TokenError;
+import org.compiler.ir.Lowering;
 import org.compiler.nodes.NodeProgram;
+import org.compiler.peekers.MappedSourceReader;
+import org.compiler.peekers.PeekIteratorTokenStream;
+import org.compiler.token.TokenBuffer;
 import org.compiler.token.Tokenizer;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 /**
  * The main class of the compiler
@@ -80,24 +88,25 @@ public class CompilerMZ {
         String fileOut = getCmdFileOption(cmd, "o", removeExtension(fileIn, ".mz"), ".asm");
         String fileObj = getCmdFileOption(cmd, "O", removeExtension(fileOut, ".asm"), ".o");
         String fileExe = getCmdFileOption(cmd, "e", removeExtension(fileObj, ".o"), "");
+        Generator.Allocation allocation = cmd.hasOption("s") ? Generator.Allocation.SSA
+                : cmd.hasOption("r") ? Generator.Allocation.REGISTERS : Generator.Allocation.STACK;
         if (!cmd.hasOption("v") && !cmd.hasOption("c")) {
-            callFullStack(fileIn, fileOut, fileObj, fileExe, dialect);
+            callFullStack(fileIn, fileOut, fileObj, fileExe, dialect, allocation);
             if (cmd.hasOption("x")) {
                 callExecutable(fileExe);
             }
             return;
         }
         if (!cmd.hasOption("v") && cmd.hasOption("c")) {
-            makeAssembly(fileIn, fileOut, dialect);
+            makeAssembly(fileIn, fileOut, dialect, allocation);
             return;
         }
 
-        // Reading file
-        String content;
-        content = readFile(fileIn);
-
-        // Tokenizing
-        Tokenizer tokenizer = new Tokenizer(content, dialect);
+        // Reading and tokenizing file
+        Tokenizer tokenizer;
+        try (Reader reader = openFile(fileIn)) {
+            tokenizer = new Tokenizer(reader, dialect, true);
+        }
         System.out.println("1) Tokenized!");
         // for debugging
         System.out.printf("Tokens: %s\n", tokenizer.getTokens());
@@ -107,10 +116,19 @@ public class CompilerMZ {
         NodeProgram tree = parser.getTree();
         System.out.println("2) Parsed!");
         System.out.printf("Parsed tree: %s\n", tree.toString());
+        tree = new DeadStoreElimination(new Optimizer(tree).getTree()).getTree();
+        System.out.printf("Optimized tree: %s\n", tree.toString());
+        if (allocation == Generator.Allocation.SSA) {
+            System.out.printf("Control-flow graph:\n%s", Lowering.lower(tree));
+        }
         // Generating
-        Generator generator = new Generator(tree);
-        String res = generator.getGenerated();
+        Generator generator = new Generator(tree, allocation);
+        Peephole peephole = new Peephole();
+        peephole.append(generator.getGenerated());
+        peephole.close();
+        String res = peephole.toString();
         System.out.println("3) Generated assembly!");
+        System.out.printf("Peephole rules applied: %s\n", peephole.getHits());
 
         // Writing file
         writeFile(fileOut, res);
@@ -148,12 +166,45 @@ public class CompilerMZ {
      *             on any error through the whole process
      */
     public static void makeAssembly(String fileIn, String fileASMOut, String dialect) throws IOException, TokenError {
-        String content = readFile(fileIn);
-        Tokenizer tokenizer = new Tokenizer(content, dialect);
-        Parser parser = new Parser(tokenizer.getTokens());
-        Generator generator = new Generator(parser.getTree());
-        String outputASM = generator.getGenerated();
-        writeFile(fileASMOut, outputASM);
+        makeAssembly(fileIn, fileASMOut, dialect, Generator.Allocation.STACK);
+    }
+
+    /**
+     * Goes from .mz file to .asm file: tokenize parse generate
+     *
+     * @param fileIn
+     *            .mz file
+     * @param fileASMOut
+     *            .asm file
+     * @param dialect
+     *            dialect of the .mz file
+     * @param allocation
+     *            how the generator evaluates expressions
+     *
+     * @throws IOException
+     *             on any error through the whole process
+     */
+    public static void makeAssembly(String fileIn, String fileASMOut, String dialect, Generator.Allocation allocation)
+            throws IOException, TokenError {
+        Parser parser;
+        // the tokens are streamed to the parser while the file is read
+        try (Reader reader = openFile(fileIn)) {
+            parser = new Parser(new PeekIteratorTokenStream(Tokenizer.streaming(reader, dialect)));
+        }
+        // the assembly is written through the peephole optimiser while it is generated, to a file next to the output
+        // that replaces it only if the program compiles: an error leaves the previous .asm as it was
+        Path target = Paths.get(fileASMOut).toAbsolutePath();
+        Path partial = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING); Peephole peephole = new Peephole(channel)) {
+                new Generator(new DeadStoreElimination(new Optimizer(parser.getTree()).getTree()).getTree(), peephole,
+                        allocation);
+            }
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
     }
 
     /**
@@ -173,7 +224,29 @@ public class CompilerMZ {
      */
     public static void callFullStack(String fileIn, String fileOut, String fileObj, String fileExe, String dialect)
             throws IOException, TokenError {
-        makeAssembly(fileIn, fileOut, dialect);
+        callFullStack(fileIn, fileOut, fileObj, fileExe, dialect, Generator.Allocation.STACK);
+    }
+
+    /**
+     * Goes from .mz file to exe file
+     *
+     * @param fileIn
+     *            .mz file
+     * @param fileOut
+     *            .asm assembly file where compiled .mz goes
+     * @param fileObj
+     *            .o assembled object file made from .asm
+     * @param fileExe
+     *            executable final file
+     * @param allocation
+     *            how the generator evaluates expressions
+     *
+     * @throws IOException
+     *             On any problem related to IO on files
+     */
+    public static void callFullStack(String fileIn, String fileOut, String fileObj, String fileExe, String dialect,
+            Generator.Allocation allocation) throws IOException, TokenError {
+        makeAssembly(fileIn, fileOut, dialect, allocation);
         callAssembler(fileOut, fileObj);
         callLinker(fileObj, fileExe);
     }
@@ -197,12 +270,65 @@ public class CompilerMZ {
      */
     public static int callFullStackWithReturnCode(String fileIn, String fileOut, String fileObj, String fileExe)
             throws IOException, TokenError {
-        makeAssembly(fileIn, fileOut, "default_dialect");
+        return callFullStackWithReturnCode(fileIn, fileOut, fileObj, fileExe, Generator.Allocation.STACK);
+    }
+
+    /**
+     * Goes from .mz file to exe file
+     *
+     * @param fileIn
+     *            .mz file
+     * @param fileOut
+     *            .asm assembly file where compiled .mz goes
+     * @param fileObj
+     *            .o assembled object file made from .asm
+     * @param fileExe
+     *            executable final file
+     * @param allocation
+     *            how expressions are evaluated
+     *
+     * @return int Return code of the program
+     *
+     * @throws IOException
+     *             On any problem related to IO on files
+     */
+    public static int callFullStackWithReturnCode(String fileIn, String fileOut, String fileObj, String fileExe,
+            Generator.Allocation allocation) throws IOException, TokenError {
+        makeAssembly(fileIn, fileOut, "default_dialect", allocation);
         callAssembler(fileOut, fileObj);
         callLinker(fileObj, fileExe);
         return callExecutable(fileExe);
     }
 
+    /**
+     * Goes from .mz file to exe file and runs it reading its standard input from a file
+     *
+     * @param fileIn
+     *            .mz file
+     * @param fileOut
+     *            .asm assembly file where compiled .mz goes
+     * @param fileObj
+     *            .o assembled object file made from .asm
+     * @param fileExe
+     *            executable final file
+     * @param allocation
+     *            how expressions are evaluated
+     * @param fileInput
+     *            file the program reads as its standard input
+     *
+     * @return int Return code of the program
+     *
+     * @throws IOException
+     *             On any problem related to IO on files
+     */
+    public static int callFullStackWithReturnCode(String fileIn, String fileOut, String fileObj, String fileExe,
+            Generator.Allocation allocation, String fileInput) throws IOException, TokenError {
+        makeAssembly(fileIn, fileOut, "default_dialect", allocation);
+        callAssembler(fileOut, fileObj);
+        callLinker(fileObj, fileExe);
+        return callExecutable(fileExe, new File(fileInput));
+    }
+
     /**
      * Formats a file in place(translating it to its own dialect to format it)
      *
@@ -239,25 +365,27 @@ public class CompilerMZ {
      */
     public static void translate(String fileIn, String fileOut, String dialectIn, String dialectOut)
             throws IOException, TokenError {
-        String content = readFile(fileIn);
-        Tokenizer tokenizer = new Tokenizer(content, dialectIn, false);
-        CrossCompiler crossCompiler = new CrossCompiler(tokenizer.getTokens(), dialectOut);
+        TokenBuffer tokens;
+        try (Reader reader = openFile(fileIn)) {
+            tokens = Tokenizer.toTokenBuffer(reader, dialectIn, false);
+        }
+        CrossCompiler crossCompiler = new CrossCompiler(tokens, dialectOut);
         writeFile(fileOut, crossCompiler.getCrossCompiledCode());
     }
 
     /**
-     * Reads file as a string
+     * Opens a UTF-8 file for reading, the file is memory mapped and decoded a window at a time
      *
      * @param filePath
      *            file to be read
      *
-     * @return String content of file
+     * @return a Reader over the content of the file
      *
      * @throws IOException
-     *             on problems while reading
+     *             on problems while opening
      */
-    private static String readFile(String filePath) throws IOException {
-        return new String(Files.readAllBytes(Paths.get(filePath)));
+    private static Reader openFile(String filePath) throws IOException {
+        return new MappedSourceReader(Paths.get(filePath));
     }
 
     /**
@@ -344,6 +472,33 @@ public class CompilerMZ {
         return runCustomProcess(execProcessBuilder, "Executable file", true);
     }
 
+    /**
+     * Calls the final executable output with its standard input redirected from a file
+     *
+     * @param filePath
+     *            file path of exe file
+     * @param input
+     *            file read as standard input
+     *
+     * @return exit code of the function
+     *
+     * @throws FileNotFoundException
+     *             on file not found
+     */
+    private static int callExecutable(String filePath, File input) throws FileNotFoundException {
+        File executableFile = new File(filePath);
+
+        if (!executableFile.exists() || !executableFile.isFile()) {
+            throw new FileNotFoundException("Invalid file path: " + filePath);
+        }
+        if (!input.exists() || !input.isFile()) {
+            throw new FileNotFoundException("Invalid file path: " + input);
+        }
+
+        ProcessBuilder execProcessBuilder = new ProcessBuilder(executableFile.getAbsolutePath()).redirectInput(input);
+        return runCustomProcess(execProcessBuilder, "Executable file", true);
+    }
+
     /**
      * Runs code, throws error on exit code != 0
      *
@@ -488,6 +643,8 @@ public class CompilerMZ {
         options.addOption("e", "executable", true, "final executable file");
         options.addOption("d", "dialect", true, "dialect to be used");
         options.addOption("v", "verbose", false, "verbose output");
+        options.addOption("r", "registers", false, "evaluate expressions in registers instead of the stack");
+        options.addOption("s", "ssa", false, "generate from the SSA form, allocating registers for the whole program");
 
         return options;
     }
@@ -1,15 +1,16 @@
 package org.compiler;
 
+import org.compiler.token.TokenBuffer;
 import org.compiler.token.TokenType;
 import org.compiler.token.dialects.Dialect;
-import org.compiler.token.tokens.*;
+import org.compiler.token.tokens.Token;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
 public class CrossCompiler {
-    private final ArrayList<Token> tokens;
+    private final TokenBuffer tokens;
     private final Dialect dialect;
     private String crossCompiledCode;
 
@@ -22,6 +23,18 @@ public class CrossCompiler {
      *            the dialect to use for the cross-compilation
      */
     public CrossCompiler(ArrayList<Token> tokens, String dialect) {
+        this(TokenBuffer.of(tokens), dialect);
+    }
+
+    /**
+     * Constructor for the CrossCompiler class.
+     *
+     * @param tokens
+     *            the tokens to cross-compile, read in place through a flyweight view
+     * @param dialect
+     *            the dialect to use for the cross-compilation
+     */
+    public CrossCompiler(TokenBuffer tokens, String dialect) {
         this.tokens = tokens;
         this.dialect = new Dialect(dialect);
         generateCrossCompiledCode();
@@ -40,7 +53,8 @@ public class CrossCompiler {
         }
         addMultiTokenTokens(tokenToWordMap);
         StringBuilder crossCompiledCodeSB = new StringBuilder();
-        for (Token token : tokens) {
+        TokenBuffer.View token = tokens.view();
+        while (token.next()) {
             TokenType type = token.getType();
             if (type == TokenType.open_curly || type == TokenType.close_curly) {
                 if (type == TokenType.close_curly) {
@@ -54,8 +68,8 @@ public class CrossCompiler {
             if (tokenToWordMap.containsKey(type)) {
                 if (type == TokenType.comment) {
                     String commentSymbol = tokenToWordMap.get(TokenType.comment);
-                    String commentText = ((TokenComment) token).getComment();
-                    if (!((TokenComment) token).isMultiline()) {
+                    String commentText = token.getText();
+                    if (!token.isMultiline()) {
                         crossCompiledCodeSB.append(commentSymbol).append(commentText);
                     } else {
                         crossCompiledCodeSB.append(commentSymbol).append(commentSymbol).append("\n");
@@ -84,14 +98,14 @@ public class CrossCompiler {
                 crossCompiledCodeSB.append(" ");
             } else {
                 if (type == TokenType.int_lit) {
-                    crossCompiledCodeSB.append(((TokenIntLit) token).getValue());
+                    crossCompiledCodeSB.append(token.getValue());
                 }
                 if (type == TokenType.string_lit) {
-                    crossCompiledCodeSB.append(((TokenString) token).getContent());
+                    crossCompiledCodeSB.append(token.getText());
                     continue;
                 }
                 if (type == TokenType.ident) {
-                    crossCompiledCodeSB.append(((TokenIdent) token).getName());
+                    crossCompiledCodeSB.append(token.getName());
                 }
 
                 crossCompiledCodeSB.append(" ");
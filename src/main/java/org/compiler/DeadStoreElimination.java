@@ -0,0 +1,313 @@
+package org.compiler;
+
+import org.compiler.nodes.NodeExpression;
+import org.compiler.nodes.NodeProgram;
+import org.compiler.nodes.NodeStatement;
+import org.compiler.nodes.expressions.binary_expressions.BinType;
+import org.compiler.nodes.expressions.binary_expressions.NodeBin;
+import org.compiler.nodes.expressions.terms.NodeIdent;
+import org.compiler.nodes.expressions.terms.NodeIntLit;
+import org.compiler.nodes.expressions.terms.NodeTermParen;
+import org.compiler.nodes.statements.NodeAssign;
+import org.compiler.nodes.statements.NodeExit;
+import org.compiler.nodes.statements.NodeLet;
+import org.compiler.nodes.statements.NodeScope;
+import org.compiler.nodes.statements.conditionals.NodeElif;
+import org.compiler.nodes.statements.conditionals.NodeIf;
+import org.compiler.nodes.statements.conditionals.NodeWhile;
+import org.compiler.nodes.statements.functions.BuiltInFunc;
+import org.compiler.nodes.statements.functions.NodeBuiltInFunc;
+import org.compiler.token.tokens.TokenIdent;
+import org.compiler.token.tokens.TokenIntLit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes the stores whose value is never observed, with a backward liveness analysis of the variables over the AST: a
+ * store is dead if every path from it reaches an exit or another store of the same variable before reading it. A dead
+ * assignment is removed, a let with a dead value is removed if nothing is left that names its variable, otherwise its
+ * value becomes 0 and only the slot is kept. A loop is iterated to a fixed point, starting with no variable live, so a
+ * variable that only feeds its own stores is dead too.
+ * <p>
+ * The stores whose expression can fault, a division or a modulo that is not by a constant other than 0 and -1, are
+ * kept even if their value is dead, and read() always is. The variables are told apart by their declaration, not by
+ * their name. A program with an undeclared, redeclared or uninitialised identifier is left as it is, so the Generator
+ * reports the same error.
+ */
+public class DeadStoreElimination {
+    private final NodeProgram tree;
+    /**
+     * The variable of each let, each assignment and each identifier, numbered in the order they are declared
+     */
+    private final Map<Object, Integer> variables = new IdentityHashMap<>();
+    private final Set<NodeStatement> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<NodeLet> unobserved = Collections.newSetFromMap(new IdentityHashMap<>());
+    private int[] references;
+    private int declared = 0;
+
+    public DeadStoreElimination(NodeProgram program) {
+        SymbolTable symbols = new SymbolTable();
+        boolean resolved = true;
+        for (NodeStatement statement : program.getStmts()) {
+            resolved = resolved && resolve(statement, symbols);
+        }
+        if (!resolved) {
+            tree = program;
+            return;
+        }
+        references = new int[declared];
+        live(program.getStmts(), new HashSet<>(), true);
+        tree = new NodeProgram(rebuild(program.getStmts()));
+    }
+
+    /**
+     * Binds the identifiers of a statement to the variables they name, like the Generator does
+     *
+     * @return false if the Generator would report an error
+     */
+    private boolean resolve(NodeStatement stmt, SymbolTable symbols) {
+        return switch (stmt) {
+        case NodeLet nodeLet -> {
+            int id = nodeLet.getIdentifier().getId();
+            // x in the value of let x is uninitialised, it is not declared yet here
+            if (symbols.lookup(id) >= 0 || !resolve(nodeLet.getStmt(), symbols)) {
+                yield false;
+            }
+            int variable = declared++;
+            variables.put(nodeLet, variable);
+            symbols.declare(id, variable);
+            yield true;
+        }
+        case NodeAssign nodeAssign -> bind(nodeAssign.getTokenIdent(), symbols)
+                && resolve(nodeAssign.getStmt(), symbols);
+        case NodeExit nodeExit -> resolve(nodeExit.getStmt(), symbols);
+        case NodeBuiltInFunc nodeBuiltInFunc -> resolve(nodeBuiltInFunc.getStmt(), symbols);
+        case NodeScope nodeScope -> {
+            symbols.beginScope();
+            boolean resolved = true;
+            for (NodeStatement nodeStatement : nodeScope.getStmts()) {
+                resolved = resolved && resolve(nodeStatement, symbols);
+            }
+            symbols.endScope();
+            yield resolved;
+        }
+        case NodeWhile nodeWhile -> resolve(nodeWhile.getStmt(), symbols) && resolve(nodeWhile.getScope(), symbols);
+        case NodeIf nodeIf -> {
+            boolean resolved = resolve(nodeIf.getStmt(), symbols) && resolve(nodeIf.getIfScope(), symbols);
+            for (int i = 0; i < nodeIf.countElif(); i++) {
+                NodeElif nodeElif = nodeIf.getNthScopeElif(i);
+                resolved = resolved && resolve(nodeElif.getStmt(), symbols) && resolve(nodeElif.getScope(), symbols);
+            }
+            yield resolved && (!nodeIf.hasElse() || resolve(nodeIf.getScopeElse(), symbols));
+        }
+        case null, default -> throw new IllegalArgumentException("Unknown statement type in dead store elimination");
+        };
+    }
+
+    private boolean resolve(NodeExpression expr, SymbolTable symbols) {
+        return switch (expr) {
+        case NodeIdent nodeIdent -> bind(nodeIdent.getIdent(), symbols);
+        case NodeBin nodeBin -> resolve(nodeBin.getLeft(), symbols) && resolve(nodeBin.getRight(), symbols);
+        case NodeTermParen nodeTermParen -> resolve(nodeTermParen.getExprParen(), symbols);
+        case null, default -> true;
+        };
+    }
+
+    private boolean bind(TokenIdent ident, SymbolTable symbols) {
+        int variable = symbols.lookup(ident.getId());
+        if (variable < 0) {
+            return false;
+        }
+        variables.put(ident, variable);
+        return true;
+    }
+
+    /**
+     * Computes the variables live before a list of statements
+     *
+     * @param stmts
+     *            the statements
+     * @param liveOut
+     *            the variables live after them, not modified
+     * @param apply
+     *            if the dead stores and the references of the kept statements are recorded, false while a loop is
+     *            iterated to its fixed point
+     *
+     * @return the variables live before the statements
+     */
+    private Set<Integer> live(List<NodeStatement> stmts, Set<Integer> liveOut, boolean apply) {
+        Set<Integer> live = new HashSet<>(liveOut);
+        for (NodeStatement stmt : stmts.reversed()) {
+            live = live(stmt, live, apply);
+        }
+        return live;
+    }
+
+    private Set<Integer> live(NodeStatement stmt, Set<Integer> live, boolean apply) {
+        switch (stmt) {
+        case NodeLet nodeLet -> store(nodeLet, variables.get(nodeLet), live, apply);
+        case NodeAssign nodeAssign -> store(nodeAssign, variables.get(nodeAssign.getTokenIdent()), live, apply);
+        case NodeExit nodeExit -> {
+            live = new HashSet<>();
+            uses(nodeExit.getStmt(), live, apply);
+        }
+        case NodeBuiltInFunc nodeBuiltInFunc -> {
+            if (nodeBuiltInFunc.getStmt() instanceof NodeIdent nodeIdent) {
+                int variable = variables.get(nodeIdent.getIdent());
+                if (nodeBuiltInFunc.getFunc() == BuiltInFunc.read) {
+                    live.remove(variable);
+                    if (apply) {
+                        references[variable]++;
+                    }
+                } else {
+                    uses(nodeIdent, live, apply);
+                }
+            }
+        }
+        case NodeScope nodeScope -> live = live(nodeScope.getStmts(), live, apply);
+        case NodeWhile nodeWhile -> {
+            // the condition is evaluated before the body and after each iteration
+            Set<Integer> in = new HashSet<>(live);
+            uses(nodeWhile.getStmt(), in, false);
+            while (true) {
+                Set<Integer> next = live(nodeWhile.getScope().getStmts(), in, false);
+                next.addAll(live);
+                uses(nodeWhile.getStmt(), next, false);
+                if (next.equals(in)) {
+                    break;
+                }
+                in = next;
+            }
+            if (apply) {
+                live(nodeWhile.getScope().getStmts(), in, true);
+                uses(nodeWhile.getStmt(), in, true);
+            }
+            live = in;
+        }
+        case NodeIf nodeIf -> {
+            // the conditions are evaluated in order until one is true, any of them can be
+            Set<Integer> in = nodeIf.hasElse() ? live(nodeIf.getScopeElse().getStmts(), live, apply)
+                    : new HashSet<>(live);
+            in.addAll(live(nodeIf.getIfScope().getStmts(), live, apply));
+            uses(nodeIf.getStmt(), in, apply);
+            for (int i = 0; i < nodeIf.countElif(); i++) {
+                NodeElif nodeElif = nodeIf.getNthScopeElif(i);
+                in.addAll(live(nodeElif.getScope().getStmts(), live, apply));
+                uses(nodeElif.getStmt(), in, apply);
+            }
+            live = in;
+        }
+        case null, default -> throw new IllegalArgumentException("Unknown statement type in dead store elimination");
+        }
+        return live;
+    }
+
+    /**
+     * A let or an assignment: its value is dead if the variable is not live after it, it is kept anyway if computing
+     * it can fault
+     */
+    private void store(NodeStatement stmt, int variable, Set<Integer> live, boolean apply) {
+        boolean observed = live.remove(variable);
+        if (observed || canFault(stmt.getStmt())) {
+            uses(stmt.getStmt(), live, apply);
+            if (apply && stmt instanceof NodeAssign) {
+                references[variable]++;
+            }
+        } else if (apply && stmt instanceof NodeLet nodeLet) {
+            unobserved.add(nodeLet);
+        } else if (apply) {
+            removed.add(stmt);
+        }
+    }
+
+    /**
+     * Adds the variables an expression reads to the live ones
+     */
+    private void uses(NodeExpression expr, Set<Integer> live, boolean apply) {
+        switch (expr) {
+        case NodeIdent nodeIdent -> {
+            int variable = variables.get(nodeIdent.getIdent());
+            live.add(variable);
+            if (apply) {
+                references[variable]++;
+            }
+        }
+        case NodeBin nodeBin -> {
+            uses(nodeBin.getLeft(), live, apply);
+            uses(nodeBin.getRight(), live, apply);
+        }
+        case NodeTermParen nodeTermParen -> uses(nodeTermParen.getExprParen(), live, apply);
+        case null, default -> {
+        }
+        }
+    }
+
+    private static boolean canFault(NodeExpression expr) {
+        return switch (expr) {
+        case NodeBin nodeBin -> canFault(nodeBin.getLeft()) || canFault(nodeBin.getRight())
+                || (nodeBin.getType() == BinType.Div || nodeBin.getType() == BinType.Mod)
+                        && !LoopAnalysis.cannotFault(nodeBin);
+        case NodeTermParen nodeTermParen -> canFault(nodeTermParen.getExprParen());
+        case null, default -> false;
+        };
+    }
+
+    private ArrayList<NodeStatement> rebuild(List<NodeStatement> stmts) {
+        ArrayList<NodeStatement> kept = new ArrayList<>();
+        for (NodeStatement stmt : stmts) {
+            NodeStatement rebuilt = rebuild(stmt);
+            if (rebuilt != null) {
+                kept.add(rebuilt);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * @return the statement without its dead stores, null if it is removed
+     */
+    private NodeStatement rebuild(NodeStatement stmt) {
+        if (removed.contains(stmt)) {
+            return null;
+        }
+        return switch (stmt) {
+        case NodeLet nodeLet when unobserved.contains(nodeLet) -> {
+            if (references[variables.get(nodeLet)] == 0) {
+                yield null;
+            }
+            TokenIdent ident = nodeLet.getIdentifier().getIdent();
+            yield nodeLet.getStmt() instanceof NodeIntLit ? nodeLet
+                    : new NodeLet(new NodeIntLit(new TokenIntLit(0, ident.getLine(), ident.getColumnStart(),
+                            ident.getColumnEnd())), nodeLet.getIdentifier());
+        }
+        case NodeScope nodeScope -> rebuild(nodeScope);
+        case NodeWhile nodeWhile -> new NodeWhile(nodeWhile.getStmt(), rebuild(nodeWhile.getScope()));
+        case NodeIf nodeIf -> {
+            NodeIf rebuilt = new NodeIf(nodeIf.getStmt(), rebuild(nodeIf.getIfScope()));
+            for (int i = 0; i < nodeIf.countElif(); i++) {
+                NodeElif nodeElif = nodeIf.getNthScopeElif(i);
+                rebuilt.addScopeElif(new NodeElif(nodeElif.getStmt(), rebuild(nodeElif.getScope())));
+            }
+            if (nodeIf.hasElse()) {
+                rebuilt.setScopeElse(rebuild(nodeIf.getScopeElse()));
+            }
+            yield rebuilt;
+        }
+        default -> stmt;
+        };
+    }
+
+    private NodeScope rebuild(NodeScope nodeScope) {
+        return new NodeScope(nodeScope.getStmt(), rebuild(nodeScope.getStmts()));
+    }
+
+    public NodeProgram getTree() {
+        return tree;
+    }
+}
@@ -0,0 +1,98 @@
+package org.compiler;
+
+/**
+ * The magic number that replaces a signed 64 bit division by a constant with a multiplication: the quotient of x / d is
+ * the high half of multiplier * x, corrected by adding (or subtracting) x when the multiplier has the opposite sign of
+ * the divisor, shifted right arithmetically by shift and incremented when it is negative. The computation is the one of
+ * Hacker's Delight, chapter 10, with unsigned 64 bit arithmetic.
+ * <p>
+ * The divisors -1, 0, 1 and the powers of two, with either sign, have no magic number: the Generator handles them with
+ * idiv or with shifts.
+ */
+final class DivisionMagic {
+    private static final long TWO_63 = Long.MIN_VALUE;
+    private final long multiplier;
+    private final int shift;
+
+    private DivisionMagic(long multiplier, int shift) {
+        this.multiplier = multiplier;
+        this.shift = shift;
+    }
+
+    /**
+     * Computes the magic number of a divisor
+     *
+     * @param divisor
+     *            the divisor, its absolute value is at least 3 and not a power of two
+     *
+     * @return the magic number
+     *
+     * @throws IllegalArgumentException
+     *             if the divisor has no magic number
+     */
+    static DivisionMagic of(long divisor) {
+        long absolute = Math.abs(divisor);
+        if (absolute < 3 || Long.bitCount(absolute) == 1) {
+            throw new IllegalArgumentException("No magic number for the divisor " + divisor);
+        }
+        long t = TWO_63 + (divisor >>> 63);
+        long anc = t - 1 - Long.remainderUnsigned(t, absolute);
+        int p = 63;
+        long q1 = Long.divideUnsigned(TWO_63, anc);
+        long r1 = TWO_63 - q1 * anc;
+        long q2 = Long.divideUnsigned(TWO_63, absolute);
+        long r2 = TWO_63 - q2 * absolute;
+        long delta;
+        do {
+            p++;
+            q1 <<= 1;
+            r1 <<= 1;
+            if (Long.compareUnsigned(r1, anc) >= 0) {
+                q1++;
+                r1 -= anc;
+            }
+            q2 <<= 1;
+            r2 <<= 1;
+            if (Long.compareUnsigned(r2, absolute) >= 0) {
+                q2++;
+                r2 -= absolute;
+            }
+            delta = absolute - r2;
+        } while (Long.compareUnsigned(q1, delta) < 0 || (q1 == delta && r1 == 0));
+        long multiplier = q2 + 1;
+        return new DivisionMagic(divisor < 0 ? -multiplier : multiplier, p - 64);
+    }
+
+    /**
+     * @return the number the dividend is multiplied by
+     */
+    long getMultiplier() {
+        return multiplier;
+    }
+
+    /**
+     * @return the arithmetic shift of the high half of the product
+     */
+    int getShift() {
+        return shift;
+    }
+
+    /**
+     * @return the quotient computed like the generated code does, x / divisor
+     */
+    long divide(long x, long divisor) {
+        long q = Math.multiplyHigh(multiplier, x);
+        if (divisor > 0 && multiplier < 0) {
+            q += x;
+        } else if (divisor < 0 && multiplier > 0) {
+            q -= x;
+        }
+        q >>= shift;
+        return q + (q >>> 63);
+    }
+
+    @Override
+    public String toString() {
+        return "DivisionMagic{" + "multiplier=" + multiplier + ", shift=" + shift + '}';
+    }
+}
@@ -1,6 +1,8 @@
 package org.compiler;
 
 import org.compiler.errors.TokenError;
+import org.compiler.ir.Lowering;
+import org.compiler.ir.NasmBackend;
 import org.compiler.nodes.NodeExpression;
 import org.compiler.nodes.NodeProgram;
 import org.compiler.nodes.NodeStatement;
@@ -19,30 +21,100 @@ import org.compiler.nodes.statements.conditionals.NodeWhile;
 import org.compiler.nodes.statements.functions.BuiltInFunc;
 import org.compiler.nodes.statements.functions.NodeBuiltInFunc;
 import org.compiler.token.TokenType;
+import org.compiler.token.tokens.TokenIdent;
 import org.compiler.token.tokens.TokenString;
 
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Generates the assembly code from the AST. Checks for undeclared identifiers. Checks for redeclaration of identifiers
+ * <p>
+ * The .text section is appended to a single AsmEmitter while the tree is visited, the .data section is collected apart
+ * and added at the end: before the .text section if the assembly is kept in memory, after it if it is written to a
+ * channel, so the .text section never has to be held in memory.
  */
 public class Generator {
+    /**
+     * How expressions are evaluated: on the stack, pushing every intermediate value, or in registers, ordering the
+     * evaluation with Sethi-Ullman numbers and spilling to the stack only when the registers run out. SSA lowers the
+     * program to the control-flow graph of the ir package instead, its backend allocates the registers of the whole
+     * program
+     */
+    public enum Allocation {
+        STACK, REGISTERS, SSA
+    }
+
+    /**
+     * The registers expressions are evaluated in: rax and rdx are left out because idiv and the comparisons use them
+     */
+    private static final String[] REGISTERS = { "rcx", "rsi", "rdi", "r8", "r9", "r10", "r11" };
+    /**
+     * The registers the most used variables of a while loop are kept in, they are not used by expressions. rbx is the
+     * last one because print_number and atoi clobber it
+     */
+    private static final String[] LOOP_REGISTERS = { "r12", "r13", "r14", "r15", "rbx" };
     private String generated = "";
     private final NodeProgram m_program;
+    private final AsmEmitter out;
+    private final Allocation allocation;
     private int stack_size = 0;
-    private final Map<String, Integer> variables = new HashMap<>();
-    private final ArrayList<Integer> scopes = new ArrayList<>();
+    private final SymbolTable symbols = new SymbolTable();
+    private final int[] promoted = { -1, -1, -1, -1, -1 };
+    private final Map<NodeBin, Integer> hoisted = new IdentityHashMap<>();
     private int label_counter = 0;
-    private final StringBuilder sbData = new StringBuilder();
-    private int msgCounter = 1;
-    private boolean callPrintAssemblyFunc = false;
-    private boolean callAtoi = false;
+    private final AsmRuntime runtime;
 
     public Generator(NodeProgram program) throws TokenError {
+        this(program, new AsmEmitter(), Allocation.STACK);
+    }
+
+    /**
+     * @param program
+     *            the program to generate
+     * @param allocation
+     *            how expressions are evaluated
+     */
+    public Generator(NodeProgram program, Allocation allocation) throws TokenError {
+        this(program, new AsmEmitter(), allocation);
+    }
+
+    /**
+     * Generates the assembly of a program writing it to a channel, getGenerated() is not available
+     *
+     * @param program
+     *            the program to generate
+     * @param channel
+     *            where the assembly is written, it is not closed
+     */
+    public Generator(NodeProgram program, WritableByteChannel channel) throws TokenError {
+        this(program, channel, Allocation.STACK);
+    }
+
+    /**
+     * Generates the assembly of a program writing it to a channel, getGenerated() is not available
+     *
+     * @param program
+     *            the program to generate
+     * @param channel
+     *            where the assembly is written, it is not closed
+     * @param allocation
+     *            how expressions are evaluated
+     */
+    public Generator(NodeProgram program, WritableByteChannel channel, Allocation allocation) throws TokenError {
+        this(program, new AsmEmitter(channel), allocation);
+    }
+
+    private Generator(NodeProgram program, AsmEmitter out, Allocation allocation) throws TokenError {
         this.m_program = program;
+        this.out = out;
+        this.allocation = allocation;
+        this.runtime = new AsmRuntime(out);
         generateProgram();
     }
 
@@ -50,32 +122,26 @@ public class Generator {
      * Generates the assembly code for the program. Exit code is 0 by default if no exit statement is present
      */
     public void generateProgram() throws TokenError {
-        StringBuilder sb = new StringBuilder();
-        sbData.append("section .data\n");
-        sbData.append("     minus_sign db '-'\n");
-        sbData.append("     buffer db 20 dup(0)\n");
-        sbData.append("     newline db 0x0a\n");
-        sb.append("section .text\n");
-        sb.append("     global main\n\nmain:\n");
-        for (NodeStatement statement : m_program.getStmts()) {
-            sb.append(generateStatement(statement));
+        if (allocation == Allocation.SSA) {
+            NasmBackend backend = new NasmBackend(Lowering.lower(m_program), out);
+            generated = out.isStreaming() ? null : backend.getGenerated();
+            return;
         }
-        // Exits 0 by default
-        sb.append("     ;;final exit\n");
-        sb.append(mov("rax", "60"));
-        sb.append(mov("rdi", "0"));
-        sb.append("     syscall\n\n");
-
-        if (callPrintAssemblyFunc) {
-            printAssemblyFunc(sb);
+        boolean prints = false;
+        for (NodeStatement statement : m_program.getStmts()) {
+            prints |= prints(statement);
         }
-        if (callAtoi) {
-            atoiAssemblyFunc(sb);
+        runtime.begin(prints);
+        for (NodeStatement statement : m_program.getStmts()) {
+            generateStatement(statement);
         }
-
-        sbData.append("\n");
-        sbData.append(sb);
-        generated = sbData.toString();
+        // Exits 0 by default
+        out.append("     ;;final exit\n");
+        runtime.flushOutput();
+        mov("rax", "60");
+        mov("rdi", "0");
+        out.append("     syscall\n\n");
+        generated = runtime.end();
     }
 
     /**
@@ -83,102 +149,104 @@ public class Generator {
      *
      * @param stmt
      *            the statement to generate code for
-     *
-     * @return the generated assembly code
      */
-    public String generateStatement(NodeStatement stmt) throws TokenError {
+    public void generateStatement(NodeStatement stmt) throws TokenError {
 
-        StringBuilder stmtSB = new StringBuilder();
         switch (stmt) {
         case NodeExit ignored -> {
-            stmtSB.append(generateExpression(stmt.getStmt()));
-            stmtSB.append("     ;;exit\n");
-            stmtSB.append(mov("rax", "60"));
-            stmtSB.append(pop("rdi"));
-            stmtSB.append("     syscall\n");
-            stmtSB.append("     ;;/exit\n\n");
+            generateExpression(stmt.getStmt());
+            out.append("     ;;exit\n");
+            runtime.flushOutput();
+            mov("rax", "60");
+            pop("rdi");
+            out.append("     syscall\n");
+            out.append("     ;;/exit\n\n");
         }
         case NodeLet nodeLet -> {
-            if (variables.containsKey(nodeLet.getIdentifier().getIdent().getName())) {
+            if (slotOf(nodeLet.getIdentifier().getIdent()) >= 0) {
                 throw new TokenError("Redeclared Identifier: " + nodeLet.getIdentifier().getIdent().getName(),
                         nodeLet.getIdentifier().getIdent().getLine(),
                         nodeLet.getIdentifier().getIdent().getColumnStart(),
                         nodeLet.getIdentifier().getIdent().getColumnEnd());
             }
-            variables.put(nodeLet.getIdentifier().getIdent().getName(), stack_size);
-            stmtSB.append(generateExpression(stmt.getStmt()));
+            declare(nodeLet.getIdentifier().getIdent(), stack_size);
+            generateExpression(stmt.getStmt());
         }
         case NodeAssign nodeAssign -> {
-            if (!variables.containsKey(nodeAssign.getTokenIdent().getName())) {
+            int slot = slotOf(nodeAssign.getTokenIdent());
+            if (slot < 0) {
                 throw new TokenError("Undeclared Identifier: " + nodeAssign.getTokenIdent().getName(),
                         nodeAssign.getTokenIdent().getLine(), nodeAssign.getTokenIdent().getColumnStart(),
                         nodeAssign.getTokenIdent().getColumnEnd());
             }
-            long offset = (stack_size - variables.get(nodeAssign.getTokenIdent().getName()) - 1) * 8L;
-            stmtSB.append(generateExpression(nodeAssign.getStmt()));
-            stmtSB.append(pop("rax"));
-            stmtSB.append(mov("[rsp + " + offset + "]", "rax"));
+            long offset = (stack_size - slot - 1) * 8L;
+            generateExpression(nodeAssign.getStmt());
+            String register = registerOf(slot);
+            if (register != null) {
+                pop(register);
+            } else {
+                pop("rax");
+                mov("[rsp + " + offset + "]", "rax");
+            }
         }
         case NodeScope nodeScope -> {
             beginScope();
-            stmtSB.append("     ;;begin scope\n\n");
+            out.append("     ;;begin scope\n\n");
             for (NodeStatement nodeStatement : nodeScope.getStmts()) {
-                stmtSB.append(generateStatement(nodeStatement));
+                generateStatement(nodeStatement);
             }
-            stmtSB.append(endScope());
-            stmtSB.append("     ;;/end scope\n\n");
+            endScope();
+            out.append("     ;;/end scope\n\n");
         }
         case NodeIf nodeIf -> {
             String label = create_label();
             int numberOfElifs = nodeIf.countElif();
             String finalLabel = label + "final";
-            stmtSB.append("     ;;if(label: ").append(label).append(")\n\n");
-            stmtSB.append(generateExpression(nodeIf.getStmt()));
-            stmtSB.append(pop("rax"));
-            stmtSB.append("     test rax, rax\n");
-            if (numberOfElifs != 0) {
-                stmtSB.append("     jz ").append(label).append("x0").append("\n\n");
-            }
-            stmtSB.append("     jz ").append(label).append("x").append(numberOfElifs).append("\n");
-            stmtSB.append(generateStatement(nodeIf.getIfScope()));
-            stmtSB.append("     jmp ").append(finalLabel).append("\n\n");
+            out.append("     ;;if(label: ").append(label).append(")\n\n");
+            branch(nodeIf.getStmt(), label + "x" + (numberOfElifs != 0 ? 0 : numberOfElifs), false);
+            generateStatement(nodeIf.getIfScope());
+            out.append("     jmp ").append(finalLabel).append("\n\n");
             int i;
             for (i = 0; i < numberOfElifs; i++) {
-                stmtSB.append("     ;;elif(label: ").append(label).append(")\n");
-                stmtSB.append(label).append("x").append(i).append(":\n\n");
-                stmtSB.append("     ;;elif condition\n");
-                stmtSB.append(generateExpression(nodeIf.getNthScopeElif(i).getStmt()));
-                stmtSB.append(pop("rax"));
-                stmtSB.append("     test rax, rax\n");
-                stmtSB.append("     jz ").append(label).append("x").append(i + 1).append("\n");
-                stmtSB.append("     ;;/elif condition\n");
-                stmtSB.append(generateStatement(nodeIf.getNthScopeElif(i).getScope()));
-                stmtSB.append("     ;;/elif(label: ").append(label).append(")\n");
-            }
-            stmtSB.append(label).append("x").append(i).append(":\n\n");
+                out.append("     ;;elif(label: ").append(label).append(")\n");
+                out.append(label).append("x").append(i).append(":\n\n");
+                out.append("     ;;elif condition\n");
+                branch(nodeIf.getNthScopeElif(i).getStmt(), label + "x" + (i + 1), false);
+                out.append("     ;;/elif condition\n");
+                generateStatement(nodeIf.getNthScopeElif(i).getScope());
+                out.append("     jmp ").append(finalLabel).append("\n");
+                out.append("     ;;/elif(label: ").append(label).append(")\n");
+            }
+            out.append(label).append("x").append(i).append(":\n\n");
             if (nodeIf.hasElse()) {
-                stmtSB.append("     ;;else(label: ").append(label).append(")\n");
-                stmtSB.append(generateStatement(nodeIf.getScopeElse()));
-                stmtSB.append("     jmp ").append(finalLabel).append("\n\n");
-                stmtSB.append("     ;;/else(label: ").append(label).append(")\n");
+                out.append("     ;;else(label: ").append(label).append(")\n");
+                generateStatement(nodeIf.getScopeElse());
+                out.append("     jmp ").append(finalLabel).append("\n\n");
+                out.append("     ;;/else(label: ").append(label).append(")\n");
             }
-            stmtSB.append(finalLabel).append(":\n\n");
-            stmtSB.append("     ;;/if(label: ").append(label).append(")\n\n");
+            out.append(finalLabel).append(":\n\n");
+            out.append("     ;;/if(label: ").append(label).append(")\n\n");
         }
         case NodeWhile nodeWhile -> {
             String labelStart = create_label();
             String labelEnd = create_label();
 
-            stmtSB.append("     ;;while\n");
-            stmtSB.append(labelStart).append(":\n");
-            stmtSB.append(generateExpression(nodeWhile.getStmt()));
-            stmtSB.append(pop("rax"));
-            stmtSB.append("     test rax, rax\n");
-            stmtSB.append("     jz ").append(labelEnd).append("\n");
-            stmtSB.append(generateStatement(nodeWhile.getScope()));
-            stmtSB.append("     jmp ").append(labelStart).append("\n");
-            stmtSB.append(labelEnd).append(":\n");
-            stmtSB.append("     ;;/while\n");
+            out.append("     ;;while\n");
+            int[] loopRegisters = allocation == Allocation.REGISTERS ? promote(nodeWhile) : new int[0];
+            // rotated into a do-while guarded by the condition: one branch per iteration instead of two
+            branch(nodeWhile.getStmt(), labelEnd, false);
+            List<NodeBin> invariants = hoist(nodeWhile);
+            out.append(labelStart).append(":\n");
+            generateStatement(nodeWhile.getScope());
+            branch(nodeWhile.getStmt(), labelStart, true);
+            if (!invariants.isEmpty()) {
+                out.append("     add rsp, ").append(invariants.size() * 8L).append("\n");
+                stack_size -= invariants.size();
+                invariants.forEach(hoisted::remove);
+            }
+            out.append(labelEnd).append(":\n");
+            demote(loopRegisters);
+            out.append("     ;;/while\n");
 
         }
         case NodeBuiltInFunc nodeBuiltInFunc -> {
@@ -186,167 +254,33 @@ public class Generator {
             case BuiltInFunc.print -> {
                 if (nodeBuiltInFunc.getStmt().getExpr().getType() == TokenType.string_lit) {
                     TokenString content = (TokenString) nodeBuiltInFunc.getStmt().getExpr();
-                    toPrint(content.getContent(), stmtSB);
+                    runtime.printString(content.getContent());
                 } else if (nodeBuiltInFunc.getStmt().getExpr().getType() == TokenType.int_lit) {
                     NodeIntLit nodeIntLit = (NodeIntLit) nodeBuiltInFunc.getStmt();
                     String number = Long.toString(nodeIntLit.getIntLit().getValue());
-                    toPrint(number, stmtSB);
+                    runtime.printString(number);
                 } else if (nodeBuiltInFunc.getStmt().getExpr().getType() == TokenType.ident) {
                     NodeIdent nodeIdent = (NodeIdent) nodeBuiltInFunc.getStmt();
-                    long offset = findOffset(nodeIdent, stmtSB);
-                    stmtSB.append(mov("rax", "[rsp + " + offset + "]"));
-                    callPrintAssemblyFunc = true;
-                    stmtSB.append("     call print_number\n\n");
-                    printNewLine(stmtSB);
+                    long offset = findOffset(nodeIdent);
+                    writeBack();
+                    mov("rax", "[rsp + " + offset + "]");
+                    runtime.printNumber();
+                    reload();
                 }
             }
             case BuiltInFunc.read -> {
                 NodeIdent nodeIdent = (NodeIdent) nodeBuiltInFunc.getStmt();
-                long offset = findOffset(nodeIdent, stmtSB);
-                callAtoi = true;
-                stmtSB.append("     ;;read\n");
-                stmtSB.append(mov("rax", "0"));
-                stmtSB.append(mov("rdi", "0"));
-                stmtSB.append(mov("rsi", "buffer"));
-                stmtSB.append(mov("rdx", "20"));
-                stmtSB.append("     syscall\n\n");
-                stmtSB.append(mov("rdi", "buffer"));
-                stmtSB.append("     call atoi\n");
-                stmtSB.append(mov("QWORD[rsp + " + offset + "]", "rax"));
-                stmtSB.append("     ;;/read\n\n");
+                long offset = findOffset(nodeIdent);
+                writeBack();
+                runtime.read();
+                mov("QWORD[rsp + " + offset + "]", "rax");
+                out.append("     ;;/read\n\n");
+                reload();
             }
             }
         }
         case null, default -> throw new IllegalArgumentException("Unknown statement type in generator");
         }
-        return stmtSB.toString();
-    }
-
-    /**
-     * It generates the assembly code for a string to print
-     *
-     * @param value
-     *            the actual value to print
-     * @param sb
-     *            the StringBuilder Object to append the assembly code
-     */
-    private void toPrint(String value, StringBuilder sb) {
-        sbData.append("     msg").append(msgCounter).append(" db ").append("'").append(value).append("'")
-                .append(", 0x0a\n");
-        sb.append("     ;;print\n");
-        sb.append(mov("rax", "1"));
-        sb.append(mov("rdi", "1"));
-        sb.append(mov("rsi", "msg" + msgCounter));
-        msgCounter++;
-        String length = Integer.toString(value.length());
-        sb.append(mov("rdx", length));
-        sb.append("     syscall\n");
-        sb.append("     ;;/print\n\n");
-        printNewLine(sb);
-    }
-
-    /**
-     * It generates the assembly code to print a newline
-     *
-     * @param sb
-     *            the StringBuilder Object to append the assembly code
-     */
-    private void printNewLine(StringBuilder sb) {
-        sb.append("     ;;print newline\n");
-        sb.append(mov("rax", "1"));
-        sb.append(mov("rdi", "1"));
-        sb.append(mov("rsi", "newline"));
-        sb.append(mov("rdx", "1"));
-        sb.append("     syscall\n");
-        sb.append("     ;;/print newline\n\n");
-    }
-
-    /**
-     * It generates the assembly code to print an ident
-     *
-     * @param sb
-     *            the StringBuilder Object to append the assembly code
-     */
-    private void printAssemblyFunc(StringBuilder sb) {
-        sb.append("print_number:\n");
-        sb.append("     ;; check if number is negative\n");
-        sb.append(mov("rbx", "rax"));
-        sb.append("     cmp rax, 0\n");
-        sb.append("     jge .positive\n");
-        sb.append("     ;; if negative, print minus sign and make number positive\n");
-        sb.append(mov("rax", "1"));
-        sb.append(mov("rdi", "1"));
-        sb.append(mov("rsi", "minus_sign"));
-        sb.append(mov("rdx", "1"));
-        sb.append("     syscall\n");
-        sb.append(mov("rax", "rbx"));
-        sb.append("     neg rax\n");
-        sb.append(".positive:\n");
-        sb.append(mov("rdi", "buffer + 19"));
-        sb.append(mov("byte [rdi]", "0xA"));
-        sb.append("     sub rdi, 1\n");
-        sb.append(".next_digit:\n");
-        sb.append("     xor rdx, rdx\n");
-        sb.append(mov("rcx", "10"));
-        sb.append("     div rcx\n");
-        sb.append("     add dl, '0'\n");
-        sb.append(mov("[rdi]", "dl"));
-        sb.append("     sub rdi, 1\n");
-        sb.append("     test rax, rax\n");
-        sb.append("     jnz .next_digit\n\n");
-        sb.append("     ;;print\n");
-        sb.append("     add rdi, 1\n");
-        sb.append(mov("rsi", "rdi"));
-        sb.append(mov("rdi", "1"));
-        sb.append(mov("rdx", "buffer + 19"));
-        sb.append("     sub rdx, rsi\n");
-        sb.append(mov("rax", "1"));
-        sb.append("     syscall\n");
-        sb.append("     ;;/print\n\n");
-        sb.append("     ret\n\n");
-    }
-
-    /**
-     * It generates the assembly code to convert a string to an integer(atoi)
-     *
-     * @param sb
-     *            the StringBuilder Object to append the assembly code
-     */
-    private void atoiAssemblyFunc(StringBuilder sb) {
-        sb.append("atoi:\n");
-        sb.append("     xor rax, rax\n");
-        sb.append("     xor rcx, rcx\n");
-        sb.append("     xor rdi, rdi\n");
-        sb.append("     xor rbx, rbx\n");
-        sb.append("     mov dl, byte [rsi]\n");
-        sb.append("     cmp dl, '-'\n");
-        sb.append("     jne .not_negative\n");
-        sb.append("     inc rsi\n");
-        sb.append("     mov rdi, 1\n");
-        sb.append(".not_negative:\n");
-        sb.append(".next_char:\n");
-        sb.append("     add rbx, 1\n");
-        sb.append(mov("cl", "byte [rsi]"));
-        sb.append("     inc rsi\n");
-        sb.append("     cmp cl, '0'\n");
-        sb.append("     jl .done\n");
-        sb.append("     cmp cl, '9'\n");
-        sb.append("     jg .done\n");
-        sb.append("     sub cl, '0'\n");
-        sb.append("     imul rax, rax, 10\n");
-        sb.append("     add rax, rcx\n");
-        sb.append("     jmp .next_char\n\n");
-        sb.append(".error:\n");
-        sb.append(mov("rax", "-1"));
-        sb.append("     ret\n\n");
-        sb.append(".done:\n");
-        sb.append("     cmp rbx, 1\n");
-        sb.append("     je .error\n");
-        sb.append("     test rdi, rdi\n");
-        sb.append("     jz .not_negative_result\n");
-        sb.append("     neg rax\n");
-        sb.append(".not_negative_result:\n");
-        sb.append("     ret\n\n");
     }
 
     /**
@@ -354,27 +288,25 @@ public class Generator {
      *
      * @param expr
      *            the expression to generate code for
-     *
-     * @return the generated assembly code
      */
-    public String generateTerm(NodeTerm expr) throws TokenError {
-        StringBuilder termSB = new StringBuilder();
+    public void generateTerm(NodeTerm expr) throws TokenError {
         // Generate the term based on the type
         switch (expr) {
         case NodeIntLit nodeIntLit -> {
             String value = Long.toString(nodeIntLit.getIntLit().getValue());
-            termSB.append("     ;;value\n");
-            termSB.append(mov("rax", value));
-            termSB.append(push("rax")).append("\n");
+            out.append("     ;;value\n");
+            mov("rax", value);
+            push("rax");
+            out.append("\n");
         }
         case NodeIdent nodeIdent -> {
-            long offset = findOffset(nodeIdent, termSB);
-            termSB.append(push("QWORD [rsp + " + offset + "]")).append("\n");
+            long offset = findOffset(nodeIdent);
+            push("QWORD [rsp + " + offset + "]");
+            out.append("\n");
         }
-        case NodeTermParen nodeTermParen -> termSB.append(generateExpression(nodeTermParen.getExprParen()));
+        case NodeTermParen nodeTermParen -> generateExpression(nodeTermParen.getExprParen());
         case null, default -> throw new IllegalArgumentException("Unknown term type in generator");
         }
-        return termSB.toString();
     }
 
     /**
@@ -382,22 +314,21 @@ public class Generator {
      *
      * @param nodeIdent
      *            the identifier to find the offset for
-     * @param sb
-     *            the StringBuilder object to append the assembly code
      *
      * @return the offset of the variable in the stack
      *
      * @throws TokenError
      *             if the variable is not declared
      */
-    private long findOffset(NodeIdent nodeIdent, StringBuilder sb) throws TokenError {
-        if (!variables.containsKey(nodeIdent.getIdent().getName())) {
+    private long findOffset(NodeIdent nodeIdent) throws TokenError {
+        int slot = slotOf(nodeIdent.getIdent());
+        if (slot < 0) {
             throw new TokenError("Undeclared Identifier: " + nodeIdent.getIdent().getName(),
                     nodeIdent.getIdent().getLine(), nodeIdent.getIdent().getColumnStart(),
                     nodeIdent.getIdent().getColumnEnd());
         }
-        sb.append("     ;;identifier\n");
-        long offset = (stack_size - variables.get(nodeIdent.getIdent().getName()) - 1) * 8L;
+        out.append("     ;;identifier\n");
+        long offset = (stack_size - slot - 1) * 8L;
         if (offset < 0) {
             throw new TokenError("Variable might not have been initialized: " + nodeIdent.getIdent().getName(),
                     nodeIdent.getIdent().getLine(), nodeIdent.getIdent().getColumnStart(),
@@ -411,19 +342,687 @@ public class Generator {
      *
      * @param expr
      *            the expression to generate code for
+     */
+    public void generateExpression(NodeExpression expr) throws TokenError {
+        if (allocation == Allocation.REGISTERS) {
+            out.append("     ;;expression\n");
+            Map<NodeExpression, Integer> needs = new IdentityHashMap<>();
+            label(expr, needs);
+            evaluate(expr, 0, needs);
+            push(REGISTERS[0]);
+            out.append("     ;;/expression\n\n");
+            return;
+        }
+        if (expr instanceof NodeBin nodeBin && hoisted.containsKey(nodeBin)) {
+            push(invariant(nodeBin));
+            out.append("\n");
+            return;
+        }
+        // If it's a term, generate the term, otherwise generate the binary expression
+        switch (expr) {
+        case NodeTerm nodeTerm -> generateTerm(nodeTerm);
+        case NodeBin nodeBin -> generateBinaryExpression(nodeBin);
+        case null, default -> throw new IllegalArgumentException("Unknown expression type in generator");
+        }
+    }
+
+    /**
+     * Moves the most used variables of a loop into the free LOOP_REGISTERS before the loop starts. Only the variables
+     * declared before the loop are candidates, the uses in nested loops weigh more
+     *
+     * @param nodeWhile
+     *            the loop
      *
-     * @return the generated assembly code
+     * @return the indexes of the registers taken by the loop
      */
-    public String generateExpression(NodeExpression expr) throws TokenError {
-        StringBuilder exprSB = new StringBuilder();
+    private int[] promote(NodeWhile nodeWhile) {
+        Map<Integer, Integer> uses = new HashMap<>();
+        countUses(nodeWhile, uses, 1);
+        List<Integer> candidates = new ArrayList<>();
+        for (int id : uses.keySet()) {
+            int slot = symbols.lookup(id);
+            if (slot >= 0 && registerOf(slot) == null) {
+                candidates.add(id);
+            }
+        }
+        candidates.sort((a, b) -> uses.get(b) - uses.get(a) != 0 ? uses.get(b) - uses.get(a) : a - b);
+        int[] taken = new int[LOOP_REGISTERS.length];
+        int count = 0;
+        for (int i = 0; i < LOOP_REGISTERS.length && count < candidates.size(); i++) {
+            if (promoted[i] < 0) {
+                int slot = symbols.lookup(candidates.get(count++));
+                promoted[i] = slot;
+                taken[count - 1] = i;
+                mov(LOOP_REGISTERS[i], "QWORD [rsp + " + (stack_size - slot - 1) * 8L + "]");
+            }
+        }
+        return Arrays.copyOf(taken, count);
+    }
 
-        // If it's a term, generate the term, otherwise generate the binary expression
+    /**
+     * Evaluates the loop invariant expressions of a loop once, after its guard and before its first iteration, their
+     * values stay on the stack until the loop ends
+     *
+     * @param nodeWhile
+     *            the loop
+     *
+     * @return the expressions that have been evaluated, an enclosing loop may already have evaluated some
+     *
+     * @see LoopAnalysis#invariants(NodeWhile, java.util.function.IntPredicate)
+     */
+    private List<NodeBin> hoist(NodeWhile nodeWhile) throws TokenError {
+        List<NodeBin> invariants = new ArrayList<>();
+        for (NodeBin nodeBin : LoopAnalysis.invariants(nodeWhile, id -> symbols.lookup(id) >= 0)) {
+            if (!hoisted.containsKey(nodeBin)) {
+                out.append("     ;;invariant\n");
+                generateExpression(nodeBin);
+                hoisted.put(nodeBin, stack_size - 1);
+                invariants.add(nodeBin);
+            }
+        }
+        return invariants;
+    }
+
+    /**
+     * @return the memory operand of the value of a loop invariant expression
+     */
+    private String invariant(NodeBin nodeBin) {
+        out.append("     ;;invariant\n");
+        return "QWORD [rsp + " + (stack_size - hoisted.get(nodeBin) - 1) * 8L + "]";
+    }
+
+    /**
+     * Writes the variables of a loop back to the stack once the loop is over and frees their registers
+     *
+     * @param taken
+     *            the indexes of the registers taken by the loop
+     */
+    private void demote(int[] taken) {
+        for (int i : taken) {
+            mov("QWORD [rsp + " + (stack_size - promoted[i] - 1) * 8L + "]", LOOP_REGISTERS[i]);
+            promoted[i] = -1;
+        }
+    }
+
+    /**
+     * Writes the variables kept in registers back to the stack, before a builtin reads or writes the stack
+     */
+    private void writeBack() {
+        for (int i = 0; i < LOOP_REGISTERS.length; i++) {
+            if (promoted[i] >= 0) {
+                mov("QWORD [rsp + " + (stack_size - promoted[i] - 1) * 8L + "]", LOOP_REGISTERS[i]);
+            }
+        }
+    }
+
+    /**
+     * Loads the variables kept in registers again after a builtin, which may have changed them or clobbered rbx
+     */
+    private void reload() {
+        for (int i = 0; i < LOOP_REGISTERS.length; i++) {
+            if (promoted[i] >= 0) {
+                mov(LOOP_REGISTERS[i], "QWORD [rsp + " + (stack_size - promoted[i] - 1) * 8L + "]");
+            }
+        }
+    }
+
+    /**
+     * @param slot
+     *            the stack slot of a variable
+     *
+     * @return the register the variable is kept in, null if it is on the stack
+     */
+    private String registerOf(int slot) {
+        for (int i = 0; i < LOOP_REGISTERS.length; i++) {
+            if (slot >= 0 && promoted[i] == slot) {
+                return LOOP_REGISTERS[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Counts how many times each identifier is read or assigned in a statement
+     *
+     * @param stmt
+     *            the statement
+     * @param uses
+     *            the weighted count of every identifier id
+     * @param weight
+     *            how much a use counts, it grows with the depth of the loops
+     */
+    private static void countUses(NodeStatement stmt, Map<Integer, Integer> uses, int weight) {
+        switch (stmt) {
+        case NodeScope nodeScope -> {
+            for (NodeStatement nodeStatement : nodeScope.getStmts()) {
+                countUses(nodeStatement, uses, weight);
+            }
+        }
+        case NodeWhile nodeWhile -> {
+            countUses(nodeWhile.getStmt(), uses, weight * 8);
+            countUses(nodeWhile.getScope(), uses, weight * 8);
+        }
+        case NodeIf nodeIf -> {
+            countUses(nodeIf.getStmt(), uses, weight);
+            countUses(nodeIf.getIfScope(), uses, weight);
+            for (int i = 0; i < nodeIf.countElif(); i++) {
+                countUses(nodeIf.getNthScopeElif(i).getStmt(), uses, weight);
+                countUses(nodeIf.getNthScopeElif(i).getScope(), uses, weight);
+            }
+            if (nodeIf.hasElse()) {
+                countUses(nodeIf.getScopeElse(), uses, weight);
+            }
+        }
+        case NodeAssign nodeAssign -> {
+            uses.merge(nodeAssign.getTokenIdent().getId(), weight, Integer::sum);
+            countUses(nodeAssign.getStmt(), uses, weight);
+        }
+        case NodeBuiltInFunc ignored -> {
+            // builtins write the variables back to the stack, a use there gains nothing
+        }
+        case null -> {
+        }
+        default -> countUses(stmt.getStmt(), uses, weight);
+        }
+    }
+
+    /**
+     * Whether a statement prints, the output of the program is buffered only if it does
+     *
+     * @param stmt
+     *            the statement
+     */
+    private static boolean prints(NodeStatement stmt) {
+        switch (stmt) {
+        case NodeScope nodeScope -> {
+            return nodeScope.getStmts().stream().anyMatch(Generator::prints);
+        }
+        case NodeWhile nodeWhile -> {
+            return prints(nodeWhile.getScope());
+        }
+        case NodeIf nodeIf -> {
+            boolean prints = prints(nodeIf.getIfScope()) || nodeIf.hasElse() && prints(nodeIf.getScopeElse());
+            for (int i = 0; i < nodeIf.countElif(); i++) {
+                prints |= prints(nodeIf.getNthScopeElif(i).getScope());
+            }
+            return prints;
+        }
+        case NodeBuiltInFunc nodeBuiltInFunc -> {
+            return nodeBuiltInFunc.getFunc() == BuiltInFunc.print;
+        }
+        case null, default -> {
+            return false;
+        }
+        }
+    }
+
+    private static void countUses(NodeExpression expr, Map<Integer, Integer> uses, int weight) {
         switch (expr) {
-        case NodeTerm nodeTerm -> exprSB.append(generateTerm(nodeTerm));
-        case NodeBin nodeBin -> exprSB.append(generateBinaryExpression(nodeBin));
+        case NodeBin nodeBin -> {
+            countUses(nodeBin.getLeft(), uses, weight);
+            countUses(nodeBin.getRight(), uses, weight);
+        }
+        case NodeTermParen nodeTermParen -> countUses(nodeTermParen.getExprParen(), uses, weight);
+        case NodeIdent nodeIdent -> uses.merge(nodeIdent.getId(), weight, Integer::sum);
+        case null, default -> {
+        }
+        }
+    }
+
+    /**
+     * Generates a conditional jump on the value of a condition. A comparison is a cmp followed by a jcc, its 0 or 1 is
+     * never materialised; an &amp; or a | of comparisons jumps as soon as one operand decides it, the other one is not
+     * evaluated. Any other expression, or a loop invariant one, is evaluated and tested against 0
+     *
+     * @param expr
+     *            the condition
+     * @param label
+     *            where to jump
+     * @param when
+     *            the value of the condition that jumps, the code falls through on the other one
+     */
+    private void branch(NodeExpression expr, String label, boolean when) throws TokenError {
+        if (unwrap(expr) instanceof NodeBin nodeBin && hoisted.containsKey(nodeBin)) {
+            test(expr, label, when);
+        } else if (unwrap(expr) instanceof NodeBin nodeBin && isComparison(nodeBin.getType())) {
+            compare(nodeBin);
+            BinType type = when ? nodeBin.getType() : negate(nodeBin.getType());
+            out.append("     j").append(condition(type)).append(" ").append(label).append("\n");
+        } else if (unwrap(expr) instanceof NodeBin nodeBin && isBoolean(nodeBin)) {
+            if ((nodeBin.getType() == BinType.And) != when) {
+                // a false operand of an & or a true one of an | decides the whole condition
+                branch(nodeBin.getLeft(), label, when);
+                branch(nodeBin.getRight(), label, when);
+            } else {
+                String decided = create_label();
+                branch(nodeBin.getLeft(), decided, !when);
+                branch(nodeBin.getRight(), label, when);
+                out.append(decided).append(":\n");
+            }
+        } else {
+            test(expr, label, when);
+        }
+    }
+
+    /**
+     * Evaluates a condition and jumps if it is 0, or if it is not
+     */
+    private void test(NodeExpression expr, String label, boolean when) throws TokenError {
+        generateExpression(expr);
+        pop("rax");
+        out.append("     test rax, rax\n");
+        out.append("     j").append(when ? "nz " : "z ").append(label).append("\n");
+    }
+
+    /**
+     * Compares the two operands of a comparison, setting the flags for a jcc
+     *
+     * @param nodeBin
+     *            the comparison
+     */
+    private void compare(NodeBin nodeBin) throws TokenError {
+        NodeExpression left = nodeBin.getLeft();
+        NodeExpression right = nodeBin.getRight();
+        out.append("     ;;compare\n");
+        if (allocation == Allocation.STACK) {
+            generateExpression(left);
+            generateExpression(right);
+            pop("rax");
+            pop("rbx");
+            out.append("     cmp rbx, rax\n");
+        } else if (unwrap(left) instanceof NodeIdent nodeIdent && isOperand(right, nodeBin.getType())) {
+            // a variable is compared where it is, unless both operands are in memory
+            String dst = operand(nodeIdent);
+            String src = operand(unwrap(right));
+            if (dst.startsWith("QWORD") && src.startsWith("QWORD")) {
+                mov(REGISTERS[0], dst);
+                dst = REGISTERS[0];
+            }
+            out.append("     cmp ").append(dst).append(", ").append(src).append("\n");
+        } else if (isOperand(right, nodeBin.getType())) {
+            Map<NodeExpression, Integer> needs = new IdentityHashMap<>();
+            label(left, needs);
+            evaluate(left, 0, needs);
+            String src = operand(unwrap(right));
+            out.append("     cmp ").append(REGISTERS[0]).append(", ").append(src).append("\n");
+        } else {
+            Map<NodeExpression, Integer> needs = new IdentityHashMap<>();
+            if (label(left, needs) >= label(right, needs)) {
+                evaluate(left, 0, needs);
+                evaluate(right, 1, needs);
+                out.append("     cmp ").append(REGISTERS[0]).append(", ").append(REGISTERS[1]).append("\n");
+            } else {
+                evaluate(right, 0, needs);
+                evaluate(left, 1, needs);
+                out.append("     cmp ").append(REGISTERS[1]).append(", ").append(REGISTERS[0]).append("\n");
+            }
+        }
+        out.append("     ;;/compare\n");
+    }
+
+    private static boolean isComparison(BinType type) {
+        return switch (type) {
+        case Eq, NotEq, GT, LT, GE, LE -> true;
+        default -> false;
+        };
+    }
+
+    /**
+     * @return if the expression is always 0 or 1: a comparison, or an &amp; or a | of such expressions
+     */
+    private static boolean isBoolean(NodeExpression expr) {
+        if (!(unwrap(expr) instanceof NodeBin nodeBin)) {
+            return false;
+        }
+        return switch (nodeBin.getType()) {
+        case Eq, NotEq, GT, LT, GE, LE -> true;
+        case And, Or -> isBoolean(nodeBin.getLeft()) && isBoolean(nodeBin.getRight());
+        default -> false;
+        };
+    }
+
+    /**
+     * @return the comparison that is true when the given one is false
+     */
+    private static BinType negate(BinType type) {
+        return switch (type) {
+        case Eq -> BinType.NotEq;
+        case NotEq -> BinType.Eq;
+        case GT -> BinType.LE;
+        case LT -> BinType.GE;
+        case GE -> BinType.LT;
+        case LE -> BinType.GT;
+        default -> throw new IllegalArgumentException("Not a comparison: " + type);
+        };
+    }
+
+    /**
+     * Computes the Sethi-Ullman number of every node of an expression: the registers needed to evaluate it without
+     * spilling. A right operand that can be used directly as a memory or immediate operand needs no register
+     *
+     * @param expr
+     *            the expression to label
+     * @param needs
+     *            where the numbers are stored
+     *
+     * @return the number of the expression
+     */
+    private int label(NodeExpression expr, Map<NodeExpression, Integer> needs) {
+        int need;
+        switch (unwrap(expr)) {
+        case NodeBin nodeBin when hoisted.containsKey(nodeBin) -> need = 1;
+        case NodeBin nodeBin -> {
+            int left = label(nodeBin.getLeft(), needs);
+            int right = label(nodeBin.getRight(), needs);
+            NodeIntLit constant = reducible(nodeBin);
+            if (constant != null) {
+                need = constant == unwrap(nodeBin.getRight()) ? left : right;
+            } else {
+                if (isOperand(nodeBin.getRight(), nodeBin.getType())) {
+                    right = 0;
+                }
+                need = left == right ? left + 1 : Math.max(left, right);
+            }
+        }
+        case NodeTerm ignored -> need = 1;
+        case null, default -> throw new IllegalArgumentException("Unknown expression type in generator");
+        }
+        needs.put(expr, need);
+        return need;
+    }
+
+    /**
+     * Evaluates an expression into a register of the pool, the registers before it hold values that are still needed,
+     * the ones after it are free. When both sides need more registers than the free ones, the right side is spilled to
+     * the stack
+     *
+     * @param expr
+     *            the expression to evaluate
+     * @param base
+     *            the index in the pool of the register that gets the result
+     * @param needs
+     *            the Sethi-Ullman numbers of the nodes
+     */
+    private void evaluate(NodeExpression expr, int base, Map<NodeExpression, Integer> needs) throws TokenError {
+        String target = REGISTERS[base];
+        switch (unwrap(expr)) {
+        case NodeIntLit nodeIntLit -> {
+            out.append("     ;;value\n");
+            mov(target, Long.toString(nodeIntLit.getIntLit().getValue()));
+        }
+        case NodeIdent nodeIdent -> mov(target, operand(nodeIdent));
+        case NodeBin nodeBin when hoisted.containsKey(nodeBin) -> mov(target, invariant(nodeBin));
+        case NodeBin nodeBin -> {
+            NodeExpression left = nodeBin.getLeft();
+            NodeExpression right = nodeBin.getRight();
+            int free = REGISTERS.length - base;
+            NodeIntLit constant = reducible(nodeBin);
+            if (constant != null) {
+                evaluate(constant == unwrap(right) ? left : right, base, needs);
+                if (nodeBin.getType() == BinType.Multi) {
+                    multiplyConstant(target, constant.getIntLit().getValue());
+                } else {
+                    divideConstant(target, constant.getIntLit().getValue(), nodeBin.getType() == BinType.Mod);
+                }
+            } else if (isOperand(right, nodeBin.getType())) {
+                evaluate(left, base, needs);
+                apply(nodeBin.getType(), target, operand(unwrap(right)));
+            } else if (needs.get(left) >= free && needs.get(right) >= free) {
+                evaluate(right, base, needs);
+                out.append("     ;;spill\n");
+                push(target);
+                evaluate(left, base, needs);
+                apply(nodeBin.getType(), target, "QWORD [rsp]");
+                out.append("     add rsp, 8\n");
+                stack_size--;
+            } else if (needs.get(left) >= needs.get(right)) {
+                evaluate(left, base, needs);
+                evaluate(right, base + 1, needs);
+                apply(nodeBin.getType(), target, REGISTERS[base + 1]);
+            } else {
+                evaluate(right, base, needs);
+                evaluate(left, base + 1, needs);
+                if (isCommutative(nodeBin.getType())) {
+                    apply(nodeBin.getType(), target, REGISTERS[base + 1]);
+                } else {
+                    apply(nodeBin.getType(), REGISTERS[base + 1], target);
+                    mov(target, REGISTERS[base + 1]);
+                }
+            }
+        }
         case null, default -> throw new IllegalArgumentException("Unknown expression type in generator");
         }
-        return exprSB.toString();
+    }
+
+    /**
+     * Applies a binary operation to a register
+     *
+     * @param type
+     *            the operation
+     * @param dst
+     *            the register with the left operand, it gets the result
+     * @param src
+     *            the right operand: a register, a memory operand or an immediate
+     */
+    private void apply(BinType type, String dst, String src) {
+        switch (type) {
+        case BinType.Add -> out.append("     add ").append(dst).append(", ").append(src).append("\n");
+        case BinType.Sub -> out.append("     sub ").append(dst).append(", ").append(src).append("\n");
+        case BinType.Multi -> out.append("     imul ").append(dst).append(", ").append(src).append("\n");
+        case BinType.And -> out.append("     and ").append(dst).append(", ").append(src).append("\n");
+        case BinType.Or -> out.append("     or ").append(dst).append(", ").append(src).append("\n");
+        case BinType.Div, BinType.Mod -> {
+            mov("rax", dst);
+            out.append("     cqo\n");
+            out.append("     idiv ").append(src).append("\n");
+            mov(dst, type == BinType.Div ? "rax" : "rdx");
+        }
+        case BinType.Eq, BinType.NotEq, BinType.GT, BinType.LT, BinType.GE, BinType.LE -> {
+            out.append("     cmp ").append(dst).append(", ").append(src).append("\n");
+            out.append("     set").append(condition(type)).append(" al\n");
+            out.append("     movzx ").append(dst).append(", al\n");
+        }
+        case null, default -> throw new IllegalArgumentException("Unknown binary expression type in generator");
+        }
+    }
+
+    /**
+     * @return the literal operand a multiplication, a division or a modulo is strength reduced by, null if it needs
+     *         imul or idiv: a division by 0 or by -1 keeps idiv, so it faults like the division of a variable
+     */
+    private static NodeIntLit reducible(NodeBin nodeBin) {
+        NodeExpression right = unwrap(nodeBin.getRight());
+        NodeExpression left = unwrap(nodeBin.getLeft());
+        switch (nodeBin.getType()) {
+        case BinType.Multi -> {
+            if (right instanceof NodeIntLit nodeIntLit) {
+                return nodeIntLit;
+            }
+            return left instanceof NodeIntLit nodeIntLit ? nodeIntLit : null;
+        }
+        case BinType.Div, BinType.Mod -> {
+            if (right instanceof NodeIntLit nodeIntLit && nodeIntLit.getIntLit().getValue() != 0
+                    && nodeIntLit.getIntLit().getValue() != -1) {
+                return nodeIntLit;
+            }
+            return null;
+        }
+        case null, default -> {
+            return null;
+        }
+        }
+    }
+
+    /**
+     * Multiplies a register by a constant with shifts and lea where they can replace imul, the result wraps around like
+     * the one of imul
+     *
+     * @param dst
+     *            the register to multiply, neither rax nor rdx
+     * @param factor
+     *            the constant
+     */
+    private void multiplyConstant(String dst, long factor) {
+        int shift = Long.numberOfTrailingZeros(factor);
+        long odd = factor >> shift;
+        if (factor == 0) {
+            out.append("     xor ").append(dst).append(", ").append(dst).append("\n");
+        } else if (odd == 1 || odd == -1) {
+            if (shift != 0) {
+                out.append("     shl ").append(dst).append(", ").append(shift).append("\n");
+            }
+            if (odd == -1 && factor != Long.MIN_VALUE) {
+                out.append("     neg ").append(dst).append("\n");
+            }
+        } else if (odd == 3 || odd == 5 || odd == 9) {
+            out.append("     lea ").append(dst).append(", [").append(dst).append(" + ").append(dst).append("*")
+                    .append(odd - 1).append("]\n");
+            if (shift != 0) {
+                out.append("     shl ").append(dst).append(", ").append(shift).append("\n");
+            }
+        } else if (factor == (int) factor) {
+            out.append("     imul ").append(dst).append(", ").append(dst).append(", ").append(factor).append("\n");
+        } else {
+            mov("rax", Long.toString(factor));
+            out.append("     imul ").append(dst).append(", rax\n");
+        }
+    }
+
+    /**
+     * Divides a register by a constant, truncating towards zero like idiv: a power of two is a shift of the dividend
+     * rounded towards zero, any other divisor is a multiplication by its magic number. The remainder is the dividend
+     * minus the quotient times the divisor, it has the sign of the dividend
+     *
+     * @param dst
+     *            the register with the dividend, it gets the result, neither rax nor rdx
+     * @param divisor
+     *            the constant, neither 0 nor -1
+     * @param modulo
+     *            if the result is the remainder instead of the quotient
+     *
+     * @see DivisionMagic
+     */
+    private void divideConstant(String dst, long divisor, boolean modulo) {
+        int shift = Long.numberOfTrailingZeros(divisor);
+        if (divisor == 1) {
+            if (modulo) {
+                out.append("     xor ").append(dst).append(", ").append(dst).append("\n");
+            }
+        } else if (divisor >> shift == 1 || divisor >> shift == -1) {
+            // the dividend plus 2^shift - 1 if it is negative, so the shift rounds towards zero
+            mov("rax", dst);
+            if (shift == 1) {
+                out.append("     shr rax, 63\n");
+            } else {
+                out.append("     sar rax, 63\n");
+                out.append("     shr rax, ").append(64 - shift).append("\n");
+            }
+            out.append("     add rax, ").append(dst).append("\n");
+            if (modulo) {
+                long mask = -1L << shift;
+                if (mask == (int) mask) {
+                    out.append("     and rax, ").append(mask).append("\n");
+                } else {
+                    mov("rdx", Long.toString(mask));
+                    out.append("     and rax, rdx\n");
+                }
+                out.append("     sub ").append(dst).append(", rax\n");
+            } else {
+                out.append("     sar rax, ").append(shift).append("\n");
+                if (divisor < 0) {
+                    out.append("     neg rax\n");
+                }
+                mov(dst, "rax");
+            }
+        } else {
+            DivisionMagic magic = DivisionMagic.of(divisor);
+            mov("rax", Long.toString(magic.getMultiplier()));
+            out.append("     imul ").append(dst).append("\n");
+            if (divisor > 0 && magic.getMultiplier() < 0) {
+                out.append("     add rdx, ").append(dst).append("\n");
+            } else if (divisor < 0 && magic.getMultiplier() > 0) {
+                out.append("     sub rdx, ").append(dst).append("\n");
+            }
+            if (magic.getShift() != 0) {
+                out.append("     sar rdx, ").append(magic.getShift()).append("\n");
+            }
+            mov("rax", "rdx");
+            out.append("     shr rax, 63\n");
+            out.append("     add rdx, rax\n");
+            if (modulo) {
+                if (divisor == (int) divisor) {
+                    out.append("     imul rdx, rdx, ").append(divisor).append("\n");
+                } else {
+                    mov("rax", Long.toString(divisor));
+                    out.append("     imul rdx, rax\n");
+                }
+                out.append("     sub ").append(dst).append(", rdx\n");
+            } else {
+                mov(dst, "rdx");
+            }
+        }
+    }
+
+    /**
+     * @return the register or the memory operand of a variable, or the immediate of a literal
+     */
+    private String operand(NodeExpression term) throws TokenError {
+        return switch (term) {
+        case NodeIdent nodeIdent -> {
+            long offset = findOffset(nodeIdent);
+            String register = registerOf(slotOf(nodeIdent.getIdent()));
+            yield register != null ? register : "QWORD [rsp + " + offset + "]";
+        }
+        case NodeIntLit nodeIntLit -> Long.toString(nodeIntLit.getIntLit().getValue());
+        case NodeBin nodeBin when hoisted.containsKey(nodeBin) -> invariant(nodeBin);
+        case null, default -> throw new IllegalArgumentException("Not an operand: " + term);
+        };
+    }
+
+    /**
+     * @return if the expression can be the right operand of the instruction without being loaded in a register: a
+     *         variable, a loop invariant, or a literal that fits an immediate of 32 bits (idiv has no immediate form)
+     */
+    private boolean isOperand(NodeExpression expr, BinType type) {
+        return switch (unwrap(expr)) {
+        case NodeIdent ignored -> true;
+        case NodeBin nodeBin when hoisted.containsKey(nodeBin) -> true;
+        case NodeIntLit nodeIntLit -> type != BinType.Div && type != BinType.Mod
+                && nodeIntLit.getIntLit().getValue() == (int) nodeIntLit.getIntLit().getValue();
+        default -> false;
+        };
+    }
+
+    private static boolean isCommutative(BinType type) {
+        return switch (type) {
+        case Add, Multi, And, Or, Eq, NotEq -> true;
+        default -> false;
+        };
+    }
+
+    /**
+     * @return the condition code of a comparison, the same one the stack machine uses
+     */
+    private static String condition(BinType type) {
+        return switch (type) {
+        case Eq -> "e";
+        case NotEq -> "ne";
+        case GT -> "g";
+        case LT -> "l";
+        case GE -> "ge";
+        case LE -> "le";
+        default -> throw new IllegalArgumentException("Not a comparison: " + type);
+        };
+    }
+
+    /**
+     * @return the expression inside any number of parentheses
+     */
+    private static NodeExpression unwrap(NodeExpression expr) {
+        while (expr instanceof NodeTermParen nodeTermParen) {
+            expr = nodeTermParen.getExprParen();
+        }
+        return expr;
     }
 
     /**
@@ -431,165 +1030,191 @@ public class Generator {
      *
      * @param bin_expr
      *            the binary expression to generate code for
-     *
-     * @return the generated assembly code
      */
-    public String generateBinaryExpression(NodeBin bin_expr) throws TokenError {
-        StringBuilder bin_exprSB = new StringBuilder();
+    public void generateBinaryExpression(NodeBin bin_expr) throws TokenError {
 
         switch (bin_expr.getType()) {
         case BinType.Add -> {
-            bin_exprSB.append(generateExpression(bin_expr.getLeft()));
-            bin_exprSB.append(generateExpression(bin_expr.getRight()));
-            bin_exprSB.append("     ;;addition\n");
-            bin_exprSB.append(pop("rax"));
-            bin_exprSB.append(pop("rbx"));
-            bin_exprSB.append("     add rax, rbx\n");
-            bin_exprSB.append(push("rax"));
-            bin_exprSB.append("     ;;/addition\n\n");
+            generateExpression(bin_expr.getLeft());
+            generateExpression(bin_expr.getRight());
+            out.append("     ;;addition\n");
+            pop("rax");
+            pop("rbx");
+            out.append("     add rax, rbx\n");
+            push("rax");
+            out.append("     ;;/addition\n\n");
         }
         // Exit code is 8 bit, so no negative numbers
         case BinType.Sub -> {
-            bin_exprSB.append(generateExpression(bin_expr.getRight()));
-            bin_exprSB.append(generateExpression(bin_expr.getLeft()));
-            bin_exprSB.append("     ;;subtraction\n");
-            bin_exprSB.append(pop("rax"));
-            bin_exprSB.append(pop("rbx"));
-            bin_exprSB.append("     sub rax, rbx\n");
-            bin_exprSB.append(push("rax"));
-            bin_exprSB.append("     ;;/subtraction\n\n");
+            generateExpression(bin_expr.getRight());
+            generateExpression(bin_expr.getLeft());
+            out.append("     ;;subtraction\n");
+            pop("rax");
+            pop("rbx");
+            out.append("     sub rax, rbx\n");
+            push("rax");
+            out.append("     ;;/subtraction\n\n");
         }
         case BinType.Multi -> {
-            bin_exprSB.append(generateExpression(bin_expr.getLeft()));
-            bin_exprSB.append(generateExpression(bin_expr.getRight()));
-            bin_exprSB.append("     ;;multiplication\n");
-            bin_exprSB.append(pop("rax"));
-            bin_exprSB.append(pop("rbx"));
-            bin_exprSB.append("     imul rbx\n");
-            bin_exprSB.append(push("rax"));
-            bin_exprSB.append("     ;;/multiplication\n\n");
+            NodeIntLit constant = reducible(bin_expr);
+            if (constant != null) {
+                generateExpression(constant == unwrap(bin_expr.getRight()) ? bin_expr.getLeft() : bin_expr.getRight());
+                out.append("     ;;multiplication\n");
+                pop("rbx");
+                multiplyConstant("rbx", constant.getIntLit().getValue());
+                push("rbx");
+                out.append("     ;;/multiplication\n\n");
+                return;
+            }
+            generateExpression(bin_expr.getLeft());
+            generateExpression(bin_expr.getRight());
+            out.append("     ;;multiplication\n");
+            pop("rax");
+            pop("rbx");
+            out.append("     imul rbx\n");
+            push("rax");
+            out.append("     ;;/multiplication\n\n");
         }
         case BinType.Div -> {
-            bin_exprSB.append(generateExpression(bin_expr.getRight()));
-            bin_exprSB.append(generateExpression(bin_expr.getLeft()));
-            bin_exprSB.append("     ;;division\n");
-            bin_exprSB.append(pop("rax"));
-            bin_exprSB.append(pop("rbx"));
-            bin_exprSB.append("     xor rdx, rdx\n");
-            bin_exprSB.append("     idiv rbx\n");
-            bin_exprSB.append(push("rax"));
-            bin_exprSB.append("     ;;/division\n\n");
+            NodeIntLit constant = reducible(bin_expr);
+            if (constant != null) {
+                generateExpression(bin_expr.getLeft());
+                out.append("     ;;division\n");
+                pop("rbx");
+                divideConstant("rbx", constant.getIntLit().getValue(), false);
+                push("rbx");
+                out.append("     ;;/division\n\n");
+                return;
+            }
+            generateExpression(bin_expr.getRight());
+            generateExpression(bin_expr.getLeft());
+            out.append("     ;;division\n");
+            pop("rax");
+            pop("rbx");
+            out.append("     cqo\n");
+            out.append("     idiv rbx\n");
+            push("rax");
+            out.append("     ;;/division\n\n");
         }
         case BinType.Mod -> {
-            bin_exprSB.append(generateExpression(bin_expr.getRight()));
-            bin_exprSB.append(generateExpression(bin_expr.getLeft()));
-            bin_exprSB.append("     ;;modulus\n");
-            bin_exprSB.append(pop("rax"));
-            bin_exprSB.append(pop("rbx"));
-            bin_exprSB.append("     xor rdx, rdx\n");
-            bin_exprSB.append("     idiv rbx\n");
-            bin_exprSB.append(push("rdx"));
-            bin_exprSB.append("     ;;/modulus\n\n");
+            NodeIntLit constant = reducible(bin_expr);
+            if (constant != null) {
+                generateExpression(bin_expr.getLeft());
+                out.append("     ;;modulus\n");
+                pop("rbx");
+                divideConstant("rbx", constant.getIntLit().getValue(), true);
+                push("rbx");
+                out.append("     ;;/modulus\n\n");
+                return;
+            }
+            generateExpression(bin_expr.getRight());
+            generateExpression(bin_expr.getLeft());
+            out.append("     ;;modulus\n");
+            pop("rax");
+            pop("rbx");
+            out.append("     cqo\n");
+            out.append("     idiv rbx\n");
+            push("rdx");
+            out.append("     ;;/modulus\n\n");
         }
         case BinType.Eq -> {
-            bin_exprSB.append(generateExpression(bin_expr.getLeft()));
-            bin_exprSB.append(generateExpression(bin_expr.getRight()));
-            bin_exprSB.append("     ;;equal\n");
-            bin_exprSB.append(pop("rax"));
-            bin_exprSB.append(pop("rbx"));
-            bin_exprSB.append("     cmp rax, rbx\n");
-            bin_exprSB.append("     sete al\n");
-            bin_exprSB.append("     movzx rbx, al\n");
-            bin_exprSB.append(push("rbx"));
-            bin_exprSB.append("     ;;/equal\n\n");
+            generateExpression(bin_expr.getLeft());
+            generateExpression(bin_expr.getRight());
+            out.append("     ;;equal\n");
+            pop("rax");
+            pop("rbx");
+            out.append("     cmp rax, rbx\n");
+            out.append("     sete al\n");
+            out.append("     movzx rbx, al\n");
+            push("rbx");
+            out.append("     ;;/equal\n\n");
         }
         case BinType.NotEq -> {
-            bin_exprSB.append(generateExpression(bin_expr.getLeft()));
-            bin_exprSB.append(generateExpression(bin_expr.getRight()));
-            bin_exprSB.append("     ;;not equal\n");
-            bin_exprSB.append(pop("rax"));
-            bin_exprSB.append(pop("rbx"));
-            bin_exprSB.append("     cmp rax, rbx\n");
-            bin_exprSB.append("     setne al\n");
-            bin_exprSB.append("     movzx rbx, al\n");
-            bin_exprSB.append(push("rbx"));
-            bin_exprSB.append("     ;;/not equal\n\n");
+            generateExpression(bin_expr.getLeft());
+            generateExpression(bin_expr.getRight());
+            out.append("     ;;not equal\n");
+            pop("rax");
+            pop("rbx");
+            out.append("     cmp rax, rbx\n");
+            out.append("     setne al\n");
+            out.append("     movzx rbx, al\n");
+            push("rbx");
+            out.append("     ;;/not equal\n\n");
         }
 
         case BinType.GT -> {
-            bin_exprSB.append(generateExpression(bin_expr.getLeft()));
-            bin_exprSB.append(generateExpression(bin_expr.getRight()));
-            bin_exprSB.append("     ;;greater than\n");
-            bin_exprSB.append(pop("rax"));
-            bin_exprSB.append(pop("rbx"));
-            bin_exprSB.append("     cmp rbx, rax\n");
-            bin_exprSB.append("     setg al\n");
-            bin_exprSB.append("     movzx rbx, al\n");
-            bin_exprSB.append(push("rbx"));
-            bin_exprSB.append("     ;;/greater than\n\n");
+            generateExpression(bin_expr.getLeft());
+            generateExpression(bin_expr.getRight());
+            out.append("     ;;greater than\n");
+            pop("rax");
+            pop("rbx");
+            out.append("     cmp rbx, rax\n");
+            out.append("     setg al\n");
+            out.append("     movzx rbx, al\n");
+            push("rbx");
+            out.append("     ;;/greater than\n\n");
         }
 
         case BinType.LT -> {
-            bin_exprSB.append(generateExpression(bin_expr.getLeft()));
-            bin_exprSB.append(generateExpression(bin_expr.getRight()));
-            bin_exprSB.append("     ;;less than\n");
-            bin_exprSB.append(pop("rax"));
-            bin_exprSB.append(pop("rbx"));
-            bin_exprSB.append("     cmp rbx, rax\n");
-            bin_exprSB.append("     setl al\n");
-            bin_exprSB.append("     movzx rbx, al\n");
-            bin_exprSB.append(push("rbx"));
-            bin_exprSB.append("     ;;/less than\n\n");
+            generateExpression(bin_expr.getLeft());
+            generateExpression(bin_expr.getRight());
+            out.append("     ;;less than\n");
+            pop("rax");
+            pop("rbx");
+            out.append("     cmp rbx, rax\n");
+            out.append("     setl al\n");
+            out.append("     movzx rbx, al\n");
+            push("rbx");
+            out.append("     ;;/less than\n\n");
         }
 
         case BinType.GE -> {
-            bin_exprSB.append(generateExpression(bin_expr.getLeft()));
-            bin_exprSB.append(generateExpression(bin_expr.getRight()));
-            bin_exprSB.append("     ;;greater than or equal\n");
-            bin_exprSB.append(pop("rax"));
-            bin_exprSB.append(pop("rbx"));
-            bin_exprSB.append("     cmp rbx, rax\n");
-            bin_exprSB.append("     setge al\n");
-            bin_exprSB.append("     movzx rbx, al\n");
-            bin_exprSB.append(push("rbx"));
-            bin_exprSB.append("     ;;/greater than or equal\n\n");
+            generateExpression(bin_expr.getLeft());
+            generateExpression(bin_expr.getRight());
+            out.append("     ;;greater than or equal\n");
+            pop("rax");
+            pop("rbx");
+            out.append("     cmp rbx, rax\n");
+            out.append("     setge al\n");
+            out.append("     movzx rbx, al\n");
+            push("rbx");
+            out.append("     ;;/greater than or equal\n\n");
         }
         case BinType.LE -> {
-            bin_exprSB.append(generateExpression(bin_expr.getLeft()));
-            bin_exprSB.append(generateExpression(bin_expr.getRight()));
-            bin_exprSB.append("     ;;less than or equal\n");
-            bin_exprSB.append(pop("rax"));
-            bin_exprSB.append(pop("rbx"));
-            bin_exprSB.append("     cmp rbx, rax\n");
-            bin_exprSB.append("     setle al\n");
-            bin_exprSB.append("     movzx rbx, al\n");
-            bin_exprSB.append(push("rbx"));
-            bin_exprSB.append("     ;;/less than or equal\n\n");
+            generateExpression(bin_expr.getLeft());
+            generateExpression(bin_expr.getRight());
+            out.append("     ;;less than or equal\n");
+            pop("rax");
+            pop("rbx");
+            out.append("     cmp rbx, rax\n");
+            out.append("     setle al\n");
+            out.append("     movzx rbx, al\n");
+            push("rbx");
+            out.append("     ;;/less than or equal\n\n");
         }
         case BinType.And -> {
-            bin_exprSB.append(generateExpression(bin_expr.getLeft()));
-            bin_exprSB.append(generateExpression(bin_expr.getRight()));
-            bin_exprSB.append("     ;;and\n");
-            bin_exprSB.append(pop("rax"));
-            bin_exprSB.append(pop("rbx"));
-            bin_exprSB.append("     and rax, rbx\n");
-            bin_exprSB.append(push("rax"));
-            bin_exprSB.append("     ;;/and\n\n");
+            generateExpression(bin_expr.getLeft());
+            generateExpression(bin_expr.getRight());
+            out.append("     ;;and\n");
+            pop("rax");
+            pop("rbx");
+            out.append("     and rax, rbx\n");
+            push("rax");
+            out.append("     ;;/and\n\n");
         }
         case BinType.Or -> {
-            bin_exprSB.append(generateExpression(bin_expr.getLeft()));
-            bin_exprSB.append(generateExpression(bin_expr.getRight()));
-            bin_exprSB.append("     ;;or\n");
-            bin_exprSB.append(pop("rax"));
-            bin_exprSB.append(pop("rbx"));
-            bin_exprSB.append("     or rax, rbx\n");
-            bin_exprSB.append(push("rax"));
-            bin_exprSB.append("     ;;/or\n\n");
+            generateExpression(bin_expr.getLeft());
+            generateExpression(bin_expr.getRight());
+            out.append("     ;;or\n");
+            pop("rax");
+            pop("rbx");
+            out.append("     or rax, rbx\n");
+            push("rax");
+            out.append("     ;;/or\n\n");
         }
         case null, default -> throw new IllegalArgumentException("Unknown binary expression type in generator");
         }
 
-        return bin_exprSB.toString();
     }
 
     /**
@@ -597,12 +1222,10 @@ public class Generator {
      *
      * @param reg
      *            asm register
-     *
-     * @return a string
      */
-    public String push(String reg) {
+    public void push(String reg) {
         stack_size++;
-        return "     push " + reg + "\n";
+        out.append("     push ").append(reg).append("\n");
     }
 
     /**
@@ -610,12 +1233,10 @@ public class Generator {
      *
      * @param reg
      *            asm register
-     *
-     * @return a string
      */
-    public String pop(String reg) {
+    public void pop(String reg) {
         stack_size--;
-        return "     pop " + reg + "\n";
+        out.append("     pop ").append(reg).append("\n");
     }
 
     /**
@@ -625,37 +1246,58 @@ public class Generator {
      *            the register to move the value to
      * @param par
      *            the value to move
+     */
+    private void mov(String reg, String par) {
+        out.append("     mov ").append(reg).append(", ").append(par).append("\n");
+    }
+
+    /**
+     * Returns the stack slot of a variable, the table is indexed by the id the Tokenizer gave to the identifier
+     *
+     * @param ident
+     *            the identifier of the variable
+     *
+     * @return the slot of the variable, -1 if it is not declared
+     */
+    private int slotOf(TokenIdent ident) {
+        return symbols.lookup(idOf(ident));
+    }
+
+    /**
+     * Declares a variable in a stack slot of the current scope
      *
-     * @return an ASM string
+     * @param ident
+     *            the identifier of the variable
+     * @param slot
+     *            the stack slot of the variable
      */
-    private String mov(String reg, String par) {
-        return "     mov " + reg + ", " + par + "\n";
+    private void declare(TokenIdent ident, int slot) {
+        symbols.declare(idOf(ident), slot);
+    }
+
+    private static int idOf(TokenIdent ident) {
+        if (ident.getId() < 0) {
+            throw new IllegalArgumentException("Identifier has not been interned by the Tokenizer: " + ident.getName());
+        }
+        return ident.getId();
     }
 
     /**
-     * Begins a new scope, pushes the current stack size to the scopes stack
+     * Begins a new scope, the variables declared from now on are removed by the matching endScope
      */
     public void beginScope() {
-        scopes.add(variables.size());
+        symbols.beginScope();
     }
 
     /**
      * Ends the current scope, pops all variables from the stack(used for garbage collection)
-     *
-     * @return a string
      */
-    public String endScope() {
-        int pop_count = variables.size() - scopes.getLast();
-        String out = "";
+    public void endScope() {
+        int pop_count = symbols.endScope();
         if (pop_count != 0) {
-            out = "     add rsp, " + pop_count * 8 + "\n\n";
+            out.append("     add rsp, ").append(pop_count * 8L).append("\n\n");
         }
         stack_size -= pop_count;
-        for (int i = 0; i < pop_count; i++) {
-            variables.remove(getKeyWithHighestValue(variables));
-        }
-        scopes.removeLast();
-        return out;
     }
 
     /**
@@ -667,21 +1309,16 @@ public class Generator {
         return "label" + label_counter++;
     }
 
-    public String getGenerated() {
-        return generated;
-    }
-
     /**
-     * Returns the key with the highest value in a map, used by the endScope method for garbage collection
+     * @return the generated assembly
      *
-     * @param map
-     *            the map to search
-     *
-     * @return the key with the highest value
+     * @throws IllegalStateException
+     *             if the assembly has been written to a channel
      */
-    public static String getKeyWithHighestValue(Map<String, Integer> map) {
-        List<Map.Entry<String, Integer>> list = new ArrayList<>(map.entrySet());
-        list.sort(Map.Entry.comparingByValue());
-        return list.getLast().getKey();
+    public String getGenerated() {
+        if (generated == null) {
+            throw new IllegalStateException("The assembly has been written to a channel");
+        }
+        return generated;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,163 @@
+package org.compiler;
+
+import org.compiler.nodes.NodeExpression;
+import org.compiler.nodes.NodeStatement;
+import org.compiler.nodes.expressions.binary_expressions.BinType;
+import org.compiler.nodes.expressions.binary_expressions.NodeBin;
+import org.compiler.nodes.expressions.terms.NodeIdent;
+import org.compiler.nodes.expressions.terms.NodeIntLit;
+import org.compiler.nodes.expressions.terms.NodeTermParen;
+import org.compiler.nodes.statements.NodeAssign;
+import org.compiler.nodes.statements.NodeScope;
+import org.compiler.nodes.statements.conditionals.NodeIf;
+import org.compiler.nodes.statements.conditionals.NodeWhile;
+import org.compiler.nodes.statements.functions.BuiltInFunc;
+import org.compiler.nodes.statements.functions.NodeBuiltInFunc;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * Def-use analysis of a while loop for the Generator: the variables the loop defines, with an assignment or a read(),
+ * and the subexpressions whose value cannot change while it runs, so they can be evaluated once before the first
+ * iteration instead of once per iteration.
+ */
+final class LoopAnalysis {
+    private final Set<Integer> assigned = new HashSet<>();
+    private final IntPredicate declared;
+
+    private LoopAnalysis(NodeWhile nodeWhile, IntPredicate declared) {
+        this.declared = declared;
+        collectAssigned(nodeWhile);
+    }
+
+    /**
+     * @param nodeWhile
+     *            the loop
+     *
+     * @return the ids of the variables assigned in the loop, nested loops included
+     */
+    static Set<Integer> assigned(NodeWhile nodeWhile) {
+        return new LoopAnalysis(nodeWhile, id -> true).assigned;
+    }
+
+    /**
+     * Finds the largest loop invariant subexpressions of the condition and of the body of a loop: binary expressions
+     * that read only variables declared before the loop and not assigned in it. An expression that can fault, a
+     * division or a modulo that is not by a constant other than 0 and -1, is never invariant, since it is evaluated
+     * even when the loop or the branch it is in does not run
+     *
+     * @param nodeWhile
+     *            the loop
+     * @param declared
+     *            if the variable with an id is declared where the loop starts
+     *
+     * @return the expressions in the order they appear in the loop
+     */
+    static List<NodeBin> invariants(NodeWhile nodeWhile, IntPredicate declared) {
+        LoopAnalysis analysis = new LoopAnalysis(nodeWhile, declared);
+        List<NodeBin> invariants = new ArrayList<>();
+        analysis.collectInvariants(nodeWhile.getStmt(), invariants);
+        analysis.collectInvariants(nodeWhile.getScope(), invariants);
+        return invariants;
+    }
+
+    private void collectAssigned(NodeStatement stmt) {
+        switch (stmt) {
+        case NodeScope nodeScope -> {
+            for (NodeStatement nodeStatement : nodeScope.getStmts()) {
+                collectAssigned(nodeStatement);
+            }
+        }
+        case NodeWhile nodeWhile -> collectAssigned(nodeWhile.getScope());
+        case NodeIf nodeIf -> {
+            collectAssigned(nodeIf.getIfScope());
+            for (int i = 0; i < nodeIf.countElif(); i++) {
+                collectAssigned(nodeIf.getNthScopeElif(i).getScope());
+            }
+            if (nodeIf.hasElse()) {
+                collectAssigned(nodeIf.getScopeElse());
+            }
+        }
+        case NodeAssign nodeAssign -> assigned.add(nodeAssign.getTokenIdent().getId());
+        case NodeBuiltInFunc nodeBuiltInFunc -> {
+            if (nodeBuiltInFunc.getFunc() == BuiltInFunc.read
+                    && nodeBuiltInFunc.getStmt() instanceof NodeIdent nodeIdent) {
+                assigned.add(nodeIdent.getId());
+            }
+        }
+        case null, default -> {
+        }
+        }
+    }
+
+    private void collectInvariants(NodeStatement stmt, List<NodeBin> invariants) {
+        switch (stmt) {
+        case NodeScope nodeScope -> {
+            for (NodeStatement nodeStatement : nodeScope.getStmts()) {
+                collectInvariants(nodeStatement, invariants);
+            }
+        }
+        case NodeWhile nodeWhile -> {
+            collectInvariants(nodeWhile.getStmt(), invariants);
+            collectInvariants(nodeWhile.getScope(), invariants);
+        }
+        case NodeIf nodeIf -> {
+            collectInvariants(nodeIf.getStmt(), invariants);
+            collectInvariants(nodeIf.getIfScope(), invariants);
+            for (int i = 0; i < nodeIf.countElif(); i++) {
+                collectInvariants(nodeIf.getNthScopeElif(i).getStmt(), invariants);
+                collectInvariants(nodeIf.getNthScopeElif(i).getScope(), invariants);
+            }
+            if (nodeIf.hasElse()) {
+                collectInvariants(nodeIf.getScopeElse(), invariants);
+            }
+        }
+        case NodeBuiltInFunc ignored -> {
+            // the arguments of the builtins are terms
+        }
+        case null -> {
+        }
+        default -> collectInvariants(stmt.getStmt(), invariants);
+        }
+    }
+
+    private void collectInvariants(NodeExpression expr, List<NodeBin> invariants) {
+        switch (expr) {
+        case NodeBin nodeBin -> {
+            if (isInvariant(nodeBin)) {
+                invariants.add(nodeBin);
+            } else {
+                collectInvariants(nodeBin.getLeft(), invariants);
+                collectInvariants(nodeBin.getRight(), invariants);
+            }
+        }
+        case NodeTermParen nodeTermParen -> collectInvariants(nodeTermParen.getExprParen(), invariants);
+        case null, default -> {
+        }
+        }
+    }
+
+    private boolean isInvariant(NodeExpression expr) {
+        return switch (expr) {
+        case NodeIntLit ignored -> true;
+        case NodeIdent nodeIdent -> declared.test(nodeIdent.getId()) && !assigned.contains(nodeIdent.getId());
+        case NodeTermParen nodeTermParen -> isInvariant(nodeTermParen.getExprParen());
+        case NodeBin nodeBin -> isInvariant(nodeBin.getLeft()) && isInvariant(nodeBin.getRight())
+                && (nodeBin.getType() != BinType.Div && nodeBin.getType() != BinType.Mod || cannotFault(nodeBin));
+        case null, default -> false;
+        };
+    }
+
+    static boolean cannotFault(NodeBin division) {
+        NodeExpression divisor = division.getRight();
+        while (divisor instanceof NodeTermParen nodeTermParen) {
+            divisor = nodeTermParen.getExprParen();
+        }
+        return divisor instanceof NodeIntLit nodeIntLit && nodeIntLit.getIntLit().getValue() != 0
+                && nodeIntLit.getIntLit().getValue() != -1;
+    }
+}
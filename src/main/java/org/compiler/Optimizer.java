@@ -0,0 +1,310 @@
+package org.compiler;
+
+import org.compiler.errors.TokenError;
+import org.compiler.nodes.NodeExpression;
+import org.compiler.nodes.NodeProgram;
+import org.compiler.nodes.NodeStatement;
+import org.compiler.nodes.expressions.binary_expressions.BinType;
+import org.compiler.nodes.expressions.binary_expressions.NodeBin;
+import org.compiler.nodes.expressions.terms.NodeIdent;
+import org.compiler.nodes.expressions.terms.NodeIntLit;
+import org.compiler.nodes.expressions.terms.NodeTermParen;
+import org.compiler.nodes.statements.NodeAssign;
+import org.compiler.nodes.statements.NodeExit;
+import org.compiler.nodes.statements.NodeLet;
+import org.compiler.nodes.statements.NodeScope;
+import org.compiler.nodes.statements.conditionals.NodeElif;
+import org.compiler.nodes.statements.conditionals.NodeIf;
+import org.compiler.nodes.statements.conditionals.NodeWhile;
+import org.compiler.nodes.statements.functions.NodeBuiltInFunc;
+import org.compiler.token.tokens.Token;
+import org.compiler.token.tokens.TokenIdent;
+import org.compiler.token.tokens.TokenIntLit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Optimises the AST between the Parser and the Generator: folds the constant subexpressions with the 64 bit wrap around
+ * of the generated code, simplifies the identities x+0, x-0, x*1, x/1, x|0, x*0, x&amp;0, x%1 and removes the branches
+ * of if/elif/else whose condition is a constant.
+ * <p>
+ * A division by a constant zero is reported. The removed code is still checked for undeclared and redeclared
+ * identifiers, and a variable is dropped by x*0 only if it is declared and initialised, so the Generator reports the
+ * same errors as without the optimisation.
+ */
+public class Optimizer {
+    private final NodeProgram tree;
+    private final SymbolTable symbols = new SymbolTable();
+    private int declaring = -1;
+    private int dead = 0;
+
+    public Optimizer(NodeProgram program) throws TokenError {
+        List<NodeStatement> stmts = new ArrayList<>();
+        for (NodeStatement statement : program.getStmts()) {
+            NodeStatement optimized = optimizeStatement(statement);
+            if (optimized != null) {
+                stmts.add(optimized);
+            }
+        }
+        tree = new NodeProgram(stmts);
+    }
+
+    /**
+     * Optimises a statement
+     *
+     * @param stmt
+     *            the statement to optimise
+     *
+     * @return the optimised statement, null if it can be removed
+     */
+    private NodeStatement optimizeStatement(NodeStatement stmt) throws TokenError {
+        return switch (stmt) {
+        case NodeScope nodeScope -> optimizeScope(nodeScope);
+        case NodeLet nodeLet -> {
+            TokenIdent ident = nodeLet.getIdentifier().getIdent();
+            if (dead > 0 && symbols.lookup(ident.getId()) >= 0) {
+                throw new TokenError("Redeclared Identifier: " + ident.getName(), ident.getLine(),
+                        ident.getColumnStart(), ident.getColumnEnd());
+            }
+            declaring = ident.getId();
+            NodeExpression expr = fold(nodeLet.getStmt());
+            declaring = -1;
+            symbols.declare(ident.getId(), symbols.size());
+            yield expr == nodeLet.getStmt() ? nodeLet : new NodeLet(expr, nodeLet.getIdentifier());
+        }
+        case NodeAssign nodeAssign -> {
+            check(nodeAssign.getTokenIdent());
+            NodeExpression expr = fold(nodeAssign.getStmt());
+            yield expr == nodeAssign.getStmt() ? nodeAssign : new NodeAssign(expr, nodeAssign.getTokenIdent());
+        }
+        case NodeExit nodeExit -> {
+            NodeExpression expr = fold(nodeExit.getStmt());
+            yield expr == nodeExit.getStmt() ? nodeExit : new NodeExit(expr);
+        }
+        case NodeWhile nodeWhile -> new NodeWhile(fold(nodeWhile.getStmt()), optimizeScope(nodeWhile.getScope()));
+        case NodeIf nodeIf -> optimizeIf(nodeIf);
+        case NodeBuiltInFunc nodeBuiltInFunc -> {
+            if (nodeBuiltInFunc.getStmt() instanceof NodeIdent nodeIdent) {
+                check(nodeIdent.getIdent());
+            }
+            yield nodeBuiltInFunc;
+        }
+        case null, default -> throw new IllegalArgumentException("Unknown statement type in optimizer");
+        };
+    }
+
+    private NodeScope optimizeScope(NodeScope nodeScope) throws TokenError {
+        symbols.beginScope();
+        ArrayList<NodeStatement> stmts = new ArrayList<>();
+        for (NodeStatement statement : nodeScope.getStmts()) {
+            NodeStatement optimized = optimizeStatement(statement);
+            if (optimized != null) {
+                stmts.add(optimized);
+            }
+        }
+        symbols.endScope();
+        return new NodeScope(nodeScope.getStmt(), stmts);
+    }
+
+    /**
+     * Removes the branches with a false constant condition, a true constant condition makes its branch the else and the
+     * following ones unreachable
+     *
+     * @param nodeIf
+     *            the if to optimise
+     *
+     * @return the if without the unreachable branches, a scope if only one is left, null if none is left
+     */
+    private NodeStatement optimizeIf(NodeIf nodeIf) throws TokenError {
+        List<NodeExpression> conditions = new ArrayList<>();
+        List<NodeScope> scopes = new ArrayList<>();
+        NodeScope scopeElse = null;
+        boolean reachable = true;
+        for (int i = 0; i <= nodeIf.countElif(); i++) {
+            dead += reachable ? 0 : 1;
+            NodeExpression condition = fold(i == 0 ? nodeIf.getStmt() : nodeIf.getNthScopeElif(i - 1).getStmt());
+            dead -= reachable ? 0 : 1;
+            NodeScope scope = i == 0 ? nodeIf.getIfScope() : nodeIf.getNthScopeElif(i - 1).getScope();
+            Long value = constant(condition);
+            if (!reachable || (value != null && value == 0)) {
+                checkDead(scope);
+            } else if (value != null) {
+                scopeElse = optimizeScope(scope);
+                reachable = false;
+            } else {
+                conditions.add(condition);
+                scopes.add(optimizeScope(scope));
+            }
+        }
+        if (nodeIf.hasElse()) {
+            if (reachable) {
+                scopeElse = optimizeScope(nodeIf.getScopeElse());
+            } else {
+                checkDead(nodeIf.getScopeElse());
+            }
+        }
+        if (conditions.isEmpty()) {
+            return scopeElse;
+        }
+        NodeIf optimized = new NodeIf(conditions.getFirst(), scopes.getFirst());
+        for (int i = 1; i < conditions.size(); i++) {
+            optimized.addScopeElif(new NodeElif(conditions.get(i), scopes.get(i)));
+        }
+        optimized.setScopeElse(scopeElse);
+        return optimized;
+    }
+
+    /**
+     * Checks the identifiers of an unreachable scope, its code is not kept
+     */
+    private void checkDead(NodeScope scope) throws TokenError {
+        dead++;
+        optimizeScope(scope);
+        dead--;
+    }
+
+    /**
+     * Folds the constant subexpressions of an expression and simplifies the identities
+     *
+     * @param expr
+     *            the expression to fold
+     *
+     * @return the folded expression, the same object if nothing changed
+     *
+     * @throws TokenError
+     *             if there is a division by a constant zero
+     */
+    private NodeExpression fold(NodeExpression expr) throws TokenError {
+        switch (expr) {
+        case NodeTermParen nodeTermParen -> {
+            NodeExpression inner = fold(nodeTermParen.getExprParen());
+            if (inner instanceof NodeIntLit || inner instanceof NodeIdent) {
+                return inner;
+            }
+            return inner == nodeTermParen.getExprParen() ? expr : new NodeTermParen(expr.getExpr(), inner);
+        }
+        case NodeIdent nodeIdent -> {
+            check(nodeIdent.getIdent());
+            return expr;
+        }
+        case NodeBin nodeBin -> {
+            NodeExpression left = fold(nodeBin.getLeft());
+            NodeExpression right = fold(nodeBin.getRight());
+            Long l = constant(left);
+            Long r = constant(right);
+            BinType type = nodeBin.getType();
+            if ((type == BinType.Div || type == BinType.Mod) && r != null && r == 0) {
+                Token token = nodeBin.getExpr();
+                throw new TokenError("Division by zero", token.getLine(), token.getColumnStart(), token.getColumnEnd());
+            }
+            if (l != null && r != null) {
+                Long value = evaluate(type, l, r);
+                if (value != null) {
+                    return literal(value, nodeBin.getExpr());
+                }
+            }
+            NodeExpression simplified = simplify(type, left, l, right, r, nodeBin.getExpr());
+            if (simplified != null) {
+                return simplified;
+            }
+            if (left == nodeBin.getLeft() && right == nodeBin.getRight()) {
+                return expr;
+            }
+            return new NodeBin(nodeBin.getExpr(), left, right, type);
+        }
+        case null, default -> {
+            return expr;
+        }
+        }
+    }
+
+    /**
+     * Simplifies the algebraic identities with a constant operand
+     *
+     * @return the simplified expression, null if no identity applies
+     */
+    private NodeExpression simplify(BinType type, NodeExpression left, Long l, NodeExpression right, Long r,
+            Token token) {
+        return switch (type) {
+        case Add, Or -> r != null && r == 0 ? left : l != null && l == 0 ? right : null;
+        case Sub -> r != null && r == 0 ? left : null;
+        case Multi -> {
+            if (r != null && r == 1) {
+                yield left;
+            }
+            if (l != null && l == 1) {
+                yield right;
+            }
+            yield (r != null && r == 0 && removable(left)) || (l != null && l == 0 && removable(right))
+                    ? literal(0, token) : null;
+        }
+        case And -> (r != null && r == 0 && removable(left)) || (l != null && l == 0 && removable(right))
+                ? literal(0, token) : null;
+        case Div -> r != null && r == 1 ? left : null;
+        case Mod -> r != null && r == 1 && removable(left) ? literal(0, token) : null;
+        default -> null;
+        };
+    }
+
+    /**
+     * Computes an operation on two constants like the generated code does
+     *
+     * @return the result, null if it is left to the runtime: the division of the smallest number by -1, that overflows
+     *         and faults
+     */
+    private static Long evaluate(BinType type, long l, long r) {
+        return switch (type) {
+        case Add -> l + r;
+        case Sub -> l - r;
+        case Multi -> l * r;
+        case Div -> l == Long.MIN_VALUE && r == -1 ? null : l / r;
+        case Mod -> l == Long.MIN_VALUE && r == -1 ? null : l % r;
+        case Eq -> l == r ? 1L : 0L;
+        case NotEq -> l != r ? 1L : 0L;
+        case GT -> l > r ? 1L : 0L;
+        case LT -> l < r ? 1L : 0L;
+        case GE -> l >= r ? 1L : 0L;
+        case LE -> l <= r ? 1L : 0L;
+        case And -> l & r;
+        case Or -> l | r;
+        };
+    }
+
+    /**
+     * @return if the expression can be dropped without hiding an error: all its variables are declared and initialised
+     *         and none of its divisions can fault
+     */
+    private boolean removable(NodeExpression expr) {
+        return switch (expr) {
+        case NodeBin nodeBin -> removable(nodeBin.getLeft()) && removable(nodeBin.getRight())
+                && (nodeBin.getType() != BinType.Div && nodeBin.getType() != BinType.Mod
+                        || LoopAnalysis.cannotFault(nodeBin));
+        case NodeTermParen nodeTermParen -> removable(nodeTermParen.getExprParen());
+        case NodeIdent nodeIdent -> nodeIdent.getId() != declaring && symbols.lookup(nodeIdent.getId()) >= 0;
+        case null, default -> true;
+        };
+    }
+
+    /**
+     * Reports an undeclared identifier in unreachable code, the Generator reports the ones in reachable code
+     */
+    private void check(TokenIdent ident) throws TokenError {
+        if (dead > 0 && symbols.lookup(ident.getId()) < 0) {
+            throw new TokenError("Undeclared Identifier: " + ident.getName(), ident.getLine(), ident.getColumnStart(),
+                    ident.getColumnEnd());
+        }
+    }
+
+    private static Long constant(NodeExpression expr) {
+        return expr instanceof NodeIntLit nodeIntLit ? nodeIntLit.getIntLit().getValue() : null;
+    }
+
+    private static NodeIntLit literal(long value, Token token) {
+        return new NodeIntLit(new TokenIntLit(value, token.getLine(), token.getColumnStart(), token.getColumnEnd()));
+    }
+
+    public NodeProgram getTree() {
+        return tree;
+    }
+}
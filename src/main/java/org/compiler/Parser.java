@@ -1,6 +1,7 @@
 package org.compiler;
 
 import org.compiler.errors.TokenError;
+import org.compiler.errors.UncheckedTokenError;
 import org.compiler.nodes.NodeExpression;
 import org.compiler.nodes.NodeProgram;
 import org.compiler.nodes.NodeStatement;
@@ -17,7 +18,10 @@ import org.compiler.nodes.statements.conditionals.NodeIf;
 import org.compiler.nodes.statements.conditionals.NodeWhile;
 import org.compiler.nodes.statements.functions.BuiltInFunc;
 import org.compiler.nodes.statements.functions.NodeBuiltInFunc;
+import org.compiler.peekers.PeekBackIterator;
 import org.compiler.peekers.PeekIteratorToken;
+import org.compiler.peekers.PeekIteratorTokenBuffer;
+import org.compiler.token.TokenBuffer;
 import org.compiler.token.TokenType;
 import org.compiler.token.tokens.Token;
 import org.compiler.token.tokens.TokenIdent;
@@ -30,15 +34,37 @@ import java.util.ArrayList;
  * the structure of the program
  *
  * @see PeekIteratorToken
+ * @see org.compiler.peekers.PeekIteratorTokenStream
  */
 public class Parser {
-    private final PeekIteratorToken it;
+    private final PeekBackIterator<Token> it;
     private NodeProgram tree;
     private final ArrayList<NodeStatement> stmts = new ArrayList<>();
 
     public Parser(ArrayList<Token> tokens) throws TokenError {
-        this.it = new PeekIteratorToken(tokens);
-        parseProgram();
+        this(new PeekIteratorToken(tokens));
+    }
+
+    public Parser(TokenBuffer tokens) throws TokenError {
+        this(new PeekIteratorTokenBuffer(tokens));
+    }
+
+    /**
+     * Parses the tokens returned by an iterator, with a PeekIteratorTokenStream the tokens are produced while parsing
+     *
+     * @param it
+     *            the tokens to parse, peek(1) and peekPrevious() must be supported
+     *
+     * @throws TokenError
+     *             if the program is invalid or the tokens cannot be produced
+     */
+    public Parser(PeekBackIterator<Token> it) throws TokenError {
+        this.it = it;
+        try {
+            parseProgram();
+        } catch (UncheckedTokenError e) {
+            throw e.getCause();
+        }
     }
 
     /**
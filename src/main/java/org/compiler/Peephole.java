@@ -0,0 +1,659 @@
+package org.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Peephole optimisation of the assembly the Generator emits. The text is parsed a line at a time into instructions,
+ * with their mnemonic and operands, labels and the other lines (comments, directives, the data), that are kept as they
+ * are. The rules rewrite the instructions of a window of lines, the lines that leave it are written out: the window
+ * ends at every label, so it holds the straight line code since the last one, up to a fixed number of lines. Like
+ * AsmEmitter, the assembly is either kept in memory or written to a channel, the Generator can write to a Peephole
+ * instead of a file.
+ * <p>
+ * A rule needs to know which registers an instruction reads and writes: a label, a jump, a call, a syscall or an
+ * instruction it does not know ends what it looks at, everything is considered live there. The Generator never reads
+ * the flags after a label.
+ */
+public final class Peephole implements WritableByteChannel {
+    /**
+     * The rewrites, their hits are counted
+     */
+    public enum Rule {
+        /**
+         * push x; pop y, or push x; i; pop y with i not touching the stack nor y: mov y, x
+         */
+        PUSH_POP,
+        /**
+         * mov r, imm; push r or mov r, imm; op x, r with r dead after: push imm or op x, imm, the instructions between
+         * them do not use r
+         */
+        IMMEDIATE,
+        /**
+         * add rsp, 0 or sub rsp, 0: removed
+         */
+        STACK_ADJUST,
+        /**
+         * test r, r after an instruction that sets the zero and the sign flag from r, for a jump on them: removed
+         */
+        REDUNDANT_TEST,
+        /**
+         * jmp or jcc to the label that follows: removed
+         */
+        JUMP_TO_NEXT
+    }
+
+    private enum Kind {
+        INSTRUCTION, LABEL, OTHER
+    }
+
+    /**
+     * A line of assembly, an instruction with its mnemonic and its operands
+     */
+    private record Line(Kind kind, String text, String mnemonic, List<String> operands) {
+        static Line instruction(String mnemonic, String... operands) {
+            return new Line(Kind.INSTRUCTION,
+                    "     " + mnemonic + (operands.length == 0 ? "" : " " + String.join(", ", operands)), mnemonic,
+                    List.of(operands));
+        }
+
+        String operand(int index) {
+            return operands.get(index);
+        }
+    }
+
+    /**
+     * The registers an instruction reads and the ones it overwrites entirely, a partial write is a read
+     */
+    private record Effect(Set<String> reads, Set<String> writes) {
+    }
+
+    private static final int WINDOW = 256;
+    private static final int TAIL = 16;
+    private static final int BUFFER = 1 << 16;
+    private static final Map<String, String> REGISTERS = new HashMap<>();
+    private static final Set<String> FULL = new HashSet<>();
+    private static final Pattern WORD = Pattern.compile("[a-z0-9]+");
+    private static final Pattern STACK_SLOT = Pattern
+            .compile("((?:QWORD|DWORD|WORD|BYTE|qword|dword|word|byte) )?" + "\\[rsp(?: \\+ (\\d+))?]");
+    private static final Set<String> ZERO_SIGN_JUMPS = Set.of("jz", "jnz", "je", "jne", "js", "jns");
+    private static final Set<String> SETS_ZERO_SIGN = Set.of("add", "sub", "and", "or", "xor", "neg", "inc", "dec");
+    private static final Set<String> FOLDABLE = Set.of("add", "sub", "and", "or", "xor", "cmp", "test", "mov", "imul");
+
+    static {
+        for (String r : new String[] { "ax", "bx", "cx", "dx" }) {
+            String full = "r" + r;
+            register(full, full, "e" + r, r, r.charAt(0) + "l", r.charAt(0) + "h");
+        }
+        for (String r : new String[] { "si", "di", "bp", "sp" }) {
+            String full = "r" + r;
+            register(full, full, "e" + r, r, r + "l");
+        }
+        for (int i = 8; i <= 15; i++) {
+            String full = "r" + i;
+            register(full, full, full + "d", full + "w", full + "b");
+        }
+    }
+
+    private static void register(String full, String... names) {
+        for (String name : names) {
+            REGISTERS.put(name, full);
+        }
+        // a write to the 32 bit register clears the upper half
+        FULL.add(names[0]);
+        FULL.add(names[1]);
+    }
+
+    private final WritableByteChannel channel;
+    private final StringBuilder output = new StringBuilder();
+    private final List<Line> pending = new ArrayList<>();
+    private final ByteArrayOutputStream partialBytes = new ByteArrayOutputStream();
+    private final StringBuilder partial = new StringBuilder();
+    private final Map<Rule, Integer> hits = new EnumMap<>(Rule.class);
+    private boolean text = true;
+    private boolean open = true;
+
+    /**
+     * Creates a peephole optimiser that keeps the assembly in memory, read it with toString() after close()
+     */
+    public Peephole() {
+        this(null);
+    }
+
+    /**
+     * Creates a peephole optimiser that writes the optimised assembly to a channel
+     *
+     * @param channel
+     *            where the assembly is written, it is not closed by the optimiser
+     */
+    public Peephole(WritableByteChannel channel) {
+        this.channel = channel;
+        for (Rule rule : Rule.values()) {
+            hits.put(rule, 0);
+        }
+    }
+
+    /**
+     * Optimises some assembly, the last line is held until it ends or the optimiser is closed
+     */
+    public Peephole append(CharSequence s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\n') {
+                add(partial.toString());
+                partial.setLength(0);
+            } else {
+                partial.append(c);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Optimises some assembly encoded in UTF-8
+     */
+    @Override
+    public int write(ByteBuffer src) {
+        int count = src.remaining();
+        while (src.hasRemaining()) {
+            byte b = src.get();
+            if (b == '\n') {
+                add(partialBytes.toString(StandardCharsets.UTF_8));
+                partialBytes.reset();
+            } else {
+                partialBytes.write(b);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Optimises and writes what is left, the channel is not closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        optimize();
+        emit(pending.size());
+        output.append(partialBytes.toString(StandardCharsets.UTF_8)).append(partial);
+        drain();
+    }
+
+    /**
+     * @return how many times each rule has been applied
+     */
+    public Map<Rule, Integer> getHits() {
+        return Collections.unmodifiableMap(hits);
+    }
+
+    /**
+     * @return the optimised assembly
+     *
+     * @throws IllegalStateException
+     *             if the assembly has been written to a channel or the optimiser is not closed
+     */
+    @Override
+    public String toString() {
+        if (channel != null || open) {
+            throw new IllegalStateException("The assembly has been written to a channel or is not complete");
+        }
+        return output.toString();
+    }
+
+    private void add(String line) {
+        Line parsed = parse(line);
+        pending.add(parsed);
+        if (parsed.kind() == Kind.LABEL) {
+            optimize();
+            emit(pending.size() - 1);
+        } else if (pending.size() >= WINDOW) {
+            optimize();
+            emit(pending.size() - TAIL);
+        }
+    }
+
+    private Line parse(String line) {
+        String code = line.strip();
+        int comment = commentStart(code);
+        if (comment >= 0) {
+            code = code.substring(0, comment).strip();
+        }
+        String first = code.split("\\s+", 2)[0];
+        if (first.equals("section")) {
+            text = code.contains(".text");
+        }
+        if (!text || code.isEmpty() || first.equals("section") || first.equals("global") || first.equals("extern")) {
+            return new Line(Kind.OTHER, line, null, List.of());
+        }
+        if (code.endsWith(":") && !code.contains(" ")) {
+            return new Line(Kind.LABEL, line, code.substring(0, code.length() - 1), List.of());
+        }
+        List<String> operands = new ArrayList<>();
+        if (first.length() < code.length()) {
+            String rest = code.substring(first.length()).strip();
+            int start = 0;
+            char quote = 0;
+            for (int i = 0; i < rest.length(); i++) {
+                char c = rest.charAt(i);
+                if (quote != 0) {
+                    quote = c == quote ? 0 : quote;
+                } else if (c == '\'' || c == '"' || c == '`') {
+                    quote = c;
+                } else if (c == ',') {
+                    operands.add(rest.substring(start, i).strip());
+                    start = i + 1;
+                }
+            }
+            operands.add(rest.substring(start).strip());
+        }
+        return new Line(Kind.INSTRUCTION, line, first, List.copyOf(operands));
+    }
+
+    private static int commentStart(String code) {
+        char quote = 0;
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (quote != 0) {
+                quote = c == quote ? 0 : quote;
+            } else if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+            } else if (c == ';') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes out the first lines of the window
+     */
+    private void emit(int count) {
+        List<Line> lines = pending.subList(0, Math.max(count, 0));
+        for (Line line : lines) {
+            output.append(line.text()).append('\n');
+        }
+        lines.clear();
+        if (channel != null && output.length() >= BUFFER) {
+            drain();
+        }
+    }
+
+    private void drain() {
+        if (channel == null) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(output.toString().getBytes(StandardCharsets.UTF_8));
+        output.setLength(0);
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Applies the rules to the window until none applies, after a rewrite the two instructions before it are tried
+     * again since the rewrite can complete a pattern they start
+     */
+    private void optimize() {
+        int i = 0;
+        while (i < pending.size()) {
+            if (pending.get(i).kind() != Kind.INSTRUCTION) {
+                i++;
+                continue;
+            }
+            Rule applied = apply(i);
+            if (applied == null) {
+                i++;
+                continue;
+            }
+            hits.merge(applied, 1, Integer::sum);
+            int back = previous(i);
+            back = back > 0 ? previous(back) : back;
+            i = Math.max(back, 0);
+        }
+    }
+
+    private Rule apply(int i) {
+        if (stackAdjust(i)) {
+            return Rule.STACK_ADJUST;
+        }
+        if (jumpToNext(i)) {
+            return Rule.JUMP_TO_NEXT;
+        }
+        if (pushPop(i)) {
+            return Rule.PUSH_POP;
+        }
+        if (immediate(i)) {
+            return Rule.IMMEDIATE;
+        }
+        if (redundantTest(i)) {
+            return Rule.REDUNDANT_TEST;
+        }
+        return null;
+    }
+
+    private boolean stackAdjust(int i) {
+        Line line = pending.get(i);
+        if ((line.mnemonic().equals("add") || line.mnemonic().equals("sub"))
+                && line.operands().equals(List.of("rsp", "0"))) {
+            pending.remove(i);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean jumpToNext(int i) {
+        Line line = pending.get(i);
+        if (!line.mnemonic().startsWith("j") || line.operands().size() != 1) {
+            return false;
+        }
+        for (int j = next(i); j >= 0 && pending.get(j).kind() == Kind.LABEL; j = next(j)) {
+            if (pending.get(j).mnemonic().equals(line.operand(0))) {
+                pending.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean pushPop(int i) {
+        Line push = pending.get(i);
+        int j = next(i);
+        if (!push.mnemonic().equals("push") || j < 0 || pending.get(j).kind() != Kind.INSTRUCTION) {
+            return false;
+        }
+        String src = push.operand(0);
+        Line between = pending.get(j);
+        if (between.mnemonic().equals("pop")) {
+            return collapse(i, j, src, between.operand(0), null);
+        }
+        int k = next(j);
+        if (k < 0 || pending.get(k).kind() != Kind.INSTRUCTION || !pending.get(k).mnemonic().equals("pop")) {
+            return false;
+        }
+        String dst = pending.get(k).operand(0);
+        Effect effect = effect(between);
+        if (!REGISTERS.containsKey(dst) || effect == null || between.mnemonic().equals("push")
+                || between.mnemonic().equals("pop") || effect.reads().contains(REGISTERS.get(dst))
+                || effect.writes().contains(REGISTERS.get(dst)) || effect.writes().contains("rsp")) {
+            return false;
+        }
+        // without the push the stack slots the instruction addresses are 8 bytes closer
+        List<String> operands = new ArrayList<>();
+        for (String operand : between.operands()) {
+            if (!registers(operand).contains("rsp")) {
+                operands.add(operand);
+                continue;
+            }
+            Matcher matcher = STACK_SLOT.matcher(operand);
+            long offset = matcher.matches() && matcher.group(2) != null ? Long.parseLong(matcher.group(2)) : 0;
+            if (!matcher.matches() || offset < 8) {
+                return false;
+            }
+            operands.add((matcher.group(1) == null ? "" : matcher.group(1)) + "[rsp + " + (offset - 8) + "]");
+        }
+        return collapse(i, k, src, dst, Line.instruction(between.mnemonic(), operands.toArray(String[]::new)));
+    }
+
+    /**
+     * Replaces a push and the pop that takes its value with a move, the instruction between them is moved after it
+     */
+    private boolean collapse(int push, int pop, String src, String dst, Line between) {
+        boolean memory = src.contains("[");
+        if (!src.equals(dst) && (memory && dst.contains("[") || isImmediate(src) && !REGISTERS.containsKey(dst)
+                || !memory && !isImmediate(src) && !REGISTERS.containsKey(src))) {
+            return false;
+        }
+        pending.remove(pop);
+        if (between != null) {
+            pending.set(next(push), between);
+        }
+        if (src.equals(dst)) {
+            pending.remove(push);
+        } else {
+            pending.set(push, Line.instruction("mov", dst, src));
+        }
+        return true;
+    }
+
+    private boolean immediate(int i) {
+        Line mov = pending.get(i);
+        int j = next(i);
+        if (!mov.mnemonic().equals("mov") || mov.operands().size() != 2 || !isQword(mov.operand(0))
+                || !isImmediate(mov.operand(1)) || j < 0 || pending.get(j).kind() != Kind.INSTRUCTION) {
+            return false;
+        }
+        String register = mov.operand(0);
+        String value = mov.operand(1);
+        // the instructions that do not use the register can be in between
+        Effect effect = effect(pending.get(j));
+        while (effect != null && !effect.reads().contains(register) && !effect.writes().contains(register)) {
+            j = next(j);
+            effect = j >= 0 && pending.get(j).kind() == Kind.INSTRUCTION ? effect(pending.get(j)) : null;
+        }
+        if (effect == null) {
+            return false;
+        }
+        Line user = pending.get(j);
+        Line folded = null;
+        if (user.mnemonic().equals("push") && user.operand(0).equals(register)) {
+            folded = Line.instruction("push", value);
+        } else if (FOLDABLE.contains(user.mnemonic()) && user.operands().size() == 2 && user.operand(1).equals(register)
+                && isQword(user.operand(0)) && !REGISTERS.get(user.operand(0)).equals(register)) {
+            folded = Line.instruction(user.mnemonic(), user.operand(0), value);
+        }
+        if (folded == null || !isDead(register, j)) {
+            return false;
+        }
+        pending.set(j, folded);
+        pending.remove(i);
+        return true;
+    }
+
+    private boolean redundantTest(int i) {
+        Line test = pending.get(i);
+        if (!test.mnemonic().equals("test") || test.operands().size() != 2 || !test.operand(0).equals(test.operand(1))
+                || !isQword(test.operand(0))) {
+            return false;
+        }
+        int p = previous(i);
+        int n = next(i);
+        if (p < 0 || n < 0 || pending.get(p).kind() != Kind.INSTRUCTION || pending.get(n).kind() != Kind.INSTRUCTION) {
+            return false;
+        }
+        Line flags = pending.get(p);
+        if (!SETS_ZERO_SIGN.contains(flags.mnemonic()) || !flags.operand(0).equals(test.operand(0))
+                || !ZERO_SIGN_JUMPS.contains(pending.get(n).mnemonic())) {
+            return false;
+        }
+        // the other flags differ, nothing after the jump may read them
+        int after = next(n);
+        if (after < 0 || pending.get(after).kind() == Kind.INSTRUCTION && readsFlags(pending.get(after))) {
+            return false;
+        }
+        pending.remove(i);
+        return true;
+    }
+
+    /**
+     * @return if a register is overwritten after an instruction before anything reads it
+     */
+    private boolean isDead(String register, int from) {
+        for (int j = next(from); j >= 0; j = next(j)) {
+            Line line = pending.get(j);
+            Effect effect = line.kind() == Kind.INSTRUCTION ? effect(line) : null;
+            if (effect == null || effect.reads().contains(register)) {
+                return false;
+            }
+            if (effect.writes().contains(register)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the registers an instruction reads and writes, null for a label, a jump, a call, a syscall or an
+     *         instruction that is not known
+     */
+    private static Effect effect(Line line) {
+        Set<String> reads = new HashSet<>();
+        Set<String> writes = new HashSet<>();
+        List<String> operands = line.operands();
+        String mnemonic = line.mnemonic();
+        switch (mnemonic) {
+        case "mov", "movzx", "movsx", "movsxd", "lea" -> {
+            if (operands.size() != 2) {
+                return null;
+            }
+            reads.addAll(registers(operands.get(1)));
+            destination(operands.get(0), reads, writes);
+        }
+        case "add", "sub", "and", "or", "xor", "adc", "sbb", "shl", "shr", "sar", "rol", "ror", "cmp", "test" -> {
+            for (String operand : operands) {
+                reads.addAll(registers(operand));
+            }
+            if (!mnemonic.equals("cmp") && !mnemonic.equals("test")) {
+                destination(operands.getFirst(), reads, writes);
+            }
+        }
+        case "imul", "idiv", "div", "mul" -> {
+            for (String operand : operands) {
+                reads.addAll(registers(operand));
+            }
+            if (operands.size() == 1) {
+                reads.addAll(List.of("rax", "rdx"));
+                writes.addAll(List.of("rax", "rdx"));
+            } else if (operands.size() == 3) {
+                reads.removeAll(registers(operands.getFirst()));
+                reads.addAll(registers(operands.get(1)));
+                reads.addAll(registers(operands.get(2)));
+                destination(operands.getFirst(), reads, writes);
+            } else {
+                destination(operands.getFirst(), reads, writes);
+            }
+        }
+        case "neg", "not", "inc", "dec" -> {
+            reads.addAll(registers(operands.getFirst()));
+            destination(operands.getFirst(), reads, writes);
+        }
+        case "cqo" -> {
+            reads.add("rax");
+            writes.add("rdx");
+        }
+        case "push" -> {
+            reads.addAll(registers(operands.getFirst()));
+            reads.add("rsp");
+            writes.add("rsp");
+        }
+        case "pop" -> {
+            reads.add("rsp");
+            writes.add("rsp");
+            destination(operands.getFirst(), reads, writes);
+        }
+        default -> {
+            if (!mnemonic.startsWith("set") || operands.size() != 1) {
+                return null;
+            }
+            reads.addAll(registers(operands.getFirst()));
+        }
+        }
+        return new Effect(reads, writes);
+    }
+
+    private static void destination(String operand, Set<String> reads, Set<String> writes) {
+        if (!REGISTERS.containsKey(operand)) {
+            reads.addAll(registers(operand));
+        } else if (FULL.contains(operand)) {
+            writes.add(REGISTERS.get(operand));
+        } else {
+            reads.add(REGISTERS.get(operand));
+        }
+    }
+
+    private static boolean readsFlags(Line line) {
+        String mnemonic = line.mnemonic();
+        return mnemonic.startsWith("j") && !mnemonic.equals("jmp") || mnemonic.startsWith("set")
+                || mnemonic.startsWith("cmov") || mnemonic.equals("adc") || mnemonic.equals("sbb");
+    }
+
+    /**
+     * @return the 64 bit registers an operand reads, the ones of its address if it is in memory
+     */
+    private static Set<String> registers(String operand) {
+        Set<String> registers = new HashSet<>();
+        if (operand.startsWith("'") || operand.startsWith("\"") || operand.startsWith("`")) {
+            return registers;
+        }
+        Matcher matcher = WORD.matcher(operand);
+        while (matcher.find()) {
+            String register = REGISTERS.get(matcher.group());
+            if (register != null) {
+                registers.add(register);
+            }
+        }
+        return registers;
+    }
+
+    private static boolean isQword(String operand) {
+        return REGISTERS.containsKey(operand) && REGISTERS.get(operand).equals(operand);
+    }
+
+    /**
+     * @return if an operand is a decimal constant that fits in a sign extended 32 bit immediate
+     */
+    private static boolean isImmediate(String operand) {
+        if (!operand.matches("-?\\d{1,19}")) {
+            return false;
+        }
+        try {
+            long value = Long.parseLong(operand);
+            return value == (int) value;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private int next(int i) {
+        for (int j = i + 1; j < pending.size(); j++) {
+            if (pending.get(j).kind() != Kind.OTHER) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    private int previous(int i) {
+        for (int j = i - 1; j >= 0; j--) {
+            if (pending.get(j).kind() != Kind.OTHER) {
+                return j;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,104 @@
+package org.compiler;
+
+import java.util.Arrays;
+
+/**
+ * Scoped table of the variables of the Generator, indexed by the id the Tokenizer gave to the identifier. Every
+ * declaration is recorded in an undo log together with the slot it replaced, a scope is the position of the log when it
+ * began: ending it undoes only the declarations made inside it, so beginScope() is O(1) and endScope() is O(variables
+ * declared in the scope).
+ * <p>
+ * The table itself allows a declaration to shadow one of an enclosing scope, the previous slot is restored when the
+ * scope ends. The Generator does not use shadowing: it reports a redeclaration if lookup() finds the name in any open
+ * scope.
+ */
+class SymbolTable {
+    private static final int UNDECLARED = -1;
+    private int[] slots = new int[16];
+    private int[] undoIds = new int[16];
+    private int[] undoSlots = new int[16];
+    private int undoSize = 0;
+    private int[] scopes = new int[8];
+    private int depth = 0;
+
+    SymbolTable() {
+        Arrays.fill(slots, UNDECLARED);
+    }
+
+    /**
+     * @param id
+     *            the id of the identifier
+     *
+     * @return the stack slot of the variable, -1 if it is not declared in any open scope
+     */
+    int lookup(int id) {
+        return id < slots.length ? slots[id] : UNDECLARED;
+    }
+
+    /**
+     * Declares a variable in the current scope
+     *
+     * @param id
+     *            the id of the identifier
+     * @param slot
+     *            the stack slot of the variable
+     */
+    void declare(int id, int slot) {
+        if (id >= slots.length) {
+            int length = slots.length;
+            slots = Arrays.copyOf(slots, Math.max(length * 2, id + 1));
+            Arrays.fill(slots, length, slots.length, UNDECLARED);
+        }
+        if (undoSize == undoIds.length) {
+            undoIds = Arrays.copyOf(undoIds, undoSize * 2);
+            undoSlots = Arrays.copyOf(undoSlots, undoSize * 2);
+        }
+        undoIds[undoSize] = id;
+        undoSlots[undoSize] = slots[id];
+        undoSize++;
+        slots[id] = slot;
+    }
+
+    /**
+     * Opens a scope, the declarations from now on are undone by the matching endScope()
+     */
+    void beginScope() {
+        if (depth == scopes.length) {
+            scopes = Arrays.copyOf(scopes, depth * 2);
+        }
+        scopes[depth++] = undoSize;
+    }
+
+    /**
+     * Closes the innermost scope, restoring the slots its declarations replaced
+     *
+     * @return the number of variables declared in the scope
+     *
+     * @throws IllegalStateException
+     *             if there is no open scope
+     */
+    int endScope() {
+        if (depth == 0) {
+            throw new IllegalStateException("No scope to end");
+        }
+        int mark = scopes[--depth];
+        int count = undoSize - mark;
+        while (undoSize > mark) {
+            undoSize--;
+            slots[undoIds[undoSize]] = undoSlots[undoSize];
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of variables declared in the open scopes
+     */
+    int size() {
+        return undoSize;
+    }
+
+    @Override
+    public String toString() {
+        return "SymbolTable{" + "variables=" + undoSize + ", scopes=" + depth + '}';
+    }
+}
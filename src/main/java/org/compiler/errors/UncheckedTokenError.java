@@ -0,0 +1,16 @@
+package org.compiler.errors;
+
+/**
+ * Wraps a TokenError raised while tokens are pulled through an iterator, whose methods cannot throw checked exceptions.
+ * The Parser unwraps it and throws the original TokenError.
+ */
+public class UncheckedTokenError extends RuntimeException {
+    public UncheckedTokenError(TokenError cause) {
+        super(cause);
+    }
+
+    @Override
+    public synchronized TokenError getCause() {
+        return (TokenError) super.getCause();
+    }
+}
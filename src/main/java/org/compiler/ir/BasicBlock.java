@@ -0,0 +1,128 @@
+package org.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A basic block: phis, instructions that do not transfer control and a terminator. Control enters only at the start,
+ * from one of the predecessors, and leaves only at the end
+ */
+public final class BasicBlock {
+    private final List<Phi> phis = new ArrayList<>();
+    private final List<Instruction> instructions = new ArrayList<>();
+    private final List<BasicBlock> predecessors = new ArrayList<>();
+    private Terminator terminator;
+    private int id = -1;
+
+    BasicBlock() {
+    }
+
+    /**
+     * @return the position of the block in the control-flow graph when it has been added
+     */
+    public int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the label of the block in the assembly
+     */
+    public String getName() {
+        return "block" + id;
+    }
+
+    public List<Phi> getPhis() {
+        return Collections.unmodifiableList(phis);
+    }
+
+    /**
+     * @return the instructions between the phis and the terminator
+     */
+    public List<Instruction> getInstructions() {
+        return Collections.unmodifiableList(instructions);
+    }
+
+    public List<BasicBlock> getPredecessors() {
+        return Collections.unmodifiableList(predecessors);
+    }
+
+    /**
+     * @return the terminator, null while the block is being built
+     */
+    public Terminator getTerminator() {
+        return terminator;
+    }
+
+    public List<BasicBlock> getSuccessors() {
+        return terminator == null ? List.of() : terminator.getSuccessors();
+    }
+
+    void addPhi(Phi phi) {
+        phi.setBlock(this);
+        phis.add(phi);
+    }
+
+    void removePhi(Phi phi) {
+        phis.remove(phi);
+    }
+
+    void append(Instruction instruction) {
+        instruction.setBlock(this);
+        instructions.add(instruction);
+    }
+
+    void remove(Instruction instruction) {
+        instructions.remove(instruction);
+    }
+
+    /**
+     * Ends the block, it becomes a predecessor of the successors of the terminator
+     */
+    void terminate(Terminator terminator) {
+        terminator.setBlock(this);
+        this.terminator = terminator;
+        for (BasicBlock successor : terminator.getSuccessors()) {
+            successor.predecessors.add(this);
+        }
+    }
+
+    /**
+     * Removes a predecessor and the operands of the phis that come from it
+     *
+     * @param index
+     *            the index of the predecessor
+     */
+    void removePredecessor(int index) {
+        predecessors.remove(index);
+        for (Phi phi : phis) {
+            phi.removeOperand(index);
+        }
+    }
+
+    /**
+     * Puts a block between this one and one of its predecessors, the operands of the phis stay where they are
+     *
+     * @param predecessor
+     *            the predecessor
+     * @param block
+     *            the block that takes its place, it jumps here
+     */
+    void interpose(BasicBlock predecessor, BasicBlock block) {
+        predecessors.set(predecessors.indexOf(predecessor), block);
+        predecessor.terminator.replaceSuccessor(this, block);
+        block.predecessors.add(predecessor);
+        Jump jump = new Jump(this);
+        jump.setBlock(block);
+        block.terminator = jump;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
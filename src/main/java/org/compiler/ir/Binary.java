@@ -0,0 +1,33 @@
+package org.compiler.ir;
+
+import org.compiler.nodes.expressions.binary_expressions.BinType;
+
+/**
+ * A binary operation of two values with the semantics of the generated code: 64 bit wrap around, a comparison is 0 or
+ * 1, a division truncates and faults when the divisor is 0
+ */
+public final class Binary extends Instruction {
+    private final BinType type;
+
+    Binary(BinType type, Value left, Value right) {
+        super(left, right);
+        this.type = type;
+    }
+
+    public BinType getType() {
+        return type;
+    }
+
+    public Value getLeft() {
+        return getOperand(0);
+    }
+
+    public Value getRight() {
+        return getOperand(1);
+    }
+
+    @Override
+    public boolean hasValue() {
+        return true;
+    }
+}
@@ -0,0 +1,60 @@
+package org.compiler.ir;
+
+import org.compiler.nodes.expressions.binary_expressions.BinType;
+
+import java.util.List;
+
+/**
+ * Compares two values and transfers control to one block if the comparison holds, to another one if it does not
+ */
+public final class Branch extends Terminator {
+    private final BinType comparison;
+    private BasicBlock ifTrue;
+    private BasicBlock ifFalse;
+
+    /**
+     * @param comparison
+     *            one of Eq, NotEq, GT, LT, GE, LE
+     */
+    Branch(BinType comparison, Value left, Value right, BasicBlock ifTrue, BasicBlock ifFalse) {
+        super(left, right);
+        this.comparison = comparison;
+        this.ifTrue = ifTrue;
+        this.ifFalse = ifFalse;
+    }
+
+    public BinType getComparison() {
+        return comparison;
+    }
+
+    public Value getLeft() {
+        return getOperand(0);
+    }
+
+    public Value getRight() {
+        return getOperand(1);
+    }
+
+    public BasicBlock getIfTrue() {
+        return ifTrue;
+    }
+
+    public BasicBlock getIfFalse() {
+        return ifFalse;
+    }
+
+    @Override
+    public List<BasicBlock> getSuccessors() {
+        return List.of(ifTrue, ifFalse);
+    }
+
+    @Override
+    void replaceSuccessor(BasicBlock successor, BasicBlock block) {
+        if (ifTrue == successor) {
+            ifTrue = block;
+        }
+        if (ifFalse == successor) {
+            ifFalse = block;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The control-flow graph of a program in SSA form. The blocks are kept in the order they are laid out in the assembly,
+ * the first one is the entry of the program
+ *
+ * @see Lowering
+ */
+public final class Cfg {
+    private final List<BasicBlock> blocks = new ArrayList<>();
+    private final Map<Long, Constant> constants = new HashMap<>();
+    private int blockCounter = 0;
+
+    Cfg() {
+    }
+
+    public BasicBlock getEntry() {
+        return blocks.getFirst();
+    }
+
+    public List<BasicBlock> getBlocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    /**
+     * @return the constant with a value, the same object for the same value
+     */
+    Constant constant(long value) {
+        return constants.computeIfAbsent(value, Constant::new);
+    }
+
+    /**
+     * Lays out a block after the last one
+     */
+    void add(BasicBlock block) {
+        block.setId(blockCounter++);
+        blocks.add(block);
+    }
+
+    void remove(BasicBlock block) {
+        blocks.remove(block);
+    }
+
+    /**
+     * Splits the edges from a block with more than one successor to a block with phis, so the copies of the phis can be
+     * put at the end of the predecessors. The new blocks are laid out after the blocks the edges leave
+     */
+    public void splitCriticalEdges() {
+        for (int i = 0; i < blocks.size(); i++) {
+            BasicBlock block = blocks.get(i);
+            if (block.getSuccessors().size() < 2) {
+                continue;
+            }
+            for (BasicBlock successor : block.getSuccessors()) {
+                if (!successor.getPhis().isEmpty() && successor.getPredecessors().size() > 1) {
+                    BasicBlock edge = new BasicBlock();
+                    edge.setId(blockCounter++);
+                    successor.interpose(block, edge);
+                    blocks.add(++i, edge);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the control-flow graph in a readable form, one instruction per line
+     */
+    @Override
+    public String toString() {
+        Map<Value, String> names = new IdentityHashMap<>();
+        for (BasicBlock block : blocks) {
+            for (Phi phi : block.getPhis()) {
+                names.put(phi, "%" + names.size());
+            }
+            for (Instruction instruction : block.getInstructions()) {
+                if (instruction.hasValue()) {
+                    names.put(instruction, "%" + names.size());
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (BasicBlock block : blocks) {
+            sb.append(block.getName()).append(":");
+            if (!block.getPredecessors().isEmpty()) {
+                sb.append(" ; from ");
+                for (int i = 0; i < block.getPredecessors().size(); i++) {
+                    sb.append(i > 0 ? ", " : "").append(block.getPredecessors().get(i).getName());
+                }
+            }
+            sb.append("\n");
+            for (Phi phi : block.getPhis()) {
+                sb.append("     ").append(names.get(phi)).append(" = phi");
+                for (int i = 0; i < phi.getOperands().size(); i++) {
+                    sb.append(i > 0 ? ", " : " ").append(name(phi.getIncoming(i), names));
+                }
+                sb.append("\n");
+            }
+            for (Instruction instruction : block.getInstructions()) {
+                sb.append("     ").append(format(instruction, names)).append("\n");
+            }
+            if (block.getTerminator() != null) {
+                sb.append("     ").append(format(block.getTerminator(), names)).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String format(Instruction instruction, Map<Value, String> names) {
+        return switch (instruction) {
+        case Binary binary -> names.get(binary) + " = " + binary.getType() + " " + name(binary.getLeft(), names) + ", "
+                + name(binary.getRight(), names);
+        case Read read -> names.get(read) + " = read";
+        case Print print -> "print " + name(print.getValue(), names);
+        case PrintString printString -> "print '" + printString.getText() + "'";
+        case Jump jump -> "jump " + jump.getTarget().getName();
+        case Branch branch -> "branch " + branch.getComparison() + " " + name(branch.getLeft(), names) + ", "
+                + name(branch.getRight(), names) + " ? " + branch.getIfTrue().getName() + " : "
+                + branch.getIfFalse().getName();
+        case Exit exit -> "exit " + name(exit.getCode(), names);
+        default -> throw new IllegalArgumentException("Unknown instruction type in control-flow graph");
+        };
+    }
+
+    private static String name(Value value, Map<Value, String> names) {
+        return value instanceof Constant ? value.toString() : names.getOrDefault(value, "%?");
+    }
+}
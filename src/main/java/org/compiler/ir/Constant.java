@@ -0,0 +1,23 @@
+package org.compiler.ir;
+
+/**
+ * A 64 bit constant, the control-flow graph has one per value
+ *
+ * @see Cfg#constant(long)
+ */
+public final class Constant extends Value {
+    private final long value;
+
+    Constant(long value) {
+        this.value = value;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(value);
+    }
+}
@@ -0,0 +1,25 @@
+package org.compiler.ir;
+
+import java.util.List;
+
+/**
+ * Ends the program with an exit code, the exit statement and the implicit exit 0 at the end of the program
+ */
+public final class Exit extends Terminator {
+    Exit(Value code) {
+        super(code);
+    }
+
+    public Value getCode() {
+        return getOperand(0);
+    }
+
+    @Override
+    public List<BasicBlock> getSuccessors() {
+        return List.of();
+    }
+
+    @Override
+    void replaceSuccessor(BasicBlock successor, BasicBlock block) {
+    }
+}
@@ -0,0 +1,74 @@
+package org.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An instruction of a basic block. The ones that compute something are values themselves, in SSA form each of them is
+ * the only definition of its value
+ */
+public abstract class Instruction extends Value {
+    private final List<Value> operands = new ArrayList<>();
+    private BasicBlock block;
+
+    Instruction(Value... operands) {
+        for (Value operand : operands) {
+            addOperand(operand);
+        }
+    }
+
+    /**
+     * @return if the instruction defines a value other instructions can use
+     */
+    public abstract boolean hasValue();
+
+    public List<Value> getOperands() {
+        return Collections.unmodifiableList(operands);
+    }
+
+    public Value getOperand(int index) {
+        return operands.get(index);
+    }
+
+    /**
+     * @return the block the instruction is in, null once it has been removed
+     */
+    public BasicBlock getBlock() {
+        return block;
+    }
+
+    void setBlock(BasicBlock block) {
+        this.block = block;
+    }
+
+    void addOperand(Value operand) {
+        operands.add(operand);
+        operand.addUser(this);
+    }
+
+    void removeOperand(int index) {
+        operands.remove(index).removeUser(this);
+    }
+
+    void replaceOperand(Value operand, Value value) {
+        for (int i = 0; i < operands.size(); i++) {
+            if (operands.get(i) == operand) {
+                operand.removeUser(this);
+                operands.set(i, value);
+                value.addUser(this);
+            }
+        }
+    }
+
+    /**
+     * Stops using the operands, once the instruction is removed
+     */
+    void detach() {
+        for (Value operand : operands) {
+            operand.removeUser(this);
+        }
+        operands.clear();
+        block = null;
+    }
+}
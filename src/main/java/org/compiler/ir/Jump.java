@@ -0,0 +1,30 @@
+package org.compiler.ir;
+
+import java.util.List;
+
+/**
+ * Transfers control to a block
+ */
+public final class Jump extends Terminator {
+    private BasicBlock target;
+
+    Jump(BasicBlock target) {
+        this.target = target;
+    }
+
+    public BasicBlock getTarget() {
+        return target;
+    }
+
+    @Override
+    public List<BasicBlock> getSuccessors() {
+        return List.of(target);
+    }
+
+    @Override
+    void replaceSuccessor(BasicBlock successor, BasicBlock block) {
+        if (target == successor) {
+            target = block;
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package org.compiler.ir;
+
+import org.compiler.errors.TokenError;
+import org.compiler.nodes.NodeExpression;
+import org.compiler.nodes.NodeProgram;
+import org.compiler.nodes.NodeStatement;
+import org.compiler.nodes.expressions.binary_expressions.BinType;
+import org.compiler.nodes.expressions.binary_expressions.NodeBin;
+import org.compiler.nodes.expressions.terms.NodeIdent;
+import org.compiler.nodes.expressions.terms.NodeIntLit;
+import org.compiler.nodes.expressions.terms.NodeTermParen;
+import org.compiler.nodes.statements.NodeAssign;
+import org.compiler.nodes.statements.NodeExit;
+import org.compiler.nodes.statements.NodeLet;
+import org.compiler.nodes.statements.NodeScope;
+import org.compiler.nodes.statements.conditionals.NodeIf;
+import org.compiler.nodes.statements.conditionals.NodeWhile;
+import org.compiler.nodes.statements.functions.BuiltInFunc;
+import org.compiler.nodes.statements.functions.NodeBuiltInFunc;
+import org.compiler.token.TokenType;
+import org.compiler.token.tokens.TokenIdent;
+import org.compiler.token.tokens.TokenString;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lowers the AST of a program to a control-flow graph in SSA form. The graph is built in a single pass with the
+ * algorithm of Braun et al., "Simple and Efficient Construction of Static Single Assignment Form": a variable read in a
+ * block that does not define it is looked up in the predecessors, with a phi where they join, and the phis of a block
+ * are completed once it is sealed, when all its predecessors are known. Checks for undeclared and redeclared
+ * identifiers like the Generator does.
+ * <p>
+ * Like in the Generator, the conditions branch on their comparisons, an &amp; or a | of comparisons is short-circuited
+ * and a while loop is rotated into a do-while guarded by its condition.
+ */
+public final class Lowering {
+    private final Cfg cfg = new Cfg();
+    private final Map<BasicBlock, Map<Integer, Value>> definitions = new HashMap<>();
+    private final Map<BasicBlock, Map<Integer, Phi>> incomplete = new HashMap<>();
+    private final Set<BasicBlock> sealed = new HashSet<>();
+    private final Map<Phi, Value> replaced = new IdentityHashMap<>();
+    private final Deque<List<Integer>> scopes = new ArrayDeque<>();
+    private final Set<Integer> declared = new HashSet<>();
+    private int declaring = -1;
+    private BasicBlock current;
+
+    private Lowering(NodeProgram program) throws TokenError {
+        start(new BasicBlock());
+        seal(current);
+        scopes.push(new ArrayList<>());
+        for (NodeStatement statement : program.getStmts()) {
+            lowerStatement(statement);
+        }
+        // Exits 0 by default
+        current.terminate(new Exit(cfg.constant(0)));
+        removeUnreachable();
+    }
+
+    /**
+     * Lowers a program
+     *
+     * @param program
+     *            the program to lower
+     *
+     * @return its control-flow graph, the blocks no path from the entry reaches are removed
+     *
+     * @throws TokenError
+     *             if an identifier is undeclared, redeclared or used in its own declaration
+     */
+    public static Cfg lower(NodeProgram program) throws TokenError {
+        return new Lowering(program).cfg;
+    }
+
+    private void lowerStatement(NodeStatement stmt) throws TokenError {
+        switch (stmt) {
+        case NodeScope nodeScope -> lowerScope(nodeScope);
+        case NodeLet nodeLet -> {
+            TokenIdent ident = nodeLet.getIdentifier().getIdent();
+            if (declared.contains(ident.getId())) {
+                throw error("Redeclared Identifier: ", ident);
+            }
+            declaring = ident.getId();
+            Value value = lowerExpression(nodeLet.getStmt());
+            declaring = -1;
+            declared.add(ident.getId());
+            scopes.element().add(ident.getId());
+            writeVariable(ident.getId(), current, value);
+        }
+        case NodeAssign nodeAssign -> {
+            TokenIdent ident = nodeAssign.getTokenIdent();
+            if (!declared.contains(ident.getId())) {
+                throw error("Undeclared Identifier: ", ident);
+            }
+            writeVariable(ident.getId(), current, lowerExpression(nodeAssign.getStmt()));
+        }
+        case NodeExit nodeExit -> {
+            current.terminate(new Exit(lowerExpression(nodeExit.getStmt())));
+            // the code after an exit is unreachable, it is lowered to be checked and removed at the end
+            start(new BasicBlock());
+            seal(current);
+        }
+        case NodeIf nodeIf -> lowerIf(nodeIf);
+        case NodeWhile nodeWhile -> lowerWhile(nodeWhile);
+        case NodeBuiltInFunc nodeBuiltInFunc -> {
+            switch (nodeBuiltInFunc.getFunc()) {
+            case BuiltInFunc.print -> {
+                if (nodeBuiltInFunc.getStmt().getExpr().getType() == TokenType.string_lit) {
+                    TokenString content = (TokenString) nodeBuiltInFunc.getStmt().getExpr();
+                    current.append(new PrintString(content.getContent()));
+                } else if (nodeBuiltInFunc.getStmt().getExpr().getType() == TokenType.int_lit) {
+                    NodeIntLit nodeIntLit = (NodeIntLit) nodeBuiltInFunc.getStmt();
+                    current.append(new PrintString(Long.toString(nodeIntLit.getIntLit().getValue())));
+                } else if (nodeBuiltInFunc.getStmt().getExpr().getType() == TokenType.ident) {
+                    current.append(new Print(readIdent((NodeIdent) nodeBuiltInFunc.getStmt())));
+                }
+            }
+            case BuiltInFunc.read -> {
+                NodeIdent nodeIdent = (NodeIdent) nodeBuiltInFunc.getStmt();
+                readIdent(nodeIdent);
+                Read read = new Read();
+                current.append(read);
+                writeVariable(nodeIdent.getId(), current, read);
+            }
+            }
+        }
+        case null, default -> throw new IllegalArgumentException("Unknown statement type in lowering");
+        }
+    }
+
+    private void lowerScope(NodeScope nodeScope) throws TokenError {
+        scopes.push(new ArrayList<>());
+        for (NodeStatement statement : nodeScope.getStmts()) {
+            lowerStatement(statement);
+        }
+        scopes.pop().forEach(declared::remove);
+    }
+
+    private void lowerIf(NodeIf nodeIf) throws TokenError {
+        BasicBlock end = new BasicBlock();
+        for (int i = 0; i <= nodeIf.countElif(); i++) {
+            NodeExpression condition = i == 0 ? nodeIf.getStmt() : nodeIf.getNthScopeElif(i - 1).getStmt();
+            NodeScope scope = i == 0 ? nodeIf.getIfScope() : nodeIf.getNthScopeElif(i - 1).getScope();
+            BasicBlock then = new BasicBlock();
+            BasicBlock next = new BasicBlock();
+            lowerCondition(condition, then, next);
+            start(then);
+            seal(then);
+            lowerScope(scope);
+            current.terminate(new Jump(end));
+            start(next);
+            seal(next);
+        }
+        if (nodeIf.hasElse()) {
+            lowerScope(nodeIf.getScopeElse());
+        }
+        current.terminate(new Jump(end));
+        start(end);
+        seal(end);
+    }
+
+    /**
+     * Lowers a loop rotated into a do-while guarded by its condition: the body is sealed only once the condition at its
+     * end jumps back to it, the variables it reads before assigning get a phi
+     */
+    private void lowerWhile(NodeWhile nodeWhile) throws TokenError {
+        BasicBlock body = new BasicBlock();
+        BasicBlock end = new BasicBlock();
+        lowerCondition(nodeWhile.getStmt(), body, end);
+        start(body);
+        lowerScope(nodeWhile.getScope());
+        lowerCondition(nodeWhile.getStmt(), body, end);
+        seal(body);
+        start(end);
+        seal(end);
+    }
+
+    /**
+     * Lowers a condition to branches that end the current block. A comparison is a single branch, an &amp; or a | of
+     * comparisons branches as soon as one operand decides it, the other one is not evaluated. Any other expression is
+     * compared with 0
+     *
+     * @param expr
+     *            the condition
+     * @param ifTrue
+     *            where control goes if the condition is not 0
+     * @param ifFalse
+     *            where control goes if it is 0
+     */
+    private void lowerCondition(NodeExpression expr, BasicBlock ifTrue, BasicBlock ifFalse) throws TokenError {
+        if (unwrap(expr) instanceof NodeBin nodeBin && isComparison(nodeBin.getType())) {
+            Value left = lowerExpression(nodeBin.getLeft());
+            Value right = lowerExpression(nodeBin.getRight());
+            current.terminate(new Branch(nodeBin.getType(), left, right, ifTrue, ifFalse));
+        } else if (unwrap(expr) instanceof NodeBin nodeBin && isBoolean(nodeBin)) {
+            BasicBlock next = new BasicBlock();
+            if (nodeBin.getType() == BinType.And) {
+                lowerCondition(nodeBin.getLeft(), next, ifFalse);
+            } else {
+                lowerCondition(nodeBin.getLeft(), ifTrue, next);
+            }
+            start(next);
+            seal(next);
+            lowerCondition(nodeBin.getRight(), ifTrue, ifFalse);
+        } else {
+            Value value = lowerExpression(expr);
+            current.terminate(new Branch(BinType.NotEq, value, cfg.constant(0), ifTrue, ifFalse));
+        }
+    }
+
+    private Value lowerExpression(NodeExpression expr) throws TokenError {
+        return switch (expr) {
+        case NodeIntLit nodeIntLit -> cfg.constant(nodeIntLit.getIntLit().getValue());
+        case NodeIdent nodeIdent -> readIdent(nodeIdent);
+        case NodeTermParen nodeTermParen -> lowerExpression(nodeTermParen.getExprParen());
+        case NodeBin nodeBin -> {
+            Value left = lowerExpression(nodeBin.getLeft());
+            Value right = lowerExpression(nodeBin.getRight());
+            Binary binary = new Binary(nodeBin.getType(), left, right);
+            current.append(binary);
+            yield binary;
+        }
+        case null, default -> throw new IllegalArgumentException("Unknown expression type in lowering");
+        };
+    }
+
+    private Value readIdent(NodeIdent nodeIdent) throws TokenError {
+        if (nodeIdent.getId() == declaring) {
+            throw error("Variable might not have been initialized: ", nodeIdent.getIdent());
+        }
+        if (!declared.contains(nodeIdent.getId())) {
+            throw error("Undeclared Identifier: ", nodeIdent.getIdent());
+        }
+        return readVariable(nodeIdent.getId(), current);
+    }
+
+    private void writeVariable(int id, BasicBlock block, Value value) {
+        definitions.computeIfAbsent(block, b -> new HashMap<>()).put(id, value);
+    }
+
+    private Value readVariable(int id, BasicBlock block) {
+        Map<Integer, Value> defined = definitions.get(block);
+        if (defined != null && defined.containsKey(id)) {
+            return resolve(defined.get(id));
+        }
+        Value value;
+        if (!sealed.contains(block)) {
+            Phi phi = new Phi();
+            block.addPhi(phi);
+            incomplete.computeIfAbsent(block, b -> new HashMap<>()).put(id, phi);
+            value = phi;
+        } else if (block.getPredecessors().size() == 1) {
+            value = readVariable(id, block.getPredecessors().getFirst());
+        } else if (block.getPredecessors().isEmpty()) {
+            // unreachable code, the block is removed
+            value = cfg.constant(0);
+        } else {
+            Phi phi = new Phi();
+            block.addPhi(phi);
+            // breaks the cycles through the loops
+            writeVariable(id, block, phi);
+            value = addOperands(id, phi);
+        }
+        writeVariable(id, block, value);
+        return resolve(value);
+    }
+
+    private Value addOperands(int id, Phi phi) {
+        for (BasicBlock predecessor : phi.getBlock().getPredecessors()) {
+            phi.addOperand(readVariable(id, predecessor));
+        }
+        return removeTrivial(phi);
+    }
+
+    /**
+     * Removes a phi whose operands are all the same value or the phi itself, then the phis that used it and became
+     * trivial
+     *
+     * @return the value that replaces the phi, the phi itself if it is not trivial
+     */
+    private Value removeTrivial(Phi phi) {
+        Value same = null;
+        for (Value operand : phi.getOperands()) {
+            if (operand == same || operand == phi) {
+                continue;
+            }
+            if (same != null) {
+                return phi;
+            }
+            same = operand;
+        }
+        if (same == null) {
+            same = cfg.constant(0);
+        }
+        List<Instruction> users = new ArrayList<>(phi.getUsers());
+        phi.replaceAllUsesWith(same);
+        phi.getBlock().removePhi(phi);
+        phi.detach();
+        replaced.put(phi, same);
+        for (Instruction user : users) {
+            if (user instanceof Phi userPhi && user != phi && !replaced.containsKey(userPhi)) {
+                removeTrivial(userPhi);
+            }
+        }
+        return resolve(same);
+    }
+
+    private Value resolve(Value value) {
+        while (value instanceof Phi phi && replaced.containsKey(phi)) {
+            value = replaced.get(phi);
+        }
+        return value;
+    }
+
+    /**
+     * Completes the phis of a block once all its predecessors are known
+     */
+    private void seal(BasicBlock block) {
+        Map<Integer, Phi> phis = incomplete.remove(block);
+        if (phis != null) {
+            for (Map.Entry<Integer, Phi> entry : phis.entrySet()) {
+                addOperands(entry.getKey(), entry.getValue());
+            }
+        }
+        sealed.add(block);
+    }
+
+    private void start(BasicBlock block) {
+        cfg.add(block);
+        current = block;
+    }
+
+    /**
+     * Removes the blocks after an exit that no path from the entry reaches, and the operands of the phis that come from
+     * them
+     */
+    private void removeUnreachable() {
+        Set<BasicBlock> reachable = new HashSet<>();
+        Deque<BasicBlock> work = new ArrayDeque<>();
+        work.push(cfg.getEntry());
+        while (!work.isEmpty()) {
+            BasicBlock block = work.pop();
+            if (reachable.add(block)) {
+                block.getSuccessors().forEach(work::push);
+            }
+        }
+        for (BasicBlock block : List.copyOf(cfg.getBlocks())) {
+            if (!reachable.contains(block)) {
+                block.getPhis().forEach(Instruction::detach);
+                block.getInstructions().forEach(Instruction::detach);
+                block.getTerminator().detach();
+                cfg.remove(block);
+            }
+        }
+        for (BasicBlock block : cfg.getBlocks()) {
+            for (int i = block.getPredecessors().size() - 1; i >= 0; i--) {
+                if (!reachable.contains(block.getPredecessors().get(i))) {
+                    block.removePredecessor(i);
+                }
+            }
+            for (Phi phi : List.copyOf(block.getPhis())) {
+                if (!replaced.containsKey(phi)) {
+                    removeTrivial(phi);
+                }
+            }
+        }
+    }
+
+    private static NodeExpression unwrap(NodeExpression expr) {
+        while (expr instanceof NodeTermParen nodeTermParen) {
+            expr = nodeTermParen.getExprParen();
+        }
+        return expr;
+    }
+
+    private static boolean isComparison(BinType type) {
+        return switch (type) {
+        case Eq, NotEq, GT, LT, GE, LE -> true;
+        default -> false;
+        };
+    }
+
+    /**
+     * @return if the expression is always 0 or 1: a comparison, or an &amp; or a | of such expressions
+     */
+    private static boolean isBoolean(NodeExpression expr) {
+        if (!(unwrap(expr) instanceof NodeBin nodeBin)) {
+            return false;
+        }
+        return switch (nodeBin.getType()) {
+        case Eq, NotEq, GT, LT, GE, LE -> true;
+        case And, Or -> isBoolean(nodeBin.getLeft()) && isBoolean(nodeBin.getRight());
+        default -> false;
+        };
+    }
+
+    private static TokenError error(String message, TokenIdent ident) {
+        return new TokenError(message + ident.getName(), ident.getLine(), ident.getColumnStart(), ident.getColumnEnd());
+    }
+}
@@ -0,0 +1,343 @@
+package org.compiler.ir;
+
+import org.compiler.AsmEmitter;
+import org.compiler.AsmRuntime;
+import org.compiler.nodes.expressions.binary_expressions.BinType;
+
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates the assembly code of a control-flow graph in SSA form. The values live in the registers and the stack slots
+ * the RegisterAllocator gives them, the stack slots are addressed from rbp. A phi is assigned at the end of each
+ * predecessor of its block, all the phis of the block at once, after the critical edges have been split.
+ * <p>
+ * The program around the blocks, the data section and the builtins, comes from the same AsmRuntime as the Generator.
+ */
+public final class NasmBackend {
+    private final Cfg cfg;
+    private final AsmEmitter out;
+    private final AsmRuntime runtime;
+    private final RegisterAllocator allocator;
+    private final String generated;
+
+    public NasmBackend(Cfg cfg) {
+        this(cfg, new AsmEmitter());
+    }
+
+    /**
+     * Generates the assembly of a control-flow graph writing it to a channel, getGenerated() is not available
+     *
+     * @param cfg
+     *            the control-flow graph to generate
+     * @param channel
+     *            where the assembly is written, it is not closed
+     */
+    public NasmBackend(Cfg cfg, WritableByteChannel channel) {
+        this(cfg, new AsmEmitter(channel));
+    }
+
+    /**
+     * Generates the assembly of a control-flow graph, its critical edges are split
+     *
+     * @param cfg
+     *            the control-flow graph to generate
+     * @param out
+     *            where the assembly is emitted
+     */
+    public NasmBackend(Cfg cfg, AsmEmitter out) {
+        this.cfg = cfg;
+        this.out = out;
+        this.runtime = new AsmRuntime(out);
+        cfg.splitCriticalEdges();
+        this.allocator = new RegisterAllocator(cfg);
+        runtime.begin(cfg.getBlocks().stream().flatMap(block -> block.getInstructions().stream())
+                .anyMatch(instruction -> instruction instanceof Print || instruction instanceof PrintString));
+        if (allocator.getSlots() > 0) {
+            mov("rbp", "rsp");
+            out.append("     sub rsp, ").append(allocator.getSlots() * 8L).append("\n\n");
+        }
+        List<BasicBlock> blocks = cfg.getBlocks();
+        for (int i = 0; i < blocks.size(); i++) {
+            generateBlock(blocks.get(i), i + 1 < blocks.size() ? blocks.get(i + 1) : null);
+        }
+        generated = runtime.end();
+    }
+
+    private void generateBlock(BasicBlock block, BasicBlock next) {
+        out.append(block.getName()).append(":\n");
+        for (Instruction instruction : block.getInstructions()) {
+            generateInstruction(instruction);
+        }
+        for (BasicBlock successor : block.getSuccessors()) {
+            if (!successor.getPhis().isEmpty()) {
+                assignPhis(block, successor);
+            }
+        }
+        switch (block.getTerminator()) {
+        case Jump jump -> {
+            if (jump.getTarget() != next) {
+                out.append("     jmp ").append(jump.getTarget().getName()).append("\n");
+            }
+        }
+        case Branch branch -> {
+            compare(branch.getLeft(), branch.getRight());
+            BinType comparison = branch.getComparison();
+            if (branch.getIfTrue() == next) {
+                jump(negate(comparison), branch.getIfFalse());
+            } else {
+                jump(comparison, branch.getIfTrue());
+                if (branch.getIfFalse() != next) {
+                    out.append("     jmp ").append(branch.getIfFalse().getName()).append("\n");
+                }
+            }
+        }
+        case Exit exit -> {
+            out.append("     ;;exit\n");
+            runtime.flushOutput();
+            load("rdi", exit.getCode());
+            mov("rax", "60");
+            out.append("     syscall\n");
+            out.append("     ;;/exit\n");
+        }
+        default -> throw new IllegalArgumentException("Unknown terminator type in backend");
+        }
+        out.append("\n");
+    }
+
+    private void generateInstruction(Instruction instruction) {
+        switch (instruction) {
+        case Binary binary -> generateBinary(binary);
+        case Print print -> {
+            load("rax", print.getValue());
+            runtime.printNumber();
+        }
+        case PrintString printString -> runtime.printString(printString.getText());
+        case Read read -> {
+            runtime.read();
+            mov(location(read), "rax");
+            out.append("     ;;/read\n\n");
+        }
+        default -> throw new IllegalArgumentException("Unknown instruction type in backend");
+        }
+    }
+
+    private void generateBinary(Binary binary) {
+        String dst = location(binary);
+        Value left = binary.getLeft();
+        Value right = binary.getRight();
+        switch (binary.getType()) {
+        case Add, Sub, And, Or, Multi -> {
+            boolean commutative = binary.getType() != BinType.Sub;
+            if (commutative && dst.equals(location(right)) && !dst.equals(location(left))) {
+                Value swap = left;
+                left = right;
+                right = swap;
+            }
+            // the operation is done where the value goes, unless it is in memory or it is the right operand
+            String target = isMemory(dst) || dst.equals(location(right)) ? "rax" : dst;
+            load(target, left);
+            String src = operand(right, "rcx");
+            out.append("     ").append(mnemonic(binary.getType())).append(" ").append(target).append(", ").append(src)
+                    .append("\n");
+            if (!target.equals(dst)) {
+                mov(dst, target);
+            }
+        }
+        case Div, Mod -> {
+            load("rax", left);
+            out.append("     cqo\n");
+            String divisor = location(right);
+            if (right instanceof Constant) {
+                mov("rcx", divisor);
+                divisor = "rcx";
+            }
+            out.append("     idiv ").append(divisor).append("\n");
+            mov(dst, binary.getType() == BinType.Div ? "rax" : "rdx");
+        }
+        default -> {
+            compare(left, right);
+            out.append("     set").append(condition(binary.getType())).append(" al\n");
+            if (isMemory(dst)) {
+                out.append("     movzx rax, al\n");
+                mov(dst, "rax");
+            } else {
+                out.append("     movzx ").append(dst).append(", al\n");
+            }
+        }
+        }
+    }
+
+    /**
+     * Compares two values setting the flags for a jcc or a setcc, the left one is loaded in rax if it is a constant or
+     * if both are in memory
+     */
+    private void compare(Value left, Value right) {
+        String dst = location(left);
+        if (left instanceof Constant || isMemory(dst) && isMemory(location(right))) {
+            load("rax", left);
+            dst = "rax";
+        }
+        String src = operand(right, "rcx");
+        out.append("     cmp ").append(dst).append(", ").append(src).append("\n");
+    }
+
+    /**
+     * Assigns the phis of a block on the edge from one of its predecessors. The copies are a parallel move: each one is
+     * emitted once no other pending copy reads its destination, a cycle is broken through r11
+     */
+    private void assignPhis(BasicBlock predecessor, BasicBlock block) {
+        int index = block.getPredecessors().indexOf(predecessor);
+        List<String> dsts = new ArrayList<>();
+        List<String> srcs = new ArrayList<>();
+        for (Phi phi : block.getPhis()) {
+            String dst = location(phi);
+            String src = location(phi.getIncoming(index));
+            if (!dst.equals(src)) {
+                dsts.add(dst);
+                srcs.add(src);
+            }
+        }
+        while (!dsts.isEmpty()) {
+            int ready = -1;
+            for (int i = 0; i < dsts.size() && ready < 0; i++) {
+                if (!srcs.contains(dsts.get(i))) {
+                    ready = i;
+                }
+            }
+            if (ready < 0) {
+                String saved = dsts.getFirst();
+                mov("r11", saved);
+                srcs.replaceAll(src -> src.equals(saved) ? "r11" : src);
+                continue;
+            }
+            move(dsts.remove(ready), srcs.remove(ready));
+        }
+    }
+
+    /**
+     * Moves a location or a constant to a location, through rax if both are in memory or if the constant does not fit
+     * in an immediate
+     */
+    private void move(String dst, String src) {
+        if (isMemory(dst) && (isMemory(src) || isWide(src))) {
+            mov("rax", src);
+            mov(dst, "rax");
+        } else {
+            mov(dst, src);
+        }
+    }
+
+    /**
+     * Loads a value in a register
+     */
+    private void load(String register, Value value) {
+        String src = location(value);
+        if (!register.equals(src)) {
+            mov(register, src);
+        }
+    }
+
+    /**
+     * @return the value as the source operand of an instruction: a register, a stack slot or an immediate, a constant
+     *         that does not fit in 32 bits is loaded in a scratch register
+     */
+    private String operand(Value value, String scratch) {
+        String src = location(value);
+        if (isWide(src)) {
+            mov(scratch, src);
+            return scratch;
+        }
+        return src;
+    }
+
+    private String location(Value value) {
+        return switch (value) {
+        case Constant constant -> Long.toString(constant.getValue());
+        case Instruction instruction -> allocator.locationOf(instruction);
+        default -> throw new IllegalArgumentException("Unknown value type in backend");
+        };
+    }
+
+    private static boolean isMemory(String location) {
+        return location.startsWith("QWORD");
+    }
+
+    /**
+     * @return if a location is a constant that is not a sign extended 32 bit immediate
+     */
+    private static boolean isWide(String location) {
+        if (location.isEmpty() || !(Character.isDigit(location.charAt(0)) || location.charAt(0) == '-')) {
+            return false;
+        }
+        long value = Long.parseLong(location);
+        return value != (int) value;
+    }
+
+    private void jump(BinType comparison, BasicBlock target) {
+        out.append("     j").append(condition(comparison)).append(" ").append(target.getName()).append("\n");
+    }
+
+    private static String mnemonic(BinType type) {
+        return switch (type) {
+        case Add -> "add";
+        case Sub -> "sub";
+        case And -> "and";
+        case Or -> "or";
+        case Multi -> "imul";
+        default -> throw new IllegalArgumentException("Not a two operand instruction: " + type);
+        };
+    }
+
+    private static String condition(BinType type) {
+        return switch (type) {
+        case Eq -> "e";
+        case NotEq -> "ne";
+        case GT -> "g";
+        case LT -> "l";
+        case GE -> "ge";
+        case LE -> "le";
+        default -> throw new IllegalArgumentException("Not a comparison: " + type);
+        };
+    }
+
+    /**
+     * @return the comparison that is true when the given one is false
+     */
+    private static BinType negate(BinType type) {
+        return switch (type) {
+        case Eq -> BinType.NotEq;
+        case NotEq -> BinType.Eq;
+        case GT -> BinType.LE;
+        case LT -> BinType.GE;
+        case GE -> BinType.LT;
+        case LE -> BinType.GT;
+        default -> throw new IllegalArgumentException("Not a comparison: " + type);
+        };
+    }
+
+    private void mov(String dst, String src) {
+        out.append("     mov ").append(dst).append(", ").append(src).append("\n");
+    }
+
+    /**
+     * @return the control-flow graph the assembly has been generated from, with its critical edges split
+     */
+    public Cfg getCfg() {
+        return cfg;
+    }
+
+    /**
+     * @return the generated assembly
+     *
+     * @throws IllegalStateException
+     *             if the assembly has been written to a channel
+     */
+    public String getGenerated() {
+        if (generated == null) {
+            throw new IllegalStateException("The assembly has been written to a channel");
+        }
+        return generated;
+    }
+}
@@ -0,0 +1,25 @@
+package org.compiler.ir;
+
+/**
+ * Selects a value depending on the predecessor the block has been entered from: the operand at index i comes from the
+ * predecessor at index i
+ */
+public final class Phi extends Instruction {
+    Phi() {
+    }
+
+    /**
+     * @param predecessor
+     *            the index of a predecessor of the block
+     *
+     * @return the value the phi has when the block is entered from it
+     */
+    public Value getIncoming(int predecessor) {
+        return getOperand(predecessor);
+    }
+
+    @Override
+    public boolean hasValue() {
+        return true;
+    }
+}
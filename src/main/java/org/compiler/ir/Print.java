@@ -0,0 +1,19 @@
+package org.compiler.ir;
+
+/**
+ * Prints a number followed by a newline, the builtin print() of a variable
+ */
+public final class Print extends Instruction {
+    Print(Value value) {
+        super(value);
+    }
+
+    public Value getValue() {
+        return getOperand(0);
+    }
+
+    @Override
+    public boolean hasValue() {
+        return false;
+    }
+}
@@ -0,0 +1,21 @@
+package org.compiler.ir;
+
+/**
+ * Prints a text known at compile time followed by a newline, the builtin print() of a literal
+ */
+public final class PrintString extends Instruction {
+    private final String text;
+
+    PrintString(String text) {
+        this.text = text;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public boolean hasValue() {
+        return false;
+    }
+}
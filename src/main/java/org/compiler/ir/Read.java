@@ -0,0 +1,14 @@
+package org.compiler.ir;
+
+/**
+ * Reads a number from the standard input, the builtin read()
+ */
+public final class Read extends Instruction {
+    Read() {
+    }
+
+    @Override
+    public boolean hasValue() {
+        return true;
+    }
+}
@@ -0,0 +1,233 @@
+package org.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Gives every value of a control-flow graph a register or a stack slot with a linear scan over the live ranges of the
+ * values, Poletto and Sarkar, "Linear Scan Register Allocation". The range of a value goes from the first to the last
+ * position it is live at in the layout of the blocks, computed with a liveness analysis of the graph; the range of a
+ * phi includes the end of its predecessors, where it is assigned.
+ * <p>
+ * rax, rcx, rdx and r11 are left to the backend as scratch registers. rbx, rsi and rdi are clobbered by print_number,
+ * atoi and the syscalls, they only hold values that are not live across a builtin.
+ */
+final class RegisterAllocator {
+    /**
+     * The registers the runtime and the syscalls do not modify
+     */
+    private static final String[] PRESERVED = { "r8", "r9", "r10", "r12", "r13", "r14", "r15" };
+    /**
+     * The registers the builtins modify, tried first for the values that do not live across one
+     */
+    private static final String[] CLOBBERED = { "rbx", "rsi", "rdi" };
+    private final Map<Instruction, String> locations = new IdentityHashMap<>();
+    private final Map<Instruction, Integer> position = new IdentityHashMap<>();
+    private final Map<Instruction, Integer> order = new IdentityHashMap<>();
+    private final Map<BasicBlock, Integer> from = new HashMap<>();
+    private final Map<BasicBlock, Integer> to = new HashMap<>();
+    private final TreeSet<Integer> calls = new TreeSet<>();
+    private final Map<Instruction, int[]> ranges = new IdentityHashMap<>();
+    private int slots = 0;
+
+    /**
+     * @param cfg
+     *            the control-flow graph, without critical edges to blocks with phis
+     */
+    RegisterAllocator(Cfg cfg) {
+        number(cfg);
+        Map<BasicBlock, Set<Instruction>> liveIn = new HashMap<>();
+        Map<BasicBlock, Set<Instruction>> liveOut = new HashMap<>();
+        liveness(cfg, liveIn, liveOut);
+        for (BasicBlock block : cfg.getBlocks()) {
+            for (Instruction value : liveIn.get(block)) {
+                extend(value, from.get(block));
+            }
+            for (Instruction value : liveOut.get(block)) {
+                extend(value, to.get(block));
+            }
+            for (Phi phi : block.getPhis()) {
+                extend(phi, from.get(block));
+                for (int i = 0; i < block.getPredecessors().size(); i++) {
+                    int end = to.get(block.getPredecessors().get(i));
+                    extend(phi, end);
+                    if (phi.getIncoming(i) instanceof Instruction operand) {
+                        extend(operand, end);
+                    }
+                }
+            }
+            for (Instruction instruction : block.getInstructions()) {
+                if (instruction.hasValue()) {
+                    extend(instruction, position.get(instruction));
+                }
+                for (Value operand : instruction.getOperands()) {
+                    if (operand instanceof Instruction used) {
+                        extend(used, position.get(instruction));
+                    }
+                }
+            }
+            for (Value operand : block.getTerminator().getOperands()) {
+                if (operand instanceof Instruction used) {
+                    extend(used, to.get(block));
+                }
+            }
+        }
+        scan();
+    }
+
+    /**
+     * @return the register or the stack slot, relative to rbp, of a value
+     */
+    String locationOf(Instruction value) {
+        return locations.get(value);
+    }
+
+    /**
+     * @return the number of stack slots the values spilled to
+     */
+    int getSlots() {
+        return slots;
+    }
+
+    /**
+     * Numbers the positions of the layout: the start of a block, where its phis are defined, then its instructions,
+     * then its terminator, where the phis of its successors are assigned. The builtins are calls
+     */
+    private void number(Cfg cfg) {
+        int counter = 0;
+        for (BasicBlock block : cfg.getBlocks()) {
+            from.put(block, counter++);
+            for (Phi phi : block.getPhis()) {
+                order.put(phi, order.size());
+            }
+            for (Instruction instruction : block.getInstructions()) {
+                order.put(instruction, order.size());
+                if (instruction instanceof Print || instruction instanceof PrintString || instruction instanceof Read) {
+                    calls.add(counter);
+                }
+                position.put(instruction, counter++);
+            }
+            to.put(block, counter++);
+        }
+    }
+
+    /**
+     * Computes the values live at the start and at the end of every block, iterating to a fixed point. A phi is live at
+     * the end of no predecessor, its operands are live at the end of the predecessor they come from
+     */
+    private static void liveness(Cfg cfg, Map<BasicBlock, Set<Instruction>> liveIn,
+            Map<BasicBlock, Set<Instruction>> liveOut) {
+        for (BasicBlock block : cfg.getBlocks()) {
+            liveIn.put(block, new HashSet<>());
+            liveOut.put(block, new HashSet<>());
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : cfg.getBlocks().reversed()) {
+                Set<Instruction> out = new HashSet<>();
+                for (BasicBlock successor : block.getSuccessors()) {
+                    for (Instruction value : liveIn.get(successor)) {
+                        out.add(value);
+                    }
+                    int index = successor.getPredecessors().indexOf(block);
+                    for (Phi phi : successor.getPhis()) {
+                        if (phi.getIncoming(index) instanceof Instruction operand) {
+                            out.add(operand);
+                        }
+                    }
+                }
+                Set<Instruction> in = new HashSet<>(out);
+                uses(block.getTerminator(), in);
+                for (Instruction instruction : block.getInstructions().reversed()) {
+                    in.remove(instruction);
+                    uses(instruction, in);
+                }
+                block.getPhis().forEach(in::remove);
+                if (!out.equals(liveOut.get(block)) || !in.equals(liveIn.get(block))) {
+                    liveOut.put(block, out);
+                    liveIn.put(block, in);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private static void uses(Instruction instruction, Set<Instruction> live) {
+        for (Value operand : instruction.getOperands()) {
+            if (operand instanceof Instruction used) {
+                live.add(used);
+            }
+        }
+    }
+
+    private void extend(Instruction value, int at) {
+        int[] range = ranges.computeIfAbsent(value, v -> new int[] { at, at });
+        range[0] = Math.min(range[0], at);
+        range[1] = Math.max(range[1], at);
+    }
+
+    /**
+     * Visits the ranges by start, a range that ends where another starts can share its register: an instruction reads
+     * its operands before writing its value and the phis are assigned all at once. When no register is free, the value
+     * that is live the longest is spilled. Equal ranges are visited in the order of their definitions, so the assembly
+     * is the same on every run
+     */
+    private void scan() {
+        List<Instruction> values = new ArrayList<>(ranges.keySet());
+        values.sort(Comparator.comparingInt((Instruction value) -> ranges.get(value)[0])
+                .thenComparingInt(value -> ranges.get(value)[1]).thenComparingInt(order::get));
+        List<Instruction> active = new ArrayList<>();
+        Set<String> free = new HashSet<>(List.of(PRESERVED));
+        free.addAll(List.of(CLOBBERED));
+        for (Instruction value : values) {
+            int[] range = ranges.get(value);
+            for (Instruction expired : List.copyOf(active)) {
+                if (ranges.get(expired)[1] <= range[0]) {
+                    active.remove(expired);
+                    free.add(locations.get(expired));
+                }
+            }
+            Integer call = calls.higher(range[0]);
+            List<String> candidates = new ArrayList<>();
+            if (call == null || call >= range[1]) {
+                candidates.addAll(List.of(CLOBBERED));
+            }
+            candidates.addAll(List.of(PRESERVED));
+            String register = candidates.stream().filter(free::contains).findFirst().orElse(null);
+            if (register != null) {
+                free.remove(register);
+                locations.put(value, register);
+                active.add(value);
+                continue;
+            }
+            Instruction victim = null;
+            for (Instruction candidate : active) {
+                if (candidates.contains(locations.get(candidate))
+                        && (victim == null || ranges.get(candidate)[1] > ranges.get(victim)[1])) {
+                    victim = candidate;
+                }
+            }
+            if (victim != null && ranges.get(victim)[1] > range[1]) {
+                locations.put(value, locations.get(victim));
+                locations.put(victim, spill());
+                active.remove(victim);
+                active.add(value);
+            } else {
+                locations.put(value, spill());
+            }
+        }
+    }
+
+    private String spill() {
+        slots++;
+        return "QWORD [rbp - " + slots * 8L + "]";
+    }
+}
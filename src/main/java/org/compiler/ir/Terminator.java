@@ -0,0 +1,24 @@
+package org.compiler.ir;
+
+import java.util.List;
+
+/**
+ * The last instruction of a basic block, the only one that transfers control
+ */
+public abstract class Terminator extends Instruction {
+    Terminator(Value... operands) {
+        super(operands);
+    }
+
+    /**
+     * @return the blocks control can be transferred to, in the order they are tested
+     */
+    public abstract List<BasicBlock> getSuccessors();
+
+    abstract void replaceSuccessor(BasicBlock successor, BasicBlock block);
+
+    @Override
+    public boolean hasValue() {
+        return false;
+    }
+}
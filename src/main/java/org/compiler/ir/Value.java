@@ -0,0 +1,40 @@
+package org.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A value of the intermediate representation: a constant or the result of an instruction. A value knows the
+ * instructions that use it, so it can be replaced everywhere at once
+ */
+public abstract class Value {
+    private final List<Instruction> users = new ArrayList<>();
+
+    /**
+     * @return the instructions that use the value, once per operand
+     */
+    public List<Instruction> getUsers() {
+        return Collections.unmodifiableList(users);
+    }
+
+    /**
+     * Makes every user of this value use another one instead
+     *
+     * @param value
+     *            the replacement
+     */
+    public void replaceAllUsesWith(Value value) {
+        for (Instruction user : new ArrayList<>(users)) {
+            user.replaceOperand(this, value);
+        }
+    }
+
+    void addUser(Instruction user) {
+        users.add(user);
+    }
+
+    void removeUser(Instruction user) {
+        users.remove(user);
+    }
+}
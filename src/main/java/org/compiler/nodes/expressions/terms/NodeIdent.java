@@ -19,6 +19,13 @@ public class NodeIdent extends NodeTerm {
         return (TokenIdent) getExpr();
     }
 
+    /**
+     * @return the interned id of the identifier
+     */
+    public int getId() {
+        return getIdent().getId();
+    }
+
     @Override
     public String toString() {
         return "NodeIdent{" + "expr=" + getExpr() + '}';
@@ -0,0 +1,426 @@
+package org.compiler.peekers;
+
+import org.compiler.token.tokens.TokenComment;
+import org.compiler.token.tokens.TokenString;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.NoSuchElementException;
+
+/**
+ * A cursor over a primitive char array. It is the scanner backend used by the Tokenizer: producing a char does not
+ * allocate, the line and column of the last char returned by next() are kept in primitive fields read through
+ * getCharLine() and getCharColumn().
+ * <p>
+ * The array is either the whole input or a window refilled from a Reader: in the second case only the chars from the
+ * cursor onwards are kept, so memory is bounded by the window and not by the size of the input. Positions are relative
+ * to the window and are shifted when it is compacted, lines and columns stay correct across refills.
+ *
+ * @see PeekIteratorChar
+ */
+public class CharCursor {
+    private static final int DEFAULT_WINDOW = 1 << 16;
+    private final Reader reader;
+    private char[] chars;
+    private int limit;
+    private boolean endOfInput;
+    private int cursor;
+    private int line;
+    private int lastNewline;
+    private int nextNonWhitespace;
+    private boolean exhausted;
+    private int charLine;
+    private int charColumn;
+
+    public CharCursor(String s) {
+        this(s.toCharArray());
+    }
+
+    public CharCursor(char[] chars) {
+        this(null, chars, chars.length);
+    }
+
+    /**
+     * Creates a cursor that reads the input lazily through a window of the default size
+     *
+     * @param reader
+     *            the input, it is not closed by the cursor
+     */
+    public CharCursor(Reader reader) {
+        this(reader, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Creates a cursor that reads the input lazily through a window
+     *
+     * @param reader
+     *            the input, it is not closed by the cursor
+     * @param window
+     *            the initial size of the window, it only grows if a single lookahead does not fit in it
+     */
+    public CharCursor(Reader reader, int window) {
+        this(reader, new char[Math.max(window, 2)], 0);
+    }
+
+    private CharCursor(Reader reader, char[] chars, int limit) {
+        this.reader = reader;
+        this.chars = chars;
+        this.limit = limit;
+        this.endOfInput = reader == null;
+        this.cursor = 0;
+        this.line = 1;
+        this.lastNewline = -1;
+        this.nextNonWhitespace = -1;
+        this.exhausted = false;
+    }
+
+    /**
+     * @return if there is a non-whitespace char left in the input
+     */
+    public boolean hasNext() {
+        if (nextNonWhitespace >= cursor) {
+            return true;
+        }
+        if (exhausted) {
+            return false;
+        }
+        int offset = 0;
+        while (available(offset) && Character.isWhitespace(chars[cursor + offset])) {
+            offset++;
+        }
+        if (!available(offset)) {
+            exhausted = true;
+            return false;
+        }
+        nextNonWhitespace = cursor + offset;
+        return true;
+    }
+
+    /**
+     * Skips the whitespace and returns the next char, its position can be read with getCharLine() and getCharColumn()
+     *
+     * @return the next non-whitespace char
+     *
+     * @throws NoSuchElementException
+     *             if there is no non-whitespace char left
+     */
+    public char next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more characters at line " + line);
+        }
+        while (Character.isWhitespace(chars[cursor])) {
+            consume(chars[cursor]);
+        }
+        charLine = line;
+        charColumn = cursor - lastNewline;
+        return chars[cursor++];
+    }
+
+    /**
+     * @return the line of the last char returned by next()
+     */
+    public int getCharLine() {
+        return charLine;
+    }
+
+    /**
+     * @return the column of the last char returned by next()
+     */
+    public int getCharColumn() {
+        return charColumn;
+    }
+
+    /**
+     * Returns the char under the cursor without moving it, whitespace included. Only valid if hasNext() is true
+     *
+     * @return the char under the cursor
+     */
+    public char peekChar() {
+        return chars[cursor];
+    }
+
+    /**
+     * @return the column of the char under the cursor
+     */
+    public int peekColumn() {
+        return cursor - lastNewline;
+    }
+
+    /**
+     * @param offset
+     *            the offset from the cursor
+     *
+     * @return if there is a char at the offset
+     */
+    public boolean hasPeek(int offset) {
+        return available(offset);
+    }
+
+    /**
+     * @param offset
+     *            the offset from the cursor
+     *
+     * @return the char at the offset, whitespace included
+     */
+    public char peekChar(int offset) {
+        available(offset);
+        return chars[cursor + offset];
+    }
+
+    /**
+     * @param offset
+     *            the offset from the cursor
+     *
+     * @return the line of the char at the offset
+     */
+    public int peekLine(int offset) {
+        int peekLine = line;
+        available(offset);
+        for (int i = cursor; i < cursor + offset; i++) {
+            if (chars[i] == '\n') {
+                peekLine++;
+            }
+        }
+        return peekLine;
+    }
+
+    /**
+     * @param offset
+     *            the offset from the cursor
+     *
+     * @return the column of the char at the offset
+     */
+    public int peekColumn(int offset) {
+        int newline = lastNewline;
+        available(offset);
+        for (int i = cursor; i < cursor + offset; i++) {
+            if (chars[i] == '\n') {
+                newline = i;
+            }
+        }
+        return cursor + offset - newline;
+    }
+
+    /**
+     * @return the current line
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Ignores the comment in the input [at] for a single line comment [at][at] for a multiline comment closed by
+     * [at][at]
+     *
+     * @param commentTerminal
+     *            the comment symbol of the dialect
+     *
+     * @return the comment, null if the input is over
+     *
+     * @throws NoSuchElementException
+     *             if the comment is not closed
+     */
+    public TokenComment ignoreComment(String commentTerminal) {
+        StringBuilder comment = new StringBuilder();
+        if (!scanComment(commentTerminal, comment)) {
+            return null;
+        }
+        boolean multiline = comment.indexOf(commentTerminal) >= 0;
+        return new TokenComment(comment.toString().replace(commentTerminal, ""), multiline);
+    }
+
+    /**
+     * Same as ignoreComment, without building the comment
+     *
+     * @param commentTerminal
+     *            the comment symbol of the dialect
+     *
+     * @throws NoSuchElementException
+     *             if the comment is not closed
+     */
+    public void skipComment(String commentTerminal) {
+        scanComment(commentTerminal, null);
+    }
+
+    /**
+     * Ignores the content in the input
+     *
+     * @param stringTerminal
+     *            the string
+     *
+     * @return the content, null if the input is over
+     */
+    public TokenString ignoreContent(String stringTerminal) {
+        int columnStart = peekColumn();
+        if (!available(0)) {
+            return null;
+        }
+        StringBuilder content = new StringBuilder();
+        Needle terminal = new Needle(stringTerminal);
+        boolean closed = false;
+        while (available(0) && !closed) {
+            char c = chars[cursor];
+            if (c == '\n') {
+                throw new IllegalArgumentException("Multiline string not supported at line " + line);
+            }
+            content.append(c);
+            consume(c);
+            closed = terminal.feed(c);
+        }
+        if (closed) {
+            content.setLength(content.length() - stringTerminal.length());
+        }
+        return new TokenString(content.toString(), line, columnStart, peekColumn() - 2);
+    }
+
+    /**
+     * Moves the cursor past a comment: the first line is always consumed, if it contains the terminal the comment goes
+     * on until the terminal is found twice in a row
+     *
+     * @param commentTerminal
+     *            the comment symbol of the dialect
+     * @param comment
+     *            where the comment is copied to, can be null
+     *
+     * @return false if there was nothing left to read
+     */
+    private boolean scanComment(String commentTerminal, StringBuilder comment) {
+        if (!available(0)) {
+            return false;
+        }
+        Needle single = new Needle(commentTerminal);
+        Needle closing = new Needle(commentTerminal + commentTerminal);
+        boolean multiline = false;
+        boolean closed = false;
+        while (available(0) && chars[cursor] != '\n') {
+            char c = chars[cursor];
+            if (comment != null) {
+                comment.append(c);
+            }
+            multiline |= single.feed(c);
+            closed |= closing.feed(c);
+            consume(c);
+        }
+        if (available(0)) {
+            consume(chars[cursor]);
+        }
+        if (!multiline) {
+            return true;
+        }
+        while (available(0) && !closed) {
+            char c = chars[cursor];
+            if (comment != null) {
+                comment.append(c);
+            }
+            closed = closing.feed(c);
+            consume(c);
+        }
+        if (!closed) {
+            throw new NoSuchElementException("Multiline comment has not been closed at line " + line);
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the char at an offset from the cursor is in the window, refilling it from the reader if needed
+     *
+     * @param offset
+     *            the offset from the cursor
+     *
+     * @return false if the input ends before the offset
+     */
+    private boolean available(int offset) {
+        return cursor + offset < limit || fill(offset);
+    }
+
+    /**
+     * Drops the chars before the cursor from the window and reads from the reader until the offset is in the window.
+     * The window is grown only if the lookahead alone does not fit in it.
+     *
+     * @param offset
+     *            the offset from the cursor that has to be read
+     *
+     * @return false if the input ends before the offset
+     */
+    private boolean fill(int offset) {
+        if (endOfInput) {
+            return false;
+        }
+        if (cursor > 0) {
+            System.arraycopy(chars, cursor, chars, 0, limit - cursor);
+            limit -= cursor;
+            lastNewline -= cursor;
+            nextNonWhitespace -= cursor;
+            cursor = 0;
+        }
+        if (offset + 2 > chars.length) {
+            char[] grown = new char[Math.max(chars.length * 2, offset + 2)];
+            System.arraycopy(chars, 0, grown, 0, limit);
+            chars = grown;
+        }
+        try {
+            while (offset >= limit) {
+                int read = reader.read(chars, limit, chars.length - limit);
+                if (read < 0) {
+                    endOfInput = true;
+                    return false;
+                }
+                limit += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    /**
+     * Moves the cursor over a char, keeping track of lines
+     */
+    private void consume(char c) {
+        if (c == '\n') {
+            line++;
+            lastNewline = cursor;
+        }
+        cursor++;
+    }
+
+    /**
+     * Incremental substring search (Knuth-Morris-Pratt), used to find terminals without building strings
+     */
+    private static final class Needle {
+        private final String pattern;
+        private final int[] failure;
+        private int matched;
+
+        Needle(String pattern) {
+            this.pattern = pattern;
+            this.failure = new int[pattern.length()];
+            for (int i = 1, k = 0; i < pattern.length(); i++) {
+                while (k > 0 && pattern.charAt(i) != pattern.charAt(k)) {
+                    k = failure[k - 1];
+                }
+                if (pattern.charAt(i) == pattern.charAt(k)) {
+                    k++;
+                }
+                failure[i] = k;
+            }
+        }
+
+        /**
+         * @return true once the pattern has been found
+         */
+        boolean feed(char c) {
+            if (matched == pattern.length()) {
+                return true;
+            }
+            while (matched > 0 && c != pattern.charAt(matched)) {
+                matched = failure[matched - 1];
+            }
+            if (c == pattern.charAt(matched)) {
+                matched++;
+            }
+            return matched == pattern.length();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.compiler.peekers;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A Reader over a UTF-8 source file. The file is memory mapped one region at a time and decoded incrementally, so
+ * reading a file never needs a copy of the whole file on the heap. Used together with CharCursor to tokenize big
+ * inputs.
+ *
+ * @see CharCursor
+ */
+public class MappedSourceReader extends Reader {
+    private static final long DEFAULT_REGION = 1 << 24;
+    private final FileChannel channel;
+    private final long size;
+    private final long regionSize;
+    private final CharsetDecoder decoder;
+    private long regionStart;
+    private ByteBuffer region;
+    private boolean flushed;
+    private int pending;
+
+    public MappedSourceReader(Path path) throws IOException {
+        this(path, DEFAULT_REGION);
+    }
+
+    /**
+     * @param path
+     *            the file to read
+     * @param regionSize
+     *            how many bytes of the file are mapped at a time
+     *
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    public MappedSourceReader(Path path, long regionSize) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.regionSize = Math.max(regionSize, 4);
+        this.decoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        this.regionStart = 0;
+        this.region = ByteBuffer.allocate(0);
+        this.flushed = false;
+        this.pending = -1;
+    }
+
+    /**
+     * Decodes chars from the mapped regions. A multibyte sequence cut by the end of a region is left undecoded and the
+     * next region is mapped starting from it.
+     *
+     * @return the number of chars read, -1 at the end of the file
+     *
+     * @throws IOException
+     *             if the file is not valid UTF-8 or cannot be mapped
+     */
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pending >= 0) {
+            cbuf[off] = (char) pending;
+            pending = -1;
+            return 1;
+        }
+        if (len == 1) {
+            // a surrogate pair does not fit in a single char, the low surrogate is kept for the next call
+            char[] pair = new char[2];
+            int read = read(pair, 0, 2);
+            if (read == 2) {
+                pending = pair[1];
+            }
+            cbuf[off] = pair[0];
+            return Math.min(read, 1);
+        }
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (out.position() == off) {
+            if (flushed) {
+                return -1;
+            }
+            boolean last = regionStart + region.limit() >= size;
+            CoderResult result = decoder.decode(region, out, last);
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (result.isUnderflow()) {
+                if (last) {
+                    result = decoder.flush(out);
+                    if (result.isError()) {
+                        result.throwException();
+                    }
+                    flushed = result.isUnderflow();
+                } else {
+                    map(regionStart + region.position());
+                }
+            }
+        }
+        return out.position() - off;
+    }
+
+    /**
+     * Maps the region of the file that starts at the given byte
+     */
+    private void map(long start) throws IOException {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(regionSize, size - start));
+        regionStart = start;
+        region = mapped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
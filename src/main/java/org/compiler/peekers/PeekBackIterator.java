@@ -0,0 +1,29 @@
+package org.compiler.peekers;
+
+/**
+ * A PeekIterator that also allows peeking at the elements already returned
+ *
+ * @param <E>
+ *            the type of elements in the iterator
+ *
+ * @see PeekIteratorToken
+ * @see PeekIteratorTokenStream
+ */
+public interface PeekBackIterator<E> extends PeekIterator<E> {
+    /**
+     * Returns the last element returned by next()
+     *
+     * @return the previous element
+     */
+    E peekPrevious();
+
+    /**
+     * Returns an element already returned by next()
+     *
+     * @param offset
+     *            the offset, 1 is the last element returned
+     *
+     * @return the previous element with the offset
+     */
+    E peekPrevious(int offset);
+}
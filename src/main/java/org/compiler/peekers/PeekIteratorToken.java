@@ -9,7 +9,7 @@ import java.util.List;
  * Token objects and peek at the next Token
  */
 
-public class PeekIteratorToken implements PeekIterator<Token> {
+public class PeekIteratorToken implements PeekBackIterator<Token> {
     private final List<Token> list;
     private int cursor;
 
@@ -70,6 +70,7 @@ public class PeekIteratorToken implements PeekIterator<Token> {
      *
      * @return the previous Token
      */
+    @Override
     public Token peekPrevious() {
         return peekPrevious(1);
     }
@@ -82,6 +83,7 @@ public class PeekIteratorToken implements PeekIterator<Token> {
      *
      * @return the previous Token with the offset
      */
+    @Override
     public Token peekPrevious(int offset) {
         if (cursor - offset < 0) {
             return null;
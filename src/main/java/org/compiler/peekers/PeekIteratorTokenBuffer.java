@@ -0,0 +1,95 @@
+package org.compiler.peekers;
+
+import org.compiler.token.TokenBuffer;
+import org.compiler.token.tokens.Token;
+
+/**
+ * PeekIteratorTokenBuffer is a PeekIterator over the tokens of a TokenBuffer. The token objects are created only when
+ * they are returned, the buffer keeps its primitive arrays
+ *
+ * @see TokenBuffer
+ */
+public class PeekIteratorTokenBuffer implements PeekBackIterator<Token> {
+    private final TokenBuffer buffer;
+    private int cursor;
+
+    public PeekIteratorTokenBuffer(TokenBuffer buffer) {
+        this.buffer = buffer;
+        this.cursor = 0;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return cursor < buffer.size();
+    }
+
+    /**
+     * Returns the next Token consuming it
+     *
+     * @return the next Token
+     */
+    @Override
+    public Token next() {
+        if (!hasNext()) {
+            return null;
+        }
+        return buffer.get(cursor++);
+    }
+
+    /**
+     * Peeks at the next Token
+     *
+     * @return the peeked Token
+     */
+    @Override
+    public Token peek() {
+        return peek(0);
+    }
+
+    /**
+     * Peeks at the next Token with an offset
+     *
+     * @param offset
+     *            the offset
+     *
+     * @return the peeked Token with the offset
+     */
+    @Override
+    public Token peek(int offset) {
+        if (cursor + offset >= buffer.size()) {
+            return null;
+        }
+        return buffer.get(cursor + offset);
+    }
+
+    /**
+     * Peeks at the previous Token
+     *
+     * @return the previous Token
+     */
+    @Override
+    public Token peekPrevious() {
+        return peekPrevious(1);
+    }
+
+    /**
+     * Peeks at the previous Token with an offset
+     *
+     * @param offset
+     *            the offset to peek at
+     *
+     * @return the previous Token with the offset
+     */
+    @Override
+    public Token peekPrevious(int offset) {
+        if (cursor - offset < 0) {
+            return null;
+        }
+        return buffer.get(cursor - offset);
+    }
+
+    @Override
+    public String toString() {
+        return "PeekIteratorTokenBuffer{" + "buffer=" + buffer + ", cursor=" + cursor + '}';
+    }
+}
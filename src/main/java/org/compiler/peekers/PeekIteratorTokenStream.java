@@ -0,0 +1,160 @@
+package org.compiler.peekers;
+
+import org.compiler.errors.TokenError;
+import org.compiler.errors.UncheckedTokenError;
+import org.compiler.token.TokenSource;
+import org.compiler.token.tokens.Token;
+
+/**
+ * PeekIteratorTokenStream is a PeekIterator over tokens pulled on demand from a TokenSource. Only a bounded window of
+ * tokens is kept in a ring buffer: the last returned one, for peekPrevious(), and the lookahead, so memory does not
+ * depend on the size of the input. Errors of the source are thrown as UncheckedTokenError.
+ *
+ * @see PeekIteratorToken
+ * @see org.compiler.token.Tokenizer#streaming(java.io.Reader, String)
+ */
+public class PeekIteratorTokenStream implements PeekBackIterator<Token> {
+    private static final int DEFAULT_LOOKAHEAD = 1;
+    private static final int HISTORY = 1;
+    private final TokenSource source;
+    private final int lookahead;
+    private final Token[] ring;
+    private final int mask;
+    private long cursor;
+    private long end;
+    private boolean exhausted;
+
+    public PeekIteratorTokenStream(TokenSource source) {
+        this(source, DEFAULT_LOOKAHEAD);
+    }
+
+    /**
+     * @param source
+     *            where the tokens are pulled from
+     * @param lookahead
+     *            the greatest offset that can be passed to peek(offset)
+     */
+    public PeekIteratorTokenStream(TokenSource source, int lookahead) {
+        if (lookahead < 0) {
+            throw new IllegalArgumentException("Lookahead must not be negative: " + lookahead);
+        }
+        this.source = source;
+        this.lookahead = lookahead;
+        int capacity = Integer.highestOneBit(HISTORY + lookahead + 1);
+        if (capacity < HISTORY + lookahead + 1) {
+            capacity <<= 1;
+        }
+        this.ring = new Token[capacity];
+        this.mask = capacity - 1;
+        this.cursor = 0;
+        this.end = 0;
+        this.exhausted = false;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return available(0);
+    }
+
+    /**
+     * Returns the next Token consuming it
+     *
+     * @return the next Token
+     */
+    @Override
+    public Token next() {
+        if (!available(0)) {
+            return null;
+        }
+        return ring[(int) (cursor++ & mask)];
+    }
+
+    /**
+     * Peeks at the next Token
+     *
+     * @return the peeked Token
+     */
+    @Override
+    public Token peek() {
+        return peek(0);
+    }
+
+    /**
+     * Peeks at the next Token with an offset
+     *
+     * @param offset
+     *            the offset, at most the lookahead of the stream
+     *
+     * @return the peeked Token with the offset
+     */
+    @Override
+    public Token peek(int offset) {
+        if (offset > lookahead) {
+            throw new IllegalArgumentException("Offset " + offset + " exceeds the lookahead " + lookahead);
+        }
+        if (!available(offset)) {
+            return null;
+        }
+        return ring[(int) ((cursor + offset) & mask)];
+    }
+
+    /**
+     * Peeks at the previous Token
+     *
+     * @return the previous Token
+     */
+    @Override
+    public Token peekPrevious() {
+        return peekPrevious(1);
+    }
+
+    /**
+     * Peeks at the previous Token with an offset
+     *
+     * @param offset
+     *            the offset to peek at, only the last Token is kept
+     *
+     * @return the previous Token with the offset
+     */
+    @Override
+    public Token peekPrevious(int offset) {
+        if (offset > HISTORY) {
+            throw new IllegalArgumentException("Offset " + offset + " exceeds the history " + HISTORY);
+        }
+        if (cursor - offset < 0) {
+            return null;
+        }
+        return ring[(int) ((cursor - offset) & mask)];
+    }
+
+    /**
+     * Pulls tokens from the source until the one at the offset is in the buffer
+     *
+     * @param offset
+     *            the offset from the cursor
+     *
+     * @return false if the source ends before the offset
+     */
+    private boolean available(int offset) {
+        while (end <= cursor + offset && !exhausted) {
+            Token token;
+            try {
+                token = source.nextToken();
+            } catch (TokenError e) {
+                throw new UncheckedTokenError(e);
+            }
+            if (token == null) {
+                exhausted = true;
+            } else {
+                ring[(int) (end++ & mask)] = token;
+            }
+        }
+        return cursor + offset < end;
+    }
+
+    @Override
+    public String toString() {
+        return "PeekIteratorTokenStream{" + "cursor=" + cursor + ", buffered=" + (end - cursor) + ", exhausted="
+                + exhausted + '}';
+    }
+}
@@ -0,0 +1,112 @@
+package org.compiler.token;
+
+import java.util.Arrays;
+
+/**
+ * Gives every distinct identifier name a dense int id, starting from 0. The Tokenizer interns the names while lexing,
+ * the id travels with the TokenIdent through the Parser to the Generator, that resolves variables with arrays indexed
+ * by id instead of hashing names.
+ * <p>
+ * Names are looked up straight from the CharSequence being lexed: a String is created only the first time a name is
+ * seen.
+ */
+public final class Interner {
+    private static final int EMPTY = -1;
+    private String[] names;
+    private int[] hashes;
+    private int[] table;
+    private int size;
+
+    public Interner() {
+        names = new String[16];
+        hashes = new int[16];
+        table = new int[32];
+        Arrays.fill(table, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Returns the id of a name, giving it the next id if it is new
+     *
+     * @param name
+     *            the name, it is copied only if it is new
+     *
+     * @return the id of the name
+     */
+    public int intern(CharSequence name) {
+        int hash = hash(name);
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != EMPTY) {
+            int id = table[slot];
+            if (hashes[id] == hash && names[id].contentEquals(name)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int id = size++;
+        if (id == names.length) {
+            names = Arrays.copyOf(names, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        names[id] = name.toString();
+        hashes[id] = hash;
+        table[slot] = id;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * @param id
+     *            an id given by intern()
+     *
+     * @return the name with the id
+     */
+    public String getName(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Identifier id " + id + " out of " + size);
+        }
+        return names[id];
+    }
+
+    /**
+     * @return the number of distinct names, the ids go from 0 to this number
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Doubles the table, the ids do not change
+     */
+    private void rehash() {
+        table = new int[table.length * 2];
+        Arrays.fill(table, EMPTY);
+        int mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (table[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id;
+        }
+    }
+
+    /**
+     * Same hash as String, with the high bits spread over the low ones used by the table
+     */
+    private static int hash(CharSequence name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            h = 31 * h + name.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        return "Interner{" + "names=" + Arrays.toString(Arrays.copyOf(names, size)) + '}';
+    }
+}
@@ -0,0 +1,297 @@
+package org.compiler.token;
+
+import org.compiler.token.tokens.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Stores tokens as parallel primitive arrays instead of one object per token: the type ordinal, the position and a
+ * value that is the number of an integer literal, the id of an identifier or the index of the text of a string or a
+ * comment. Identifiers are interned, every occurrence of a name has the same id.
+ * <p>
+ * Tokens are read through a flyweight View, or materialised one at a time with get(), for example by
+ * PeekIteratorTokenBuffer for the Parser.
+ *
+ * @see Tokenizer#toTokenBuffer(java.io.Reader, String, boolean)
+ */
+public final class TokenBuffer implements TokenSink {
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final int INITIAL_CAPACITY = 256;
+    private byte[] types;
+    private int[] lines;
+    private int[] columnStarts;
+    private int[] columnEnds;
+    private long[] values;
+    private int size;
+    private final Interner interner;
+    private final ArrayList<String> texts = new ArrayList<>();
+    private final BitSet multiline = new BitSet();
+
+    public TokenBuffer() {
+        this(new Interner());
+    }
+
+    /**
+     * @param interner
+     *            the interner that gives the ids of the identifiers
+     */
+    public TokenBuffer(Interner interner) {
+        this.interner = interner;
+        types = new byte[INITIAL_CAPACITY];
+        lines = new int[INITIAL_CAPACITY];
+        columnStarts = new int[INITIAL_CAPACITY];
+        columnEnds = new int[INITIAL_CAPACITY];
+        values = new long[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Copies a list of tokens into a buffer
+     *
+     * @param tokens
+     *            the tokens to copy
+     *
+     * @return the buffer
+     */
+    public static TokenBuffer of(List<Token> tokens) {
+        TokenBuffer buffer = new TokenBuffer();
+        for (Token token : tokens) {
+            buffer.add(token);
+        }
+        return buffer;
+    }
+
+    /**
+     * Adds a token, its fields are copied
+     *
+     * @param token
+     *            the token to add
+     */
+    public void add(Token token) {
+        switch (token) {
+        case TokenIntLit intLit -> addIntLit(intLit.getValue(), token.getLine(), token.getColumnStart(),
+                token.getColumnEnd());
+        case TokenIdent ident -> addIdent(ident.getName(), token.getLine(), token.getColumnStart(),
+                token.getColumnEnd());
+        case TokenString string -> addString(string.getContent(), token.getLine(), token.getColumnStart(),
+                token.getColumnEnd());
+        case TokenComment comment -> addComment(comment.getComment(), comment.isMultiline());
+        default -> add(token.getType(), token.getLine(), token.getColumnStart(), token.getColumnEnd());
+        }
+    }
+
+    @Override
+    public void add(TokenType type, int line, int column_start, int column_end) {
+        append(type, line, column_start, column_end, 0);
+    }
+
+    @Override
+    public void addIntLit(long value, int line, int column_start, int column_end) {
+        append(TokenType.int_lit, line, column_start, column_end, value);
+    }
+
+    @Override
+    public void addIdent(CharSequence name, int line, int column_start, int column_end) {
+        append(TokenType.ident, line, column_start, column_end, interner.intern(name));
+    }
+
+    @Override
+    public void addString(String content, int line, int column_start, int column_end) {
+        append(TokenType.string_lit, line, column_start, column_end, texts.size());
+        texts.add(content);
+    }
+
+    @Override
+    public void addComment(String comment, boolean multiline) {
+        if (multiline) {
+            this.multiline.set(size);
+        }
+        append(TokenType.comment, -1, -1, -1, texts.size());
+        texts.add(comment);
+    }
+
+    private void append(TokenType type, int line, int column_start, int column_end, long value) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            columnStarts = Arrays.copyOf(columnStarts, capacity);
+            columnEnds = Arrays.copyOf(columnEnds, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        types[size] = (byte) type.ordinal();
+        lines[size] = line;
+        columnStarts[size] = column_start;
+        columnEnds[size] = column_end;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * @return the number of tokens
+     */
+    public int size() {
+        return size;
+    }
+
+    public TokenType getType(int index) {
+        return TYPES[types[index]];
+    }
+
+    public int getLine(int index) {
+        return lines[index];
+    }
+
+    public int getColumnStart(int index) {
+        return columnStarts[index];
+    }
+
+    public int getColumnEnd(int index) {
+        return columnEnds[index];
+    }
+
+    /**
+     * @return the number of an integer literal, the id of an identifier or the index of a text
+     */
+    public long getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return the name of the identifier
+     */
+    public String getName(int index) {
+        return interner.getName((int) values[index]);
+    }
+
+    /**
+     * @return the content of a string or the text of a comment
+     */
+    public String getText(int index) {
+        return texts.get((int) values[index]);
+    }
+
+    public boolean isMultiline(int index) {
+        return multiline.get(index);
+    }
+
+    /**
+     * @return the interner of the identifiers, getValue() of an identifier is its id
+     */
+    public Interner getInterner() {
+        return interner;
+    }
+
+    /**
+     * Creates the token object of a position, the buffer does not keep it
+     *
+     * @param index
+     *            the position of the token
+     *
+     * @return the token
+     */
+    public Token get(int index) {
+        int line = lines[index];
+        int columnStart = columnStarts[index];
+        int columnEnd = columnEnds[index];
+        return switch (getType(index)) {
+        case int_lit -> new TokenIntLit(values[index], line, columnStart, columnEnd);
+        case ident -> new TokenIdent(getName(index), (int) values[index], line, columnStart, columnEnd);
+        case string_lit -> new TokenString(getText(index), line, columnStart, columnEnd);
+        case comment -> new TokenComment(getText(index), isMultiline(index));
+        default -> new Token(getType(index), line, columnStart, columnEnd);
+        };
+    }
+
+    /**
+     * @return a new view placed before the first token
+     */
+    public View view() {
+        return new View();
+    }
+
+    @Override
+    public String toString() {
+        return "TokenBuffer{" + "size=" + size + ", identifiers=" + interner.size() + '}';
+    }
+
+    /**
+     * A flyweight over the tokens of the buffer: a single object that is moved from token to token, its getters read
+     * the arrays at its position
+     */
+    public final class View {
+        private int index = -1;
+
+        private View() {
+        }
+
+        /**
+         * Moves the view to the next token
+         *
+         * @return false if there are no more tokens
+         */
+        public boolean next() {
+            if (index + 1 >= size) {
+                index = size;
+                return false;
+            }
+            index++;
+            return true;
+        }
+
+        /**
+         * Moves the view to a token
+         *
+         * @param index
+         *            the position of the token
+         *
+         * @return the view
+         */
+        public View moveTo(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Token " + index + " out of " + size);
+            }
+            this.index = index;
+            return this;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public TokenType getType() {
+            return TokenBuffer.this.getType(index);
+        }
+
+        public int getLine() {
+            return lines[index];
+        }
+
+        public int getColumnStart() {
+            return columnStarts[index];
+        }
+
+        public int getColumnEnd() {
+            return columnEnds[index];
+        }
+
+        public long getValue() {
+            return values[index];
+        }
+
+        public String getName() {
+            return TokenBuffer.this.getName(index);
+        }
+
+        public String getText() {
+            return TokenBuffer.this.getText(index);
+        }
+
+        public boolean isMultiline() {
+            return TokenBuffer.this.isMultiline(index);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.compiler.token;
+
+/**
+ * Receives the tokens produced by the Tokenizer, already fused, as primitive fields
+ *
+ * @see Tokenizer
+ * @see TokenBuffer
+ */
+interface TokenSink {
+    /**
+     * Adds a token without a value, a keyword or a multi-token token
+     */
+    void add(TokenType type, int line, int column_start, int column_end);
+
+    void addIntLit(long value, int line, int column_start, int column_end);
+
+    /**
+     * @param name
+     *            the name of the identifier, it is only valid during the call
+     */
+    void addIdent(CharSequence name, int line, int column_start, int column_end);
+
+    void addString(String content, int line, int column_start, int column_end);
+
+    void addComment(String comment, boolean multiline);
+}
@@ -0,0 +1,21 @@
+package org.compiler.token;
+
+import org.compiler.errors.TokenError;
+import org.compiler.token.tokens.Token;
+
+/**
+ * A source of tokens that are produced on demand
+ *
+ * @see Tokenizer#streaming(java.io.Reader, String)
+ */
+public interface TokenSource {
+    /**
+     * Returns the next token of the input
+     *
+     * @return the next token, null at the end of the input
+     *
+     * @throws TokenError
+     *             if an error occurs during tokenization
+     */
+    Token nextToken() throws TokenError;
+}
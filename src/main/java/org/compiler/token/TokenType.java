@@ -6,5 +6,16 @@ package org.compiler.token;
 public enum TokenType {
     _exit, int_lit, semi, open_paren, close_paren, ident, let, eq, plus, star, minus, slash, comment, open_curly,
     close_curly, _if, _else, elif, _while, percent, not, logic_not_eq, logic_eq, logic_gt, logic_lt, logic_ge, logic_le,
-    logic_and, logic_or, _true, _false, print, quotes, string_lit, read
+    logic_and, logic_or, _true, _false, print, quotes, string_lit, read;
+
+    /**
+     * @return the precedence of the type as a binary operator, -1 if it is not a binary operator
+     */
+    public int precedence() {
+        return switch (this) {
+        case plus, minus -> 0;
+        case star, slash, percent, logic_not_eq, logic_eq, logic_gt, logic_ge, logic_lt, logic_le, logic_and, logic_or -> 1;
+        default -> -1;
+        };
+    }
 }
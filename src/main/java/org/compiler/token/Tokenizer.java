@@ -1,26 +1,40 @@
 package org.compiler.token;
 
 import org.compiler.errors.TokenError;
-import org.compiler.peekers.PeekIteratorChar;
+import org.compiler.peekers.CharCursor;
 import org.compiler.token.dialects.Dialect;
-import org.compiler.token.tokens.CharLineColumn;
-import org.compiler.token.tokens.Token;
-import org.compiler.token.tokens.TokenIdent;
-import org.compiler.token.tokens.TokenIntLit;
+import org.compiler.token.dialects.KeywordAutomaton;
+import org.compiler.token.tokens.*;
 
+import java.io.Reader;
 import java.util.ArrayList;
-import java.util.Map;
+import java.util.EnumSet;
 import java.util.Set;
 
 /**
- * Generates a list of tokens from a string input
+ * Generates a list of tokens from a string input, or streams them one at a time to the Parser
  */
-public class Tokenizer {
-    private ArrayList<Token> tokens = new ArrayList<>();
-    private final PeekIteratorChar it;
-    private final Map<String, TokenType> wordToTokenMap;
-    private static final Set<TokenType> multiTokenTokens = Set.of(TokenType.not, TokenType.eq, TokenType.logic_gt,
-            TokenType.logic_lt, TokenType.comment);
+public class Tokenizer implements TokenSource {
+    private final ArrayList<Token> tokens = new ArrayList<>();
+    private final CharCursor it;
+    private final KeywordAutomaton automaton;
+    private final boolean forParsing;
+    private final boolean streaming;
+    private final StringBuilder buffer = new StringBuilder();
+    private final TokenSink sink;
+    private final Interner interner;
+    private int drained;
+    private TokenType pendingType;
+    private int pendingLine;
+    private int pendingColumnStart;
+    private int pendingColumnEnd;
+    private TokenType lastType;
+    private static final Set<TokenType> wordTerminators = EnumSet.of(TokenType.not, TokenType.eq, TokenType.logic_gt,
+            TokenType.logic_lt, TokenType.comment, TokenType.quotes);
+    private static final Set<TokenType> fusionStarts = EnumSet.of(TokenType.minus, TokenType.not, TokenType.eq,
+            TokenType.logic_gt, TokenType.logic_lt);
+    private static final Set<TokenType> negativeLiteralPrecedents = EnumSet.of(TokenType.open_paren, TokenType.eq,
+            TokenType.plus, TokenType.minus, TokenType.star, TokenType.slash);
 
     /**
      * Constructor for the Tokenizer class
@@ -32,11 +46,7 @@ public class Tokenizer {
      *             if an error occurs during tokenization
      */
     public Tokenizer(String input) throws TokenError {
-        this.it = new PeekIteratorChar(input);
-        Dialect defaultDialect = new Dialect("default_dialect");
-        wordToTokenMap = defaultDialect.getWordToTokenMap();
-        tokenize(true);
-        substituteMultiTokenTokens(true);
+        this(new CharCursor(input), "default_dialect", true);
     }
 
     /**
@@ -51,11 +61,7 @@ public class Tokenizer {
      *             if an error occurs during tokenization
      */
     public Tokenizer(String input, String dialectName) throws TokenError {
-        this.it = new PeekIteratorChar(input);
-        Dialect dialect = new Dialect(dialectName);
-        wordToTokenMap = dialect.getWordToTokenMap();
-        tokenize(true);
-        substituteMultiTokenTokens(true);
+        this(new CharCursor(input), dialectName, true);
     }
 
     /**
@@ -72,211 +78,356 @@ public class Tokenizer {
      *             if an error occurs during tokenization
      */
     public Tokenizer(String input, String dialectName, boolean forParsing) throws TokenError {
-        this.it = new PeekIteratorChar(input);
+        this(new CharCursor(input), dialectName, forParsing);
+    }
+
+    /**
+     * Constructor for the Tokenizer class, the input is read lazily through a window so the whole file never needs to
+     * be in memory
+     *
+     * @param input
+     *            the reader of the input file, it is not closed by the tokenizer
+     * @param dialectName
+     *            the name of the dialect to use to tokenize
+     * @param forParsing
+     *            if true, the tokenizer will substitute multi-token tokens, false is used to translate cross-dialect
+     *
+     * @throws TokenError
+     *             if an error occurs during tokenization
+     */
+    public Tokenizer(Reader input, String dialectName, boolean forParsing) throws TokenError {
+        this(new CharCursor(input), dialectName, forParsing);
+    }
+
+    private Tokenizer(CharCursor it, String dialectName, boolean forParsing) throws TokenError {
+        this(it, dialectName, forParsing, false, null);
+        tokenize();
+    }
+
+    private Tokenizer(CharCursor it, String dialectName, boolean forParsing, boolean streaming, TokenSink sink) {
+        this.it = it;
+        this.forParsing = forParsing;
+        this.streaming = streaming;
+        this.interner = sink instanceof TokenBuffer buffer ? buffer.getInterner() : new Interner();
+        this.sink = sink != null ? sink : new TokenList();
         Dialect dialect = new Dialect(dialectName);
-        wordToTokenMap = dialect.getWordToTokenMap();
-        tokenize(forParsing);
-        substituteMultiTokenTokens(forParsing);
+        automaton = dialect.getAutomaton();
     }
 
     /**
-     * Tokenizes the input string
+     * Creates a tokenizer for parsing that produces the tokens on demand through nextToken(), instead of building the
+     * whole list of tokens. Used with PeekIteratorTokenStream so that the Parser only keeps a few tokens in memory.
      *
+     * @param input
+     *            the reader of the input file, it is not closed by the tokenizer and must stay open while the tokens
+     *            are pulled
+     * @param dialectName
+     *            the name of the dialect to use to tokenize
+     *
+     * @return the streaming tokenizer
+     *
+     * @see org.compiler.peekers.PeekIteratorTokenStream
+     */
+    public static Tokenizer streaming(Reader input, String dialectName) {
+        return new Tokenizer(new CharCursor(input), dialectName, true, true, null);
+    }
+
+    /**
+     * Tokenizes the input into a TokenBuffer, the tokens are stored in a few primitive arrays instead of one object
+     * each
+     *
+     * @param input
+     *            the reader of the input file, it is not closed by the tokenizer
+     * @param dialectName
+     *            the name of the dialect to use to tokenize
      * @param forParsing
-     *            if true, the tokenizer will substitute multi-token tokens
+     *            if true, the tokenizer will substitute multi-token tokens, false is used to translate cross-dialect
+     *
+     * @return the buffer of the tokens
      *
      * @throws TokenError
      *             if an error occurs during tokenization
      */
-    private void tokenize(boolean forParsing) throws TokenError {
-        StringBuilder buffer = new StringBuilder();
-        while (it.hasNext()) {
-            CharLineColumn clc = it.next();
-            char c = clc.getChar();
-            buffer.append(c);
-            String word = buffer.toString();
+    public static TokenBuffer toTokenBuffer(Reader input, String dialectName, boolean forParsing) throws TokenError {
+        TokenBuffer buffer = new TokenBuffer();
+        new Tokenizer(new CharCursor(input), dialectName, forParsing, false, buffer).tokenize();
+        return buffer;
+    }
 
-            int line = clc.getLine();
-            int column_start = clc.getColumn();
-            // If mono char literal
-            if (wordToTokenMap.containsKey(buffer.toString())) {
-                if (wordToTokenMap.get(word) == TokenType.comment) {
-                    if (forParsing) {
-                        it.ignoreComment(word);
-                    } else {
-                        AddToken(it.ignoreComment(word));
-                    }
-                } else if (wordToTokenMap.get(word) == TokenType.quotes) {
-                    AddToken(of(buffer.toString(), line, column_start, column_start));
-                    AddToken(it.ignoreContent(word));
-                    if (it.hasNext()) {
-                        AddToken(of(buffer.toString(), line, it.peek().getColumn(), it.peek().getColumn()));
-                    } else {
-                        throw new TokenError("Expected closing quotes or parenthesis", line, column_start,
-                                column_start);
-                    }
-                } else {
-                    AddToken(of(buffer.toString(), line, column_start, column_start));
-                }
-                buffer.setLength(0);
-                continue;
+    /**
+     * Tokenizes the input only as far as needed to return the next token, only available for a streaming tokenizer
+     *
+     * @return the next token, null at the end of the input
+     *
+     * @throws TokenError
+     *             if an error occurs during tokenization
+     */
+    @Override
+    public Token nextToken() throws TokenError {
+        if (!streaming) {
+            throw new IllegalStateException("Tokens have already been collected, use getTokens()");
+        }
+        if (drained == tokens.size()) {
+            tokens.clear();
+            drained = 0;
+            while (tokens.isEmpty() && lexNext()) {
+                // a comment produces no token
+            }
+            if (tokens.isEmpty()) {
+                flushPending();
             }
-            int column_end = 0;
-            while (it.hasNext() && !Character.isWhitespace(it.peek().getChar())
-                    && !wordToTokenMap.containsKey(String.valueOf(it.peek().getChar()))
-                    && !(wordToTokenMap.containsKey(buffer.toString())
-                            && (wordToTokenMap.get(buffer.toString()) == TokenType.comment
-                                    || wordToTokenMap.get(buffer.toString()) == TokenType.quotes
-                                    || multiTokenTokens.contains(wordToTokenMap.get(buffer.toString()))))) {
-                column_end = it.peek().getColumn();
-                buffer.append(it.next().getChar());
+            if (tokens.isEmpty()) {
+                return null;
             }
-            word = buffer.toString();
-            // Support for multi-char comment/string literals
-            if (wordToTokenMap.containsKey(buffer.toString())) {
-                if (wordToTokenMap.get(word) == TokenType.comment) {
-                    if (forParsing) {
-                        it.ignoreComment(word);
-                    } else {
-                        AddToken(it.ignoreComment(word));
-                    }
-                    buffer.setLength(0);
-                    continue;
+        }
+        return tokens.get(drained++);
+    }
+
+    /**
+     * Tokenizes the input string
+     *
+     * @throws TokenError
+     *             if an error occurs during tokenization
+     */
+    private void tokenize() throws TokenError {
+        while (lexNext()) {
+            // every lexeme is added to the list of tokens
+        }
+        flushPending();
+    }
+
+    /**
+     * Reads the next lexeme of the input and adds its tokens
+     *
+     * @return false if the input is over
+     *
+     * @throws TokenError
+     *             if an error occurs during tokenization
+     */
+    private boolean lexNext() throws TokenError {
+        if (!it.hasNext()) {
+            return false;
+        }
+        char c = it.next();
+        int line = it.getCharLine();
+        int column_start = it.getCharColumn();
+        int state = automaton.step(KeywordAutomaton.START, c);
+        TokenType type = automaton.accepting(state);
+        // If mono char literal
+        if (type != null) {
+            if (type == TokenType.comment) {
+                if (forParsing) {
+                    it.skipComment(automaton.word(state));
+                } else {
+                    AddComment(it.ignoreComment(automaton.word(state)));
                 }
-                if (wordToTokenMap.get(word) == TokenType.quotes) {
-                    AddToken(new Token(TokenType.quotes));
-                    AddToken(it.ignoreContent(word));
-                    AddToken(new Token(TokenType.quotes));
-                    buffer.setLength(0);
-                    continue;
+            } else if (type == TokenType.quotes) {
+                AddToken(type, line, column_start, column_start);
+                AddString(it.ignoreContent(automaton.word(state)));
+                if (it.hasNext()) {
+                    AddToken(type, line, it.peekColumn(), it.peekColumn());
+                } else {
+                    throw new TokenError("Expected closing quotes or parenthesis", line, column_start, column_start);
                 }
+            } else {
+                AddToken(type, line, column_start, column_start);
             }
-            if (column_end == 0) {
-                column_end = column_start;
+            return true;
+        }
+        // Maximal munch: the word goes on until whitespace, a mono char keyword or a keyword that always ends a
+        // word, the automaton follows it to know if it is a keyword
+        buffer.setLength(0);
+        buffer.append(c);
+        int column_end = column_start;
+        while (it.hasNext() && !Character.isWhitespace(it.peekChar()) && !automaton.isKeyword(it.peekChar())
+                && !(type != null && wordTerminators.contains(type))) {
+            column_end = it.peekColumn();
+            c = it.next();
+            buffer.append(c);
+            state = automaton.step(state, c);
+            type = automaton.accepting(state);
+        }
+        // Support for multi-char comment/string literals
+        if (type == TokenType.comment) {
+            if (forParsing) {
+                it.skipComment(automaton.word(state));
+            } else {
+                AddComment(it.ignoreComment(automaton.word(state)));
             }
-            AddToken(of(word, line, column_start, column_end));
-            buffer.setLength(0);
+        } else if (type == TokenType.quotes) {
+            AddToken(TokenType.quotes, -1, -1, -1);
+            AddString(it.ignoreContent(automaton.word(state)));
+            AddToken(TokenType.quotes, -1, -1, -1);
+        } else if (type != null) {
+            AddToken(type, line, column_start, column_end);
+        } else if (WordClassifier.isIdent(buffer)) {
+            AddIdent(buffer, line, column_start, column_end);
+        } else {
+            AddIntLit(WordClassifier.parseIntLit(buffer, line, column_start, column_end), line, column_start,
+                    column_end);
         }
+        return true;
     }
 
     /**
      * @return the list of tokens
      */
     public ArrayList<Token> getTokens() {
+        if (streaming) {
+            throw new IllegalStateException("A streaming tokenizer does not collect its tokens, use nextToken()");
+        }
         return tokens;
     }
 
     /**
-     * Adds a token to the list of tokens
-     *
-     * @param token
-     *            the token to add
+     * @return the interner that gave the ids of the identifiers
      */
-    private void AddToken(Token token) {
-        tokens.add(token);
+    public Interner getInterner() {
+        return interner;
     }
 
-    @Override
-    public String toString() {
-        return "Tokenizer{" + "tokens=" + tokens + '}';
+    /**
+     * Adds a token without a value. A token that can start a multi-token token is kept pending until the next token is
+     * read, so that it is fused as soon as possible
+     */
+    private void AddToken(TokenType type, int line, int column_start, int column_end) {
+        if (pendingType != null) {
+            TokenType fused = type == TokenType.eq ? fuseWithEq(pendingType) : null;
+            if (fused != null) {
+                sink.add(fused, pendingLine, pendingColumnStart, pendingColumnEnd + 1);
+                lastType = type;
+                pendingType = null;
+                return;
+            }
+            flushPending();
+        }
+        if (fusionStarts.contains(type)) {
+            pendingType = type;
+            pendingLine = line;
+            pendingColumnStart = column_start;
+            pendingColumnEnd = column_end;
+            return;
+        }
+        lastType = type;
+        // Convert true to 1 and false to 0
+        if (forParsing && type == TokenType._true) {
+            sink.addIntLit(1, line, column_start, column_end);
+        } else if (forParsing && type == TokenType._false) {
+            sink.addIntLit(0, line, column_start, column_end);
+        } else {
+            sink.add(type, line, column_start, column_end);
+        }
     }
 
     /**
-     * Creates a token from a word
-     *
-     * @param word
-     *            the word to create a token from
-     * @param line
-     *            the line number
-     * @param column_start
-     *            the start column number
-     * @param column_end
-     *            the end column number
-     *
-     * @return the token
-     *
-     * @throws TokenError
-     *             if the token type is unrecognised
+     * Adds an integer literal, a pending minus is part of it if it starts the input or follows an open parenthesis, an
+     * assignment or an operator
      */
-    private Token of(String word, int line, int column_start, int column_end) throws TokenError {
-        if (wordToTokenMap.containsKey(word)) {
-            return new Token(wordToTokenMap.get(word), line, column_start, column_end);
-        } else if (word.matches("[0-9]+")) { // check if the word is a number
-            return new TokenIntLit(word, line, column_start, column_end);
-        } else if (word.matches("^[^\\d].*")) {
-            return new TokenIdent(word, line, column_start, column_end);
-        } else {
-            throw new TokenError("Unrecognised token type: \"" + word + "\"", line, column_start, column_end);
+    private void AddIntLit(long value, int line, int column_start, int column_end) {
+        if (pendingType == TokenType.minus && (lastType == null || negativeLiteralPrecedents.contains(lastType))) {
+            sink.addIntLit(-value, pendingLine, pendingColumnStart, column_end);
+            lastType = TokenType.int_lit;
+            pendingType = null;
+            return;
+        }
+        flushPending();
+        lastType = TokenType.int_lit;
+        sink.addIntLit(value, line, column_start, column_end);
+    }
+
+    private void AddIdent(CharSequence name, int line, int column_start, int column_end) {
+        flushPending();
+        lastType = TokenType.ident;
+        sink.addIdent(name, line, column_start, column_end);
+    }
+
+    /**
+     * @param string
+     *            the string, null if it is cut by the end of the input
+     */
+    private void AddString(TokenString string) {
+        if (string == null) {
+            return;
+        }
+        flushPending();
+        lastType = TokenType.string_lit;
+        sink.addString(string.getContent(), string.getLine(), string.getColumnStart(), string.getColumnEnd());
+    }
+
+    /**
+     * @param comment
+     *            the comment, null if it is cut by the end of the input
+     */
+    private void AddComment(TokenComment comment) {
+        if (comment == null) {
+            return;
         }
+        flushPending();
+        lastType = TokenType.comment;
+        sink.addComment(comment.getComment(), comment.isMultiline());
     }
 
     /**
-     * Substitutes multi-token tokens
+     * Adds the pending token as it is
+     */
+    private void flushPending() {
+        if (pendingType == null) {
+            return;
+        }
+        sink.add(pendingType, pendingLine, pendingColumnStart, pendingColumnEnd);
+        lastType = pendingType;
+        pendingType = null;
+    }
+
+    /**
+     * @param first
+     *            a token followed by an eq
      *
-     * @param forParsing
-     *            if true, the tokenizer will substitute multi-token tokens
+     * @return the multi-token token made by the two tokens: !=, ==, >=, <=, null if they are not fused
      */
-    private void substituteMultiTokenTokens(boolean forParsing) throws TokenError {
-        ArrayList<Token> tokenCopy = new ArrayList<>();
-        for (int i = 0; i < tokens.size(); i++) {
-            Token token = tokens.get(i);
-            // Negative number
-            if (token.getType() == TokenType.minus && i + 1 < tokens.size() && i - 1 > 0) {
-                if (tokens.get(i + 1).getType() == TokenType.int_lit) {
-                    TokenType prec = tokens.get(i - 1).getType();
-                    if (prec == TokenType.open_paren || prec == TokenType.eq || prec == TokenType.plus
-                            || prec == TokenType.minus || prec == TokenType.star || prec == TokenType.slash) {
-                        TokenIntLit number = (TokenIntLit) tokens.get(i + 1);
-                        tokenCopy.add(new TokenIntLit(Long.toString(-number.getValue()), token.getLine(),
-                                token.getColumnStart(), number.getColumnEnd()));
-                        ++i;
-                        continue;
-                    }
-                }
-            }
-            // != -> logic_not_eq
-            if (token.getType() == TokenType.not && i + 1 < tokens.size()
-                    && tokens.get(i + 1).getType() == TokenType.eq) {
-                tokenCopy.add(new Token(TokenType.logic_not_eq, token.getLine(), token.getColumnStart(),
-                        token.getColumnEnd() + 1));
-                ++i;
-                continue;
-            }
-            // == -> logic_eq
-            if (token.getType() == TokenType.eq && i + 1 < tokens.size()
-                    && tokens.get(i + 1).getType() == TokenType.eq) {
-                tokenCopy.add(new Token(TokenType.logic_eq, token.getLine(), token.getColumnStart(),
-                        token.getColumnEnd() + 1));
-                ++i;
-                continue;
-            }
-            // >= -> logic_ge
-            if (token.getType() == TokenType.logic_gt && i + 1 < tokens.size()
-                    && tokens.get(i + 1).getType() == TokenType.eq) {
-                tokenCopy.add(new Token(TokenType.logic_ge, token.getLine(), token.getColumnStart(),
-                        token.getColumnEnd() + 1));
-                ++i;
-                continue;
-            }
-            // <= -> logic_le
-            if (token.getType() == TokenType.logic_lt && i + 1 < tokens.size()
-                    && tokens.get(i + 1).getType() == TokenType.eq) {
-                tokenCopy.add(new Token(TokenType.logic_le, token.getLine(), token.getColumnStart(),
-                        token.getColumnEnd() + 1));
-                ++i;
-                continue;
-            }
-            // Convert true to 1 and false to 0
-            if (forParsing) {
-                if (token.getType() == TokenType._true) {
-                    token = new TokenIntLit("1", token.getLine(), token.getColumnStart(), token.getColumnEnd());
-                }
-                if (token.getType() == TokenType._false) {
-                    token = new TokenIntLit("0", token.getLine(), token.getColumnStart(), token.getColumnEnd());
-                }
-            }
-            tokenCopy.add(token);
+    private static TokenType fuseWithEq(TokenType first) {
+        return switch (first) {
+        case not -> TokenType.logic_not_eq;
+        case eq -> TokenType.logic_eq;
+        case logic_gt -> TokenType.logic_ge;
+        case logic_lt -> TokenType.logic_le;
+        default -> null;
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "Tokenizer{" + "tokens=" + tokens + '}';
+    }
+
+    /**
+     * Collects the tokens as objects in the list of tokens
+     */
+    private class TokenList implements TokenSink {
+        @Override
+        public void add(TokenType type, int line, int column_start, int column_end) {
+            tokens.add(new Token(type, line, column_start, column_end));
+        }
+
+        @Override
+        public void addIntLit(long value, int line, int column_start, int column_end) {
+            tokens.add(new TokenIntLit(value, line, column_start, column_end));
+        }
+
+        @Override
+        public void addIdent(CharSequence name, int line, int column_start, int column_end) {
+            int id = interner.intern(name);
+            tokens.add(new TokenIdent(interner.getName(id), id, line, column_start, column_end));
+        }
+
+        @Override
+        public void addString(String content, int line, int column_start, int column_end) {
+            tokens.add(new TokenString(content, line, column_start, column_end));
+        }
+
+        @Override
+        public void addComment(String comment, boolean multiline) {
+            tokens.add(new TokenComment(comment, multiline));
         }
-        tokens = tokenCopy;
     }
-}
\ No newline at end of file
+}
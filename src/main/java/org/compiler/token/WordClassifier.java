@@ -0,0 +1,68 @@
+package org.compiler.token;
+
+import org.compiler.errors.TokenError;
+
+/**
+ * Classifies the words of the input that are not keywords. A word made only of digits is an integer literal, parsed in
+ * place while it is checked, a word that does not start with a digit is an identifier, anything else is an error.
+ */
+final class WordClassifier {
+    private WordClassifier() {
+    }
+
+    /**
+     * @param word
+     *            a word that is not a keyword
+     *
+     * @return if the word is an identifier, it does not start with a digit
+     */
+    static boolean isIdent(CharSequence word) {
+        return !isDigit(word.charAt(0));
+    }
+
+    /**
+     * Parses a word that is not an identifier as an integer literal
+     *
+     * @param word
+     *            the word to parse
+     * @param line
+     *            the line number
+     * @param column_start
+     *            the start column number
+     * @param column_end
+     *            the end column number
+     *
+     * @return the value of the literal
+     *
+     * @throws TokenError
+     *             if the word is not made only of digits or does not fit in a long
+     */
+    static long parseIntLit(CharSequence word, int line, int column_start, int column_end) throws TokenError {
+        long value = 0;
+        boolean overflow = false;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (!isDigit(c)) {
+                throw new TokenError("Unrecognised token type: \"" + word + "\"", line, column_start, column_end);
+            }
+            int digit = c - '0';
+            // the rest of the word is still checked, a non digit after an overflow is an unrecognised token
+            if (overflow || value > (Long.MAX_VALUE - digit) / 10) {
+                overflow = true;
+            } else {
+                value = value * 10 + digit;
+            }
+        }
+        if (overflow) {
+            throw new TokenError("Invalid integer literal: " + word, line, column_start, column_end);
+        }
+        return value;
+    }
+
+    /**
+     * @return if the char is an ASCII digit, the same set matched by \d
+     */
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
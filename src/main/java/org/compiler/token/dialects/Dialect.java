@@ -15,6 +15,8 @@ public class Dialect {
 
     private Map<String, TokenType> wordToTokenMap;
 
+    private KeywordAutomaton automaton;
+
     public Dialect(String name) {
         this.name = name;
         retrieveDialect();
@@ -44,13 +46,14 @@ public class Dialect {
             if (trie.containsPrefix(key)) {
                 throw new IllegalArgumentException("Key " + key + " is a substring of another key");
             }
-            trie.insert(key);
+            trie.insert(key, data.get(key));
         }
         if (data.size() != 28) {
             throw new IllegalArgumentException("Dialect must contain 28 tokens");
         }
         wordToTokenMap = new HashMap<>(data);
         checkDialectCompleteness();
+        automaton = trie.compile();
     }
 
     private Map<String, TokenType> retrieveJson() {
@@ -85,6 +88,13 @@ public class Dialect {
         return wordToTokenMap;
     }
 
+    /**
+     * @return the keywords of the dialect compiled into an automaton, used by the Tokenizer
+     */
+    public KeywordAutomaton getAutomaton() {
+        return automaton;
+    }
+
     @Override
     public String toString() {
         return "Dialect{" + "name='" + name + '\'' + ", wordToTokenMap=" + wordToTokenMap + '}';
@@ -0,0 +1,128 @@
+package org.compiler.token.dialects;
+
+import org.compiler.token.TokenType;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The keywords of a dialect compiled into a deterministic automaton over UTF-16 chars. The Tokenizer feeds it one char
+ * at a time with step() and reads the keyword recognised so far with accepting(), so no string is built or hashed to
+ * find a keyword.
+ * <p>
+ * Transitions on ASCII chars are a dense table indexed by state and char, transitions on the other chars (accented
+ * letters, emoji surrogate pairs and variation selectors) are sorted per state and binary searched.
+ *
+ * @see Dialect#getAutomaton()
+ */
+public final class KeywordAutomaton {
+    /**
+     * The state before any char is read
+     */
+    public static final int START = 0;
+    /**
+     * The state reached once the chars read are not the prefix of any keyword, it has no way out
+     */
+    public static final int DEAD = -1;
+    private static final int ASCII = 128;
+    private final int[] asciiNext;
+    private final int[] otherStart;
+    private final char[] otherChars;
+    private final int[] otherNext;
+    private final TokenType[] accepting;
+    private final String[] words;
+
+    KeywordAutomaton(List<TrieNode> nodes) {
+        int states = nodes.size();
+        Map<TrieNode, Integer> ids = new IdentityHashMap<>();
+        for (int i = 0; i < states; i++) {
+            ids.put(nodes.get(i), i);
+        }
+        asciiNext = new int[states * ASCII];
+        Arrays.fill(asciiNext, DEAD);
+        otherStart = new int[states + 1];
+        accepting = new TokenType[states];
+        words = new String[states];
+        int others = 0;
+        for (TrieNode node : nodes) {
+            for (char c : node.children.keySet()) {
+                if (c >= ASCII) {
+                    others++;
+                }
+            }
+        }
+        otherChars = new char[others];
+        otherNext = new int[others];
+        int other = 0;
+        for (int state = 0; state < states; state++) {
+            TrieNode node = nodes.get(state);
+            accepting[state] = node.type;
+            words[state] = node.word;
+            otherStart[state] = other;
+            Character[] chars = node.children.keySet().toArray(new Character[0]);
+            Arrays.sort(chars);
+            for (char c : chars) {
+                int next = ids.get(node.children.get(c));
+                if (c < ASCII) {
+                    asciiNext[state * ASCII + c] = next;
+                } else {
+                    otherChars[other] = c;
+                    otherNext[other] = next;
+                    other++;
+                }
+            }
+        }
+        otherStart[states] = other;
+    }
+
+    /**
+     * @param state
+     *            the current state
+     * @param c
+     *            the char read
+     *
+     * @return the state after reading the char, DEAD if no keyword continues with it
+     */
+    public int step(int state, char c) {
+        if (state == DEAD) {
+            return DEAD;
+        }
+        if (c < ASCII) {
+            return asciiNext[state * ASCII + c];
+        }
+        int i = Arrays.binarySearch(otherChars, otherStart[state], otherStart[state + 1], c);
+        return i >= 0 ? otherNext[i] : DEAD;
+    }
+
+    /**
+     * @param state
+     *            the current state
+     *
+     * @return the type of the keyword that ends in the state, null if the chars read are not a keyword
+     */
+    public TokenType accepting(int state) {
+        return state == DEAD ? null : accepting[state];
+    }
+
+    /**
+     * @param state
+     *            an accepting state
+     *
+     * @return the keyword that ends in the state
+     */
+    public String word(int state) {
+        return state == DEAD ? null : words[state];
+    }
+
+    /**
+     * @param c
+     *            a char
+     *
+     * @return if the char alone is a keyword
+     */
+    public boolean isKeyword(char c) {
+        return accepting(step(START, c)) != null;
+    }
+}
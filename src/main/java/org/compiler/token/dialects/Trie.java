@@ -1,8 +1,13 @@
 package org.compiler.token.dialects;
 
+import org.compiler.token.TokenType;
+
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * A trie data structure for storing words. It is used by the Dialect class to check for substrings inside the keys of
- * the dialect.
+ * the dialect and to build its KeywordAutomaton.
  */
 class Trie {
     private final TrieNode root;
@@ -12,10 +17,21 @@ class Trie {
     }
 
     void insert(String word) {
+        insert(word, null);
+    }
+
+    /**
+     * Inserts a word, the node where it ends accepts the given type
+     */
+    void insert(String word, TokenType type) {
         TrieNode current = root;
         for (char l : word.toCharArray()) {
             current = current.children.computeIfAbsent(l, c -> new TrieNode());
         }
+        if (type != null) {
+            current.type = type;
+            current.word = word;
+        }
     }
 
     boolean containsPrefix(String prefix) {
@@ -29,4 +45,18 @@ class Trie {
         }
         return true;
     }
-}
\ No newline at end of file
+
+    /**
+     * Numbers the nodes breadth first, the root is the state 0
+     *
+     * @return the transition table of the trie
+     */
+    KeywordAutomaton compile() {
+        List<TrieNode> nodes = new ArrayList<>();
+        nodes.add(root);
+        for (int i = 0; i < nodes.size(); i++) {
+            nodes.addAll(nodes.get(i).children.values());
+        }
+        return new KeywordAutomaton(nodes);
+    }
+}
@@ -1,5 +1,7 @@
 package org.compiler.token.dialects;
 
+import org.compiler.token.TokenType;
+
 import java.util.HashMap;
 import java.util.Map;
 
@@ -8,8 +10,10 @@ import java.util.Map;
  */
 class TrieNode {
     final Map<Character, TrieNode> children;
+    TokenType type;
+    String word;
 
     public TrieNode() {
         this.children = new HashMap<>();
     }
-}
\ No newline at end of file
+}
@@ -8,21 +8,39 @@ import org.compiler.token.TokenType;
 
 public class TokenIdent extends Token {
     private final String name;
+    private final int id;
 
     public TokenIdent(String name, int line, int column_start, int column_end) {
+        this(name, -1, line, column_start, column_end);
+    }
+
+    /**
+     * @param id
+     *            the id given to the name by the Interner of the compilation, -1 if the name is not interned
+     */
+    public TokenIdent(String name, int id, int line, int column_start, int column_end) {
         super(TokenType.ident, line, column_start, column_end);
         this.name = name;
+        this.id = id;
     }
 
     public TokenIdent(String name) {
         super(TokenType.ident);
         this.name = name;
+        this.id = -1;
     }
 
     public String getName() {
         return name;
     }
 
+    /**
+     * @return the id of the name in the Interner of the compilation, -1 if the name is not interned
+     */
+    public int getId() {
+        return id;
+    }
+
     @Override
     public String toString() {
         return "TokenIdent{" + "name='" + name + '\'' + ", l=" + getLine() + ", col_s=" + getColumnStart() + ", col_e="
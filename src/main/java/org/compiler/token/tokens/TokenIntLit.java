@@ -21,6 +21,11 @@ public class TokenIntLit extends Token {
         }
     }
 
+    public TokenIntLit(long value, int line, int column_start, int column_end) {
+        super(TokenType.int_lit, line, column_start, column_end);
+        this.value = value;
+    }
+
     public TokenIntLit(String value) {
         super(TokenType.int_lit);
         this.value = Integer.parseInt(value);
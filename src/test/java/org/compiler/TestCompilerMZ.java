@@ -2,12 +2,16 @@ package org.compiler;
 
 import org.compiler.errors.TokenError;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -16,42 +20,167 @@ public class TestCompilerMZ {
 
     @ParameterizedTest
     @MethodSource("provideTestCases")
-    public void testCompilerMZ(String inputFile, int expectedExitCode) throws IOException, TokenError {
+    public void testCompilerMZ(String inputFile, int expectedExitCode, Generator.Allocation allocation)
+            throws IOException, TokenError {
         String baseDir = "src/test/java/org/compiler/testCompilerMZResources/exits/";
         String outDir = "src/test/java/org/compiler/testCompilerMZResources/";
         int exitCode = CompilerMZ.callFullStackWithReturnCode(baseDir + inputFile, outDir + "out.asm", outDir + "out.o",
-                outDir + "out");
+                outDir + "out", allocation);
         assertEquals(expectedExitCode, exitCode);
     }
 
+    /**
+     * The same programs are compiled with every register allocation
+     */
     private static Stream<Object[]> provideTestCases() {
-        return Stream.of(new Object[] { "exits1.mz", 1 }, new Object[] { "exits2.mz", 2 },
+        return withAllocations(Stream.of(new Object[] { "exits1.mz", 1 }, new Object[] { "exits2.mz", 2 },
                 new Object[] { "exits3.mz", 3 }, new Object[] { "exits4.mz", 4 }, new Object[] { "exits5.mz", 5 },
                 new Object[] { "exits6.mz", 6 }, new Object[] { "exits10.mz", 10 }, new Object[] { "exits11.mz", 11 },
                 new Object[] { "exits15.mz", 15 }, new Object[] { "exits42.mz", 42 }, new Object[] { "exits45.mz", 45 },
                 new Object[] { "exits69.mz", 69 }, new Object[] { "exits100.mz", 100 },
                 new Object[] { "exits111.mz", 111 }, new Object[] { "exits130.mz", 130 },
-                new Object[] { "exits251.mz", 251 });
+                new Object[] { "exits251.mz", 251 }));
     }
 
     @ParameterizedTest
     @MethodSource("providePrintTestCases")
-    public void testPrints(String inputFile, String expectedOutput) throws IOException, TokenError {
+    public void testPrints(String inputFile, String expectedOutput, Generator.Allocation allocation)
+            throws IOException, TokenError {
         String baseDir = "src/test/java/org/compiler/testCompilerMZResources/prints/";
         String outDir = "src/test/java/org/compiler/testCompilerMZResources/";
         ByteArrayOutputStream outContent = new ByteArrayOutputStream();
         System.setOut(new PrintStream(outContent));
 
         CompilerMZ.callFullStackWithReturnCode(baseDir + inputFile, outDir + "out.asm", outDir + "out.o",
-                outDir + "out");
+                outDir + "out", allocation);
 
         Assertions.assertEquals(expectedOutput, outContent.toString());
     }
 
     private static Stream<Object[]> providePrintTestCases() {
-        return Stream.of(new Object[] { "prints100.mz", "100\n" }, new Object[] { "printsCiao.mz", "Ciao\n" },
-                new Object[] { "prints1.mz", "1\n" }, new Object[] { "prints-10000000000.mz", "-10000000000\n" },
-                new Object[] { "printsEmpty.mz", "\n" },
-                new Object[] { "printsLimits.mz", "9223372036854775807\n-9223372036854775808\n" });
+        return withAllocations(Stream.of(new Object[] { "prints100.mz", "100\n" },
+                new Object[] { "printsCiao.mz", "Ciao\n" }, new Object[] { "prints1.mz", "1\n" },
+                new Object[] { "prints-10000000000.mz", "-10000000000\n" }, new Object[] { "printsEmpty.mz", "\n" },
+                new Object[] { "printsLimits.mz", "9223372036854775807\n-9223372036854775808\n" }));
     }
-}
\ No newline at end of file
+
+    /**
+     * Runs read1.mz, that reads a number and prints it, on inputs at the edges of what atoi parses: signs, the 19 digit
+     * limits, numbers that do not fit, tokens that are not numbers and no input at all
+     */
+    @ParameterizedTest
+    @MethodSource("provideReadTestCases")
+    public void testReads(String input, String expectedOutput, Generator.Allocation allocation)
+            throws IOException, TokenError {
+        String baseDir = "src/test/java/org/compiler/testCompilerMZResources/reads/";
+        String outDir = "src/test/java/org/compiler/testCompilerMZResources/";
+        Path stdin = Files.createTempFile("read", ".in");
+        Files.writeString(stdin, input);
+        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outContent));
+
+        try {
+            CompilerMZ.callFullStackWithReturnCode(baseDir + "read1.mz", outDir + "out.asm", outDir + "out.o",
+                    outDir + "out", allocation, stdin.toString());
+        } finally {
+            Files.delete(stdin);
+        }
+
+        Assertions.assertEquals(expectedOutput, outContent.toString());
+    }
+
+    private static Stream<Object[]> provideReadTestCases() {
+        return withAllocations(Stream.of(new Object[] { "42\n", "42\n" }, new Object[] { "-42\n", "-42\n" },
+                new Object[] { "-0", "0\n" }, new Object[] { " \t\n  12345678\n", "12345678\n" },
+                new Object[] { "123456789", "123456789\n" }, new Object[] { "000000000000000000000007", "7\n" },
+                new Object[] { "9223372036854775807\n", "9223372036854775807\n" },
+                new Object[] { "-9223372036854775808\n", "-9223372036854775808\n" },
+                new Object[] { "9223372036854775808\n", "-1\n" }, new Object[] { "-9223372036854775809\n", "-1\n" },
+                new Object[] { "18446744073709551616\n", "-1\n" }, new Object[] { "12abc 7\n", "12\n" },
+                new Object[] { "abc\n", "-1\n" }, new Object[] { "-\n", "-1\n" }, new Object[] { "", "-1\n" }));
+    }
+
+    private static Stream<Object[]> withAllocations(Stream<Object[]> cases) {
+        return cases.flatMap(args -> Arrays.stream(Generator.Allocation.values())
+                .map(allocation -> Stream.concat(Arrays.stream(args), Stream.of(allocation)).toArray()));
+    }
+
+    /**
+     * Divides, takes the modulo and multiplies the same dividends by a literal, that is strength reduced, and by a
+     * variable, that uses idiv and imul, and checks both against the signed semantics of Java
+     */
+    @ParameterizedTest
+    @MethodSource("provideStrengthReductionCases")
+    public void testStrengthReduction(long constant, Generator.Allocation allocation) throws IOException, TokenError {
+        String outDir = "src/test/java/org/compiler/testCompilerMZResources/";
+        long[] values = { 0, 1, -1, 7, -7, 12345, -12345, 1L << 40, -(1L << 40), Long.MAX_VALUE, Long.MIN_VALUE + 1,
+                Long.MIN_VALUE };
+        StringBuilder code = new StringBuilder("let d = " + literal(constant) + ";\nlet r = 0;\n");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            code.append("let x").append(i).append(" = ").append(literal(values[i])).append(";\n");
+            String[] operators = { "/", "%", "*" };
+            long[] results = { values[i] / constant, values[i] % constant, values[i] * constant };
+            for (int j = 0; j < operators.length; j++) {
+                if (j < 2 && values[i] == Long.MIN_VALUE && constant == -1) {
+                    continue;
+                }
+                for (String operand : new String[] { literal(constant), "d" }) {
+                    code.append("r = x").append(i).append(" ").append(operators[j]).append(" ").append(operand)
+                            .append(";\nprint(r);\n");
+                    expected.append(results[j]).append("\n");
+                }
+            }
+        }
+        Path source = Files.createTempFile("strength", ".mz");
+        Files.writeString(source, code);
+        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outContent));
+
+        try {
+            CompilerMZ.callFullStackWithReturnCode(source.toString(), outDir + "out.asm", outDir + "out.o",
+                    outDir + "out", allocation);
+        } finally {
+            Files.delete(source);
+        }
+
+        Assertions.assertEquals(expected.toString(), outContent.toString());
+    }
+
+    /**
+     * A program that does not compile leaves the .asm of the previous compilation as it was
+     */
+    @Test
+    public void testMakeAssemblyError() throws IOException, TokenError {
+        Path source = Files.createTempFile("error", ".mz");
+        Path asm = Files.createTempFile("error", ".asm");
+        try {
+            Files.writeString(source, "let x = 1;\nexit(x + zz);\n");
+            Files.writeString(asm, "previous\n");
+            Assertions.assertThrows(TokenError.class,
+                    () -> CompilerMZ.makeAssembly(source.toString(), asm.toString(), "default_dialect"));
+            assertEquals("previous\n", Files.readString(asm));
+            Assertions.assertFalse(Files.exists(asm.resolveSibling(asm.getFileName() + ".tmp")));
+
+            Files.writeString(source, "exit(3);\n");
+            CompilerMZ.makeAssembly(source.toString(), asm.toString(), "default_dialect");
+            Assertions.assertTrue(Files.readString(asm).contains("section .text"));
+        } finally {
+            Files.delete(source);
+            Files.delete(asm);
+        }
+    }
+
+    private static String literal(long value) {
+        if (value == Long.MIN_VALUE) {
+            return "((-9223372036854775807) - 1)";
+        }
+        return value < 0 ? "(" + value + ")" : Long.toString(value);
+    }
+
+    private static Stream<Object[]> provideStrengthReductionCases() {
+        return withAllocations(
+                Stream.of(1L, -1L, 2L, -2L, 3L, 5L, 7L, -7L, 8L, 10L, 12L, 40L, 641L, -1000L, 1L << 32, (1L << 32) + 3,
+                        1000000007L, Long.MAX_VALUE, Long.MIN_VALUE).map(constant -> new Object[] { constant }));
+    }
+}
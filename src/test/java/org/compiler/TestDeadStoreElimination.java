@@ -0,0 +1,94 @@
+package org.compiler;
+
+import org.compiler.errors.TokenError;
+import org.compiler.nodes.NodeProgram;
+import org.compiler.nodes.expressions.terms.NodeIntLit;
+import org.compiler.nodes.statements.NodeAssign;
+import org.compiler.nodes.statements.NodeExit;
+import org.compiler.nodes.statements.NodeLet;
+import org.compiler.nodes.statements.NodeScope;
+import org.compiler.nodes.statements.conditionals.NodeIf;
+import org.compiler.nodes.statements.conditionals.NodeWhile;
+import org.compiler.nodes.statements.functions.NodeBuiltInFunc;
+import org.compiler.token.Tokenizer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestDeadStoreElimination {
+    private static NodeProgram parse(String code) throws TokenError {
+        return new Parser(new Tokenizer(code).getTokens()).getTree();
+    }
+
+    private static NodeProgram eliminate(String code) throws TokenError {
+        return new DeadStoreElimination(parse(code)).getTree();
+    }
+
+    @Test
+    public void testDeadStores() throws TokenError {
+        NodeProgram program = eliminate("let a = 2; let x = a * 3; x = 5; print(x); let q = 2; q = 3; exit(x);");
+        // a only feeds the overwritten value of x, q is never read
+        assertEquals(4, program.getStmts().size());
+        NodeLet let = assertInstanceOf(NodeLet.class, program.getStmts().getFirst());
+        assertEquals(0, assertInstanceOf(NodeIntLit.class, let.getStmt()).getIntLit().getValue());
+        assertInstanceOf(NodeAssign.class, program.getStmts().get(1));
+        assertInstanceOf(NodeBuiltInFunc.class, program.getStmts().get(2));
+        assertInstanceOf(NodeExit.class, program.getStmts().get(3));
+
+        // the value assigned in one branch is read after the if
+        NodeProgram branches = eliminate("let x = 1; let y = 2; if (y > 1) { x = 3; y = 4; } exit(x);");
+        NodeIf nodeIf = assertInstanceOf(NodeIf.class, branches.getStmts().get(2));
+        assertEquals(1, nodeIf.getIfScope().getStmts().size());
+        assertEquals(4, branches.getStmts().size());
+    }
+
+    @Test
+    public void testDeadStoresLoops() throws TokenError {
+        // s only feeds itself, i is read by the condition of the next iteration
+        NodeProgram program = eliminate("let i = 0; let s = 0; while (i < 3) { s = s + i; i = i + 1; } exit(i);");
+        assertEquals(3, program.getStmts().size());
+        NodeWhile nodeWhile = assertInstanceOf(NodeWhile.class, program.getStmts().get(1));
+        assertEquals(1, nodeWhile.getScope().getStmts().size());
+
+        NodeProgram carried = eliminate(
+                "let i = 0; let s = 0; let t = 1; while (i < 3) { print(s); s = t; t = i; i = i + 1; } exit(0);");
+        nodeWhile = assertInstanceOf(NodeWhile.class, carried.getStmts().get(3));
+        assertEquals(4, nodeWhile.getScope().getStmts().size());
+    }
+
+    @Test
+    public void testDeadStoresSideEffects() throws TokenError {
+        NodeProgram program = eliminate(
+                "let x = 0; read(x); let y = 5; let d = y / x; let m = 0; m = y % 2; let n = y / 3; exit(0);");
+        // the read and the division that can fault are kept, y % 2 and y / 3 cannot fault
+        assertEquals(5, program.getStmts().size());
+        assertInstanceOf(NodeBuiltInFunc.class, program.getStmts().get(1));
+        assertEquals("d",
+                assertInstanceOf(NodeLet.class, program.getStmts().get(3)).getIdentifier().getIdent().getName());
+
+        NodeProgram assigned = eliminate("let x = 1; let z = 0; x = 7 / z; exit(0);");
+        assertEquals(4, assigned.getStmts().size());
+    }
+
+    @Test
+    public void testDeadStoresScopes() throws TokenError {
+        // the two y are different variables
+        NodeProgram program = eliminate("{ let y = 2; } { let y = 3; print(y); } exit(0);");
+        assertEquals(0, assertInstanceOf(NodeScope.class, program.getStmts().getFirst()).getStmts().size());
+        assertEquals(2, assertInstanceOf(NodeScope.class, program.getStmts().get(1)).getStmts().size());
+    }
+
+    @Test
+    public void testDeadStoresErrors() throws TokenError {
+        // the Generator reports the errors of a program that is left as it is
+        for (String code : new String[] { "let a = y; exit(0);", "let a = 1; let a = 2; exit(0);",
+                "let a = a + 1; exit(0);", "{ let t = 1; } t = 2; exit(0);" }) {
+            NodeProgram program = parse(code);
+            assertSame(program, new DeadStoreElimination(program).getTree());
+            assertThrows(TokenError.class, () -> new Generator(program));
+        }
+    }
+}
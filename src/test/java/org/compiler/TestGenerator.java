@@ -1,11 +1,25 @@
 package org.compiler;
 
 import org.compiler.errors.TokenError;
+import org.compiler.nodes.NodeProgram;
+import org.compiler.nodes.expressions.binary_expressions.BinType;
+import org.compiler.nodes.expressions.binary_expressions.NodeBin;
+import org.compiler.nodes.statements.conditionals.NodeWhile;
+import org.compiler.token.Interner;
 import org.compiler.token.Tokenizer;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TestGenerator {
     @Test
@@ -15,11 +29,6 @@ public class TestGenerator {
         Generator generator = new Generator(parser.getTree());
         String res = generator.getGenerated();
         assertEquals("""
-                section .data
-                     minus_sign db '-'
-                     buffer db 20 dup(0)
-                     newline db 0x0a
-
                 section .text
                      global main
 
@@ -40,11 +49,6 @@ public class TestGenerator {
         Generator generator = new Generator(parser.getTree());
         String res = generator.getGenerated();
         assertEquals("""
-                section .data
-                     minus_sign db '-'
-                     buffer db 20 dup(0)
-                     newline db 0x0a
-
                 section .text
                      global main
 
@@ -70,11 +74,6 @@ public class TestGenerator {
         generator = new Generator(parser.getTree());
         res = generator.getGenerated();
         assertEquals("""
-                section .data
-                     minus_sign db '-'
-                     buffer db 20 dup(0)
-                     newline db 0x0a
-
                 section .text
                      global main
 
@@ -114,11 +113,6 @@ public class TestGenerator {
         Generator generator = new Generator(parser.getTree());
         String res = generator.getGenerated();
         assertEquals("""
-                section .data
-                     minus_sign db '-'
-                     buffer db 20 dup(0)
-                     newline db 0x0a
-
                 section .text
                      global main
 
@@ -138,11 +132,6 @@ public class TestGenerator {
         generator = new Generator(parser.getTree());
         res = generator.getGenerated();
         assertEquals("""
-                section .data
-                     minus_sign db '-'
-                     buffer db 20 dup(0)
-                     newline db 0x0a
-
                 section .text
                      global main
 
@@ -166,11 +155,6 @@ public class TestGenerator {
         generator = new Generator(parser.getTree());
         res = generator.getGenerated();
         assertEquals("""
-                section .data
-                     minus_sign db '-'
-                     buffer db 20 dup(0)
-                     newline db 0x0a
-
                 section .text
                      global main
 
@@ -211,4 +195,406 @@ public class TestGenerator {
         Parser finalParser2 = parser;
         assertThrows(TokenError.class, () -> new Generator(finalParser2.getTree()));
     }
+
+    @Test
+    public void testGeneratorScopes() throws TokenError {
+        Parser parser = new Parser(
+                new Tokenizer("let x = 1; { let y = 2; { let z = y; } let z = x; } let y = x; exit(y);").getTokens());
+        String res = new Generator(parser.getTree()).getGenerated();
+        assertTrue(res.contains("     add rsp, 8\n\n     ;;/end scope"));
+        assertTrue(res.contains("     add rsp, 16\n\n     ;;/end scope"));
+
+        Parser redeclared = new Parser(new Tokenizer("let x = 1; { let y = 2; { let x = 3; } }").getTokens());
+        assertThrows(TokenError.class, () -> new Generator(redeclared.getTree()));
+        Parser outOfScope = new Parser(new Tokenizer("{ let y = 2; } exit(y);").getTokens());
+        assertThrows(TokenError.class, () -> new Generator(outOfScope.getTree()));
+    }
+
+    @Test
+    public void testSymbolTable() {
+        SymbolTable symbols = new SymbolTable();
+        symbols.declare(0, 0);
+        symbols.beginScope();
+        symbols.declare(100, 1);
+        symbols.declare(0, 2);
+        assertEquals(2, symbols.lookup(0));
+        assertEquals(1, symbols.lookup(100));
+        symbols.beginScope();
+        assertEquals(0, symbols.endScope());
+        assertEquals(2, symbols.endScope());
+        assertEquals(0, symbols.lookup(0));
+        assertEquals(-1, symbols.lookup(100));
+        assertEquals(-1, symbols.lookup(1000));
+        assertEquals(1, symbols.size());
+        assertThrows(IllegalStateException.class, symbols::endScope);
+    }
+
+    @Test
+    public void testGeneratorChannel() throws TokenError {
+        StringBuilder program = new StringBuilder("print(\"àèìòù 🤔\");");
+        for (int i = 0; i < 3000; i++) {
+            program.append("let x").append(i).append(" = ").append(i).append(" * 2;");
+        }
+        Parser parser = new Parser(new Tokenizer(program.toString()).getTokens());
+        String generated = new Generator(parser.getTree()).getGenerated();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Generator streamed = new Generator(parser.getTree(), Channels.newChannel(bytes));
+        assertThrows(IllegalStateException.class, streamed::getGenerated);
+        String written = bytes.toString(StandardCharsets.UTF_8);
+        assertTrue(written.length() > 1 << 16);
+        int text = generated.indexOf("section .text");
+        assertEquals(generated.substring(text) + generated.substring(0, text), written);
+        assertTrue(written.contains("msg1 db 'àèìòù 🤔', 0x0a"));
+        // 15 bytes of UTF-8 and the newline
+        assertTrue(written.contains("     mov rsi, msg1\n     mov rdx, 16\n     call write_output\n"));
+    }
+
+    @Test
+    public void testGeneratorPrintString() throws TokenError {
+        Parser parser = new Parser(
+                new Tokenizer("print(\"ciao\"); print(7); print(\"ciao\"); print(\"mondo\"); print(7);").getTokens());
+        for (Generator.Allocation allocation : Generator.Allocation.values()) {
+            String res = new Generator(parser.getTree(), allocation).getGenerated();
+            // one message for every distinct string, one write for every print
+            assertTrue(res.contains("     msg1 db 'ciao', 0x0a\n     msg2 db '7', 0x0a\n     msg3 db 'mondo', 0x0a\n"));
+            assertFalse(res.contains("msg4"));
+            assertEquals(5, res.split("call write_output").length - 1);
+            assertEquals(2, res.split("     mov rsi, msg1\n     mov rdx, 5\n").length - 1);
+            assertFalse(res.contains(";;print newline"));
+        }
+    }
+
+    @Test
+    public void testGeneratorOutputBuffer() throws TokenError {
+        Parser parser = new Parser(
+                new Tokenizer("let x = 0; if (x == 0) { exit(3); } read(x); print(x); print(\"a\");").getTokens());
+        for (Generator.Allocation allocation : Generator.Allocation.values()) {
+            String res = new Generator(parser.getTree(), allocation).getGenerated();
+            // the output is flushed on both exits and before the input is read
+            String code = res.substring(0, res.indexOf("print_number:"));
+            assertEquals(2, code.split("call flush_output").length - 1);
+            assertTrue(res.contains("     ;;exit\n     call flush_output\n"));
+            assertTrue(res.contains("refill_input:\n     call flush_output\n"));
+            assertTrue(res.contains("     mov rsi, msg1\n     mov rdx, 2\n     call write_output\n"));
+            assertTrue(res.contains("section .bss\n     output_buffer resb 65536\n"));
+            assertFalse(res.contains("     syscall\n     ;;/print"));
+            // print_number writes the sign, the digits and the newline at once, without dividing
+            String printNumber = res.substring(res.indexOf("print_number:"), res.indexOf("write_output:"));
+            assertEquals(1, printNumber.split("call write_output").length - 1);
+            assertFalse(printNumber.contains("div"));
+            assertTrue(res.contains("     digit_pairs db '00010203"));
+        }
+
+        // a program that does not print writes nothing at exit
+        parser = new Parser(new Tokenizer("let x = 0; read(x); exit(x);").getTokens());
+        for (Generator.Allocation allocation : Generator.Allocation.values()) {
+            String res = new Generator(parser.getTree(), allocation).getGenerated();
+            assertFalse(res.contains("flush_output") || res.contains("output_buffer"));
+            // the input is read into its own buffer, a block at a time
+            assertTrue(res.contains("section .bss\n     input_buffer resb 65544\n"));
+            assertTrue(res.contains("     ;;read\n     call atoi\n"));
+        }
+    }
+
+    @Test
+    public void testGeneratorRuntime() throws TokenError {
+        String[] routines = { "print_number:", "atoi:", "refill_input:", "write_output:", "flush_output:", "write_all:",
+                "flush_on_fault:" };
+        String[] data = { "digit_pairs", "powers_of_ten", "fault_action", "output_buffer", "input_buffer" };
+        // the routines and the data reached from the builtins of each program
+        String[][] programs = { { "exit(1);" },
+                { "let x = 0; read(x); exit(x);", "atoi:", "refill_input:", "powers_of_ten", "input_buffer" },
+                { "print(\"a\");", "write_output:", "flush_output:", "write_all:", "flush_on_fault:", "fault_action",
+                        "output_buffer" },
+                { "let x = 1; print(x);", "print_number:", "write_output:", "flush_output:", "write_all:",
+                        "flush_on_fault:", "digit_pairs", "fault_action", "output_buffer" } };
+        for (String[] program : programs) {
+            Parser parser = new Parser(new Tokenizer(program[0]).getTokens());
+            List<String> expected = List.of(program).subList(1, program.length);
+            for (Generator.Allocation allocation : Generator.Allocation.values()) {
+                String res = new Generator(parser.getTree(), allocation).getGenerated();
+                for (String symbol : routines) {
+                    assertEquals(expected.contains(symbol), res.contains("\n" + symbol + "\n"), symbol);
+                }
+                for (String symbol : data) {
+                    assertEquals(expected.contains(symbol), res.contains("     " + symbol + " "), symbol);
+                }
+                // a program without builtins has no data at all
+                assertEquals(!expected.isEmpty(), res.contains("section .data"));
+            }
+        }
+    }
+
+    @Test
+    public void testGeneratorRegisters() throws TokenError {
+        Parser parser = new Parser(new Tokenizer("let a = 1; let b = 2; let c = 3; exit(a + b * c);").getTokens());
+        String res = new Generator(parser.getTree(), Generator.Allocation.REGISTERS).getGenerated();
+        assertTrue(res.contains("""
+                     ;;expression
+                     ;;identifier
+                     mov rcx, QWORD [rsp + 16]
+                     ;;identifier
+                     mov rsi, QWORD [rsp + 8]
+                     ;;identifier
+                     imul rsi, QWORD [rsp + 0]
+                     add rcx, rsi
+                     push rcx
+                     ;;/expression
+                """));
+        assertEquals(new Generator(parser.getTree()).getGenerated(),
+                new Generator(parser.getTree(), Generator.Allocation.STACK).getGenerated());
+
+        // a balanced tree needs one register per level, the last levels do not fit in the registers
+        String expr = "(x - 1)";
+        for (int i = 0; i < 8; i++) {
+            expr = "(" + expr + (i % 2 == 0 ? " + " : " - ") + expr + ")";
+        }
+        parser = new Parser(new Tokenizer("let x = 5; exit(" + expr + ");").getTokens());
+        res = new Generator(parser.getTree(), Generator.Allocation.REGISTERS).getGenerated();
+        assertTrue(res.contains("     ;;spill\n     push rcx\n"));
+        assertTrue(res.contains("     add rcx, QWORD [rsp]\n     add rsp, 8\n"));
+        assertTrue(res.contains(", r11\n"));
+
+        Parser undeclared = new Parser(new Tokenizer("let x = 1 + y * 2;").getTokens());
+        assertThrows(TokenError.class, () -> new Generator(undeclared.getTree(), Generator.Allocation.REGISTERS));
+        Parser uninitialized = new Parser(new Tokenizer("let x = 2 * x;").getTokens());
+        assertThrows(TokenError.class, () -> new Generator(uninitialized.getTree(), Generator.Allocation.REGISTERS));
+    }
+
+    @Test
+    public void testGeneratorLoopRegisters() throws TokenError {
+        Parser parser = new Parser(
+                new Tokenizer("let i = 0; let s = 0; while (i < 10) { s = s + i; i = i + 1; print(s); } exit(s);")
+                        .getTokens());
+        String res = new Generator(parser.getTree(), Generator.Allocation.REGISTERS).getGenerated();
+        assertTrue(res.contains("""
+                     ;;while
+                     mov r12, QWORD [rsp + 8]
+                     mov r13, QWORD [rsp + 0]
+                     ;;compare
+                     ;;identifier
+                     cmp r12, 10
+                     ;;/compare
+                     jge label1
+                label0:
+                """));
+        assertTrue(res.contains("""
+                     ;;identifier
+                     mov rcx, r13
+                     ;;identifier
+                     add rcx, r12
+                     push rcx
+                     ;;/expression
+
+                     pop r13
+                """));
+        assertTrue(res.contains("""
+                     mov QWORD [rsp + 8], r12
+                     mov QWORD [rsp + 0], r13
+                     mov rax, [rsp + 0]
+                     call print_number
+                """));
+        assertTrue(res.contains("""
+                label1:
+                     mov QWORD [rsp + 8], r12
+                     mov QWORD [rsp + 0], r13
+                     ;;/while
+                """));
+        assertFalse(new Generator(parser.getTree()).getGenerated().contains("r12"));
+    }
+
+    @Test
+    public void testGeneratorSsa() throws TokenError {
+        Parser parser = new Parser(new Tokenizer("let a = 1; let b = 2; let t = 0; let i = 0;"
+                + " while (i < 5) { t = a; a = b; b = t; i = i + 1; } print(a); print(b); exit(i);").getTokens());
+        String res = new Generator(parser.getTree(), Generator.Allocation.SSA).getGenerated();
+        // only the runtime routines use the stack
+        String code = res.substring(0, res.indexOf("print_number:"));
+        assertFalse(code.contains("push") || code.contains("rsp"));
+        // the phis of a and b swap on the back edge, through r11
+        assertTrue(res.contains("""
+                block6:
+                     mov rbx, r12
+                     mov r11, rsi
+                     mov rsi, rdi
+                     mov rdi, r11
+                     jmp block1
+                """));
+        // after the loop they live across print_number, in registers it preserves
+        assertTrue(res.contains("""
+                block7:
+                     mov r8, rdi
+                     mov r9, rsi
+                     mov r10, r12
+                """));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new Generator(parser.getTree(), Channels.newChannel(bytes), Generator.Allocation.SSA);
+        int text = res.indexOf("section .text");
+        assertEquals(res.substring(text) + res.substring(0, text), bytes.toString(StandardCharsets.UTF_8));
+
+        // more values live across read() than preserved registers, the ones used last are spilled
+        StringBuilder program = new StringBuilder();
+        StringBuilder sum = new StringBuilder("0");
+        for (int i = 0; i < 10; i++) {
+            program.append("let x").append(i).append(" = 0; read(x").append(i).append(");");
+            sum.append(" + x").append(i);
+        }
+        parser = new Parser(new Tokenizer(program + " exit(" + sum + ");").getTokens());
+        res = new Generator(parser.getTree(), Generator.Allocation.SSA).getGenerated();
+        assertTrue(res.contains("     mov rbp, rsp\n     sub rsp, 16\n"));
+        assertTrue(res.contains("     call atoi\n     mov QWORD [rbp - 8], rax\n"));
+
+        Parser undeclared = new Parser(new Tokenizer("let x = 1 + y * 2;").getTokens());
+        assertThrows(TokenError.class, () -> new Generator(undeclared.getTree(), Generator.Allocation.SSA));
+    }
+
+    @Test
+    public void testGeneratorStrengthReduction() throws TokenError {
+        Parser parser = new Parser(
+                new Tokenizer("let a = 5; let b = a * 8; let c = a * 40; let d = a / 4; let e = a % 7; let f = a / b;")
+                        .getTokens());
+        String res = new Generator(parser.getTree()).getGenerated();
+        assertTrue(res.contains("""
+                     pop rbx
+                     shl rbx, 3
+                     push rbx
+                """));
+        assertTrue(res.contains("""
+                     lea rbx, [rbx + rbx*4]
+                     shl rbx, 3
+                """));
+        assertTrue(res.contains("""
+                     mov rax, rbx
+                     sar rax, 63
+                     shr rax, 62
+                     add rax, rbx
+                     sar rax, 2
+                     mov rbx, rax
+                """));
+        assertTrue(res.contains("     mov rax, " + DivisionMagic.of(7).getMultiplier() + "\n     imul rbx\n"));
+        // only the division by a variable is left to idiv, with the dividend sign extended
+        assertEquals(res.indexOf("idiv"), res.lastIndexOf("idiv"));
+        assertTrue(res.contains("     cqo\n     idiv rbx\n"));
+        assertFalse(res.contains("xor rdx, rdx\n     idiv"));
+
+        String registers = new Generator(parser.getTree(), Generator.Allocation.REGISTERS).getGenerated();
+        assertTrue(registers.contains("     shl rcx, 3\n"));
+        assertEquals(registers.indexOf("idiv"), registers.lastIndexOf("idiv"));
+    }
+
+    @Test
+    public void testDivisionMagic() {
+        long[] dividends = { 0, 1, -1, 2, -2, 6, -6, 7, -7, 1000000007, -1000000007, Long.MAX_VALUE, Long.MIN_VALUE,
+                Long.MIN_VALUE + 1, Long.MAX_VALUE - 1 };
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            long divisor = i < 1000 ? i - 500 : random.nextLong();
+            if (Math.abs(divisor) < 3 || Long.bitCount(Math.abs(divisor)) == 1) {
+                continue;
+            }
+            DivisionMagic magic = DivisionMagic.of(divisor);
+            for (long x : dividends) {
+                assertEquals(x / divisor, magic.divide(x, divisor), magic + " " + x + " / " + divisor);
+            }
+            for (int j = 0; j < 50; j++) {
+                long x = random.nextLong();
+                assertEquals(x / divisor, magic.divide(x, divisor), magic + " " + x + " / " + divisor);
+            }
+        }
+        assertEquals(0x4924924924924925L, DivisionMagic.of(7).getMultiplier());
+        assertEquals(1, DivisionMagic.of(7).getShift());
+        assertThrows(IllegalArgumentException.class, () -> DivisionMagic.of(-8));
+        assertThrows(IllegalArgumentException.class, () -> DivisionMagic.of(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testGeneratorBranches() throws TokenError {
+        Parser parser = new Parser(new Tokenizer("let i = 0; while (i != 6) { i = i + 1; }"
+                + " if ((i > 1) | (i < 0)) { exit(1); } elif ((i == 2) & (i <= 3)) { exit(2); }").getTokens());
+        String res = new Generator(parser.getTree()).getGenerated();
+        assertTrue(res.contains("""
+                     cmp rbx, rax
+                     ;;/compare
+                     je label1
+                """));
+        // the | jumps into the if as soon as one comparison is true, the & out of the elif as soon as one is false
+        assertTrue(res.contains("""
+                     ;;/compare
+                     jg label3
+                """));
+        assertTrue(res.contains("""
+                     ;;/compare
+                     jge label2x0
+                label3:
+                """));
+        assertTrue(res.contains("     jne label2x1\n"));
+        assertTrue(res.contains("     jg label2x1\n"));
+        assertFalse(res.contains("set"));
+        assertFalse(res.contains("test rax, rax"));
+
+        String registers = new Generator(parser.getTree(), Generator.Allocation.REGISTERS).getGenerated();
+        assertTrue(registers.contains("""
+                     ;;compare
+                     ;;identifier
+                     cmp r12, 6
+                     ;;/compare
+                     je label1
+                """));
+        assertFalse(registers.contains("set"));
+    }
+
+    @Test
+    public void testGeneratorLoopInvariants() throws TokenError {
+        Parser parser = new Parser(new Tokenizer("let n = 5; let d = 0; let s = 0; let i = 0;"
+                + " while (i < (n * 2)) { if (d != 0) { s = s / d; } s = s + (n * 3 + 1) * i; i = i + 1; } exit(s);")
+                        .getTokens());
+        String res = new Generator(parser.getTree()).getGenerated();
+        // the guard, the invariants n * 2, d != 0 and n * 3 + 1 evaluated once, the body, the test at the bottom
+        assertTrue(res.contains("""
+                     ;;/compare
+                     jge label1
+                     ;;invariant
+                """));
+        assertEquals(3, res.split(";;invariant\n     ;;identifier").length - 1);
+        assertTrue(res.contains("""
+                     ;;/compare
+                     jl label0
+                     add rsp, 24
+                label1:
+                """));
+        assertFalse(res.contains("jmp label0"));
+        // n * 2 is read from the stack in the bottom test, below i and the other two invariants
+        assertTrue(res.contains("""
+                     ;;invariant
+                     push QWORD [rsp + 24]
+
+                     pop rax
+                     pop rbx
+                     cmp rbx, rax
+                     ;;/compare
+                     jl label0
+                """));
+
+        String registers = new Generator(parser.getTree(), Generator.Allocation.REGISTERS).getGenerated();
+        assertTrue(registers
+                .contains("     ;;invariant\n     cmp r13, QWORD [rsp + 16]\n     ;;/compare\n     jl label0\n"));
+    }
+
+    @Test
+    public void testLoopAnalysis() throws TokenError {
+        Tokenizer tokenizer = new Tokenizer("let a = 1; let b = 2; let c = 0; let i = 0;"
+                + " while (i < 10) { read(c); let t = a * b; i = i + (a + b) * 2; while (i > (b - 1)) { i = i - c; }"
+                + " c = t / 0 + (a / 3) + t * 2; }");
+        NodeProgram program = new Parser(tokenizer.getTokens()).getTree();
+        NodeWhile loop = (NodeWhile) program.getStmts().get(4);
+        Interner interner = tokenizer.getInterner();
+        assertEquals(Set.of(interner.intern("c"), interner.intern("i")), LoopAnalysis.assigned(loop));
+
+        Set<Integer> outside = Set.of(interner.intern("a"), interner.intern("b"), interner.intern("c"),
+                interner.intern("i"));
+        List<NodeBin> invariants = LoopAnalysis.invariants(loop, outside::contains);
+        // a * b, (a + b) * 2, b - 1 and a / 3, but neither t / 0 nor anything reading i, c or t
+        assertEquals(List.of(BinType.Multi, BinType.Multi, BinType.Sub, BinType.Div),
+                invariants.stream().map(NodeBin::getType).toList());
+    }
 }
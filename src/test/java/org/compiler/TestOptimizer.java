@@ -0,0 +1,98 @@
+package org.compiler;
+
+import org.compiler.errors.TokenError;
+import org.compiler.nodes.NodeExpression;
+import org.compiler.nodes.NodeProgram;
+import org.compiler.nodes.expressions.binary_expressions.NodeBin;
+import org.compiler.nodes.expressions.terms.NodeIdent;
+import org.compiler.nodes.expressions.terms.NodeIntLit;
+import org.compiler.nodes.statements.NodeLet;
+import org.compiler.nodes.statements.NodeScope;
+import org.compiler.nodes.statements.conditionals.NodeIf;
+import org.compiler.token.Tokenizer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestOptimizer {
+    private static NodeProgram optimize(String code) throws TokenError {
+        return new Optimizer(new Parser(new Tokenizer(code).getTokens()).getTree()).getTree();
+    }
+
+    private static NodeExpression letValue(NodeProgram program, int index) {
+        return ((NodeLet) program.getStmts().get(index)).getStmt();
+    }
+
+    private static long literal(NodeExpression expr) {
+        return assertInstanceOf(NodeIntLit.class, expr).getIntLit().getValue();
+    }
+
+    @Test
+    public void testOptimizerFolding() throws TokenError {
+        NodeProgram program = optimize("let a = 60 * 60 * 24; let b = (2 + 3) * (10 - 4); let c = 7 % 4 + 9 / 2;"
+                + " let d = 3 > 2; let e = 6 & 3 | 8; let f = 9223372036854775807 + 1;");
+        assertEquals(86400, literal(letValue(program, 0)));
+        assertEquals(30, literal(letValue(program, 1)));
+        assertEquals(7, literal(letValue(program, 2)));
+        assertEquals(1, literal(letValue(program, 3)));
+        assertEquals(10, literal(letValue(program, 4)));
+        assertEquals(Long.MIN_VALUE, literal(letValue(program, 5)));
+    }
+
+    @Test
+    public void testOptimizerIdentities() throws TokenError {
+        NodeProgram program = optimize(
+                "let x = 5; let a = x * 1; let b = 0 + x; let c = x - 0; let d = x * 0; let e = x * 2;");
+        assertEquals(x(program), assertInstanceOf(NodeIdent.class, letValue(program, 1)).getId());
+        assertEquals(x(program), assertInstanceOf(NodeIdent.class, letValue(program, 2)).getId());
+        assertEquals(x(program), assertInstanceOf(NodeIdent.class, letValue(program, 3)).getId());
+        assertEquals(0, literal(letValue(program, 4)));
+        assertInstanceOf(NodeBin.class, letValue(program, 5));
+
+        // x * 0 keeps an undeclared or uninitialised variable, the Generator reports it
+        assertInstanceOf(NodeBin.class, letValue(optimize("let a = y * 0;"), 0));
+        assertInstanceOf(NodeBin.class, letValue(optimize("let a = a * 0;"), 0));
+        assertThrows(TokenError.class, () -> new Generator(optimize("let a = y * 0;")));
+
+        // nor a division that can fault, its SIGFPE is part of what the program does
+        NodeProgram faults = optimize("let a = 1; let b = 0; let c = (a / b) * 0; let d = (a % b) & 0;"
+                + " let e = 0 * (a / b); let f = (a / b) % 1; let g = (a / 7) * 0;");
+        assertInstanceOf(NodeBin.class, letValue(faults, 2));
+        assertInstanceOf(NodeBin.class, letValue(faults, 3));
+        assertInstanceOf(NodeBin.class, letValue(faults, 4));
+        assertInstanceOf(NodeBin.class, letValue(faults, 5));
+        assertEquals(0, literal(letValue(faults, 6)));
+    }
+
+    private static int x(NodeProgram program) {
+        return ((NodeLet) program.getStmts().getFirst()).getIdentifier().getIdent().getId();
+    }
+
+    @Test
+    public void testOptimizerBranches() throws TokenError {
+        NodeProgram removed = optimize("let x = 1; if (0) { exit(1); } elif (2 - 2) { exit(2); }");
+        assertEquals(1, removed.getStmts().size());
+
+        NodeProgram taken = optimize(
+                "let x = 1; if (0) { exit(1); } elif (1) { exit(2); } elif (x) { exit(3); } else { exit(4); }");
+        assertInstanceOf(NodeScope.class, taken.getStmts().get(1));
+
+        NodeProgram kept = optimize("let x = 1; if (x) { exit(1); } elif (0) { exit(2); } elif (1 == 1) { exit(3); }"
+                + " else { exit(4); }");
+        NodeIf nodeIf = assertInstanceOf(NodeIf.class, kept.getStmts().get(1));
+        assertEquals(0, nodeIf.countElif());
+        assertEquals(1, nodeIf.getScopeElse().getStmts().size());
+    }
+
+    @Test
+    public void testOptimizerErrors() {
+        assertThrows(TokenError.class, () -> optimize("let a = 5 / (3 - 3);"));
+        assertThrows(TokenError.class, () -> optimize("let x = 4; let a = x % 0;"));
+        // the identifiers of the removed branches are still checked
+        assertThrows(TokenError.class, () -> optimize("if (0) { exit(y); }"));
+        assertThrows(TokenError.class, () -> optimize("if (1) { exit(0); } elif (y) { exit(1); }"));
+        assertThrows(TokenError.class, () -> optimize("let x = 1; if (0) { let x = 2; }"));
+    }
+}
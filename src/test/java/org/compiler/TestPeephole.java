@@ -0,0 +1,144 @@
+package org.compiler;
+
+import org.compiler.errors.TokenError;
+import org.compiler.token.Tokenizer;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestPeephole {
+    private static Peephole optimize(String assembly) throws IOException {
+        Peephole peephole = new Peephole();
+        peephole.append(assembly);
+        peephole.close();
+        return peephole;
+    }
+
+    @Test
+    public void testPeepholePushPop() throws IOException {
+        Peephole peephole = optimize("""
+                     push rax
+                     pop rax
+                     push rbx
+                     ;;comment
+                     pop rcx
+                     push QWORD [rsp + 8]
+                     mov rbx, QWORD [rsp + 16]
+                     pop rax
+                     push rdx
+                     mov rbx, QWORD [rsp + 0]
+                     pop rax
+                """);
+        assertEquals("""
+                     mov rcx, rbx
+                     ;;comment
+                     mov rax, QWORD [rsp + 8]
+                     mov rbx, QWORD [rsp + 8]
+                     push rdx
+                     mov rbx, QWORD [rsp + 0]
+                     pop rax
+                """, peephole.toString());
+        assertEquals(3, peephole.getHits().get(Peephole.Rule.PUSH_POP));
+    }
+
+    @Test
+    public void testPeepholeImmediate() throws IOException {
+        Peephole peephole = optimize("""
+                     mov rax, 5
+                     push rax
+                     mov rax, 60
+                     pop rdi
+                     syscall
+                     mov rbx, 3
+                     mov rax, QWORD [rsp + 8]
+                     sub rax, rbx
+                     mov rbx, rax
+                     mov rcx, 4
+                     push rcx
+                     call print_number
+                     mov rcx, 9223372036854775807
+                     add rax, rcx
+                """);
+        // rcx is read by the call, 9223372036854775807 is not an immediate
+        assertEquals("""
+                     mov rdi, 5
+                     mov rax, 60
+                     syscall
+                     mov rax, QWORD [rsp + 8]
+                     sub rax, 3
+                     mov rbx, rax
+                     mov rcx, 4
+                     push rcx
+                     call print_number
+                     mov rcx, 9223372036854775807
+                     add rax, rcx
+                """, peephole.toString());
+        assertEquals(2, peephole.getHits().get(Peephole.Rule.IMMEDIATE));
+        assertEquals(1, peephole.getHits().get(Peephole.Rule.PUSH_POP));
+    }
+
+    @Test
+    public void testPeepholeFlagsAndJumps() throws IOException {
+        Peephole peephole = optimize("""
+                     sub rax, rbx
+                     test rax, rax
+                     jz label2
+                     jmp label1
+                     ;;comment
+                label1:
+                     add rsp, 0
+                     add rax, 1
+                     test rax, rax
+                     jl label2
+                     xor rbx, rbx
+                     test rax, rax
+                     jnz label2
+                label2:
+                """);
+        // jl reads the overflow flag, test clears it; xor sets the flags from rbx
+        assertEquals("""
+                     sub rax, rbx
+                     jz label2
+                     ;;comment
+                label1:
+                     add rax, 1
+                     test rax, rax
+                     jl label2
+                     xor rbx, rbx
+                     test rax, rax
+                label2:
+                """, peephole.toString());
+        assertEquals(1, peephole.getHits().get(Peephole.Rule.REDUNDANT_TEST));
+        assertEquals(2, peephole.getHits().get(Peephole.Rule.JUMP_TO_NEXT));
+        assertEquals(1, peephole.getHits().get(Peephole.Rule.STACK_ADJUST));
+    }
+
+    @Test
+    public void testPeepholeGenerator() throws TokenError, IOException {
+        String code = "let i = 10; let s = 0; while (i) { s = s + i * 2; i = i - 1; print(s); } exit(s);";
+        String generated = new Generator(new Parser(new Tokenizer(code).getTokens()).getTree()).getGenerated();
+        Peephole peephole = optimize(generated);
+        assertTrue(peephole.getHits().get(Peephole.Rule.PUSH_POP) > 0);
+        assertTrue(peephole.getHits().get(Peephole.Rule.IMMEDIATE) > 0);
+        assertTrue(peephole.toString().length() < generated.length());
+        // the data is left as it is
+        assertTrue(peephole.toString().startsWith(generated.substring(0, generated.indexOf("section .text"))));
+
+        // the Generator can write to it, the data section comes last
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Peephole streamed = new Peephole(Channels.newChannel(bytes))) {
+            new Generator(new Parser(new Tokenizer(code).getTokens()).getTree(), streamed);
+            streamed.close();
+            assertEquals(peephole.getHits(), streamed.getHits());
+        }
+        String text = bytes.toString(StandardCharsets.UTF_8);
+        assertEquals(peephole.toString().substring(peephole.toString().indexOf("section .text")).strip(),
+                text.substring(0, text.indexOf("section .data")).strip());
+    }
+}
@@ -0,0 +1,106 @@
+package org.compiler.ir;
+
+import org.compiler.Parser;
+import org.compiler.errors.TokenError;
+import org.compiler.nodes.expressions.binary_expressions.BinType;
+import org.compiler.token.Tokenizer;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestLowering {
+    private static Cfg lower(String code) throws TokenError {
+        return Lowering.lower(new Parser(new Tokenizer(code).getTokens()).getTree());
+    }
+
+    private static List<Phi> phis(Cfg cfg) {
+        return cfg.getBlocks().stream().flatMap(block -> block.getPhis().stream()).toList();
+    }
+
+    @Test
+    public void testLoweringLoop() throws TokenError {
+        Cfg cfg = lower("let i = 0; let s = 0; while (i < 10) { s = s + i; i = i + 1; } exit(s);");
+        Branch guard = assertInstanceOf(Branch.class, cfg.getEntry().getTerminator());
+        assertEquals(BinType.LT, guard.getComparison());
+        BasicBlock body = guard.getIfTrue();
+        // i and s have a phi in the body, s one more after the loop
+        assertEquals(2, body.getPhis().size());
+        assertEquals(List.of(cfg.getEntry(), body), body.getPredecessors());
+        for (Phi phi : body.getPhis()) {
+            assertEquals(0, assertInstanceOf(Constant.class, phi.getIncoming(0)).getValue());
+            assertSame(body, assertInstanceOf(Binary.class, phi.getIncoming(1)).getBlock());
+        }
+        Branch bottom = assertInstanceOf(Branch.class, body.getTerminator());
+        assertSame(body, bottom.getIfTrue());
+        assertSame(guard.getIfFalse(), bottom.getIfFalse());
+        Exit exit = assertInstanceOf(Exit.class, guard.getIfFalse().getTerminator());
+        Phi sum = assertInstanceOf(Phi.class, exit.getCode());
+        assertSame(guard.getIfFalse(), sum.getBlock());
+        assertEquals(3, phis(cfg).size());
+    }
+
+    @Test
+    public void testLoweringTrivialPhis() throws TokenError {
+        // x is never assigned in the loop or in the branches, it needs no phi
+        Cfg cfg = lower("let x = 5; let i = 0; while (i < 3) { if (i == 1) { print(x); } else { i = i + 1; }"
+                + " i = i + x; } exit(x);");
+        Exit exit = (Exit) cfg.getBlocks().getLast().getTerminator();
+        assertEquals(5, assertInstanceOf(Constant.class, exit.getCode()).getValue());
+        // i in the body and in the join of the if, it is not read after the loop
+        assertEquals(2, phis(cfg).size());
+        for (BasicBlock block : cfg.getBlocks()) {
+            for (Instruction instruction : block.getInstructions()) {
+                for (Value operand : instruction.getOperands()) {
+                    assertTrue(operand.getUsers().contains(instruction));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLoweringUnreachable() throws TokenError {
+        Cfg cfg = lower("let x = 1; exit(x); x = x + 1; print(x);");
+        assertEquals(1, cfg.getBlocks().size());
+        assertEquals(1, assertInstanceOf(Constant.class, ((Exit) cfg.getEntry().getTerminator()).getCode()).getValue());
+
+        Cfg branches = lower(
+                "let x = 0; read(x); if (x == 1) { exit(2); } elif (x == 2) { x = 3; } else { exit(4); } exit(x);");
+        // the join after the if is reached only from the elif, its phi is removed
+        assertTrue(phis(branches).isEmpty());
+        Exit exit = (Exit) branches.getBlocks().getLast().getTerminator();
+        assertEquals(3, assertInstanceOf(Constant.class, exit.getCode()).getValue());
+    }
+
+    @Test
+    public void testLoweringErrors() {
+        assertThrows(TokenError.class, () -> lower("exit(y);"));
+        assertThrows(TokenError.class, () -> lower("let x = 1; let x = 2;"));
+        assertThrows(TokenError.class, () -> lower("let x = x + 1;"));
+        assertThrows(TokenError.class, () -> lower("{ let t = 1; } print(t);"));
+        assertThrows(TokenError.class, () -> lower("read(y);"));
+        // the code after an exit is checked too
+        assertThrows(TokenError.class, () -> lower("exit(0); y = 1;"));
+    }
+
+    @Test
+    public void testCriticalEdges() throws TokenError {
+        Cfg cfg = lower("let i = 0; while (i < 10) { i = i + 1; } exit(i);");
+        cfg.splitCriticalEdges();
+        for (BasicBlock block : cfg.getBlocks()) {
+            if (!block.getPhis().isEmpty()) {
+                for (BasicBlock predecessor : block.getPredecessors()) {
+                    assertEquals(1, predecessor.getSuccessors().size());
+                }
+            }
+        }
+        // the guard and the bottom test jump to the body and to the exit, both have a phi of i
+        assertEquals(4, cfg.getBlocks().stream().filter(block -> block.getInstructions().isEmpty()
+                && block.getPhis().isEmpty() && block.getTerminator() instanceof Jump).count());
+    }
+}
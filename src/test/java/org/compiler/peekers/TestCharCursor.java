@@ -0,0 +1,87 @@
+package org.compiler.peekers;
+
+import org.compiler.token.tokens.TokenComment;
+import org.compiler.token.tokens.TokenString;
+import org.junit.jupiter.api.Test;
+
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestCharCursor {
+
+    @Test
+    public void testCharCursorLineColumn() {
+        CharCursor cursor = new CharCursor("ab\n  c\n\nd");
+        assertTrue(cursor.hasNext());
+        assertEquals('a', cursor.next());
+        assertEquals(1, cursor.getCharLine());
+        assertEquals(1, cursor.getCharColumn());
+        assertEquals('b', cursor.next());
+        assertEquals(2, cursor.getCharColumn());
+        assertEquals('c', cursor.next());
+        assertEquals(2, cursor.getCharLine());
+        assertEquals(3, cursor.getCharColumn());
+        assertEquals('d', cursor.next());
+        assertEquals(4, cursor.getCharLine());
+        assertEquals(1, cursor.getCharColumn());
+        assertFalse(cursor.hasNext());
+        assertThrows(NoSuchElementException.class, cursor::next);
+    }
+
+    @Test
+    public void testCharCursorPeek() {
+        CharCursor cursor = new CharCursor("x = 1;\ny");
+        assertEquals('x', cursor.peekChar());
+        assertEquals(1, cursor.peekColumn());
+        cursor.next();
+        assertEquals(' ', cursor.peekChar());
+        assertEquals('y', cursor.peekChar(6));
+        assertEquals(2, cursor.peekLine(6));
+        assertEquals(1, cursor.peekColumn(6));
+        assertFalse(cursor.hasPeek(7));
+    }
+
+    @Test
+    public void testCharCursorComments() {
+        CharCursor cursor = new CharCursor("@ single\nx");
+        cursor.next();
+        TokenComment comment = cursor.ignoreComment("@");
+        assertEquals(" single", comment.getComment());
+        assertFalse(comment.isMultiline());
+        assertEquals('x', cursor.next());
+        assertEquals(2, cursor.getCharLine());
+
+        cursor = new CharCursor("@@ multi\nline\n@@y");
+        cursor.next();
+        comment = cursor.ignoreComment("@");
+        assertTrue(comment.isMultiline());
+        assertEquals(" multiline\n", comment.getComment());
+        assertEquals('y', cursor.next());
+        assertEquals(3, cursor.getCharLine());
+        assertEquals(3, cursor.getCharColumn());
+
+        CharCursor closedAtEnd = new CharCursor("@@ closed\n@@");
+        closedAtEnd.next();
+        assertDoesNotThrow(() -> closedAtEnd.skipComment("@"));
+        assertFalse(closedAtEnd.hasNext());
+
+        CharCursor unclosed = new CharCursor("@@ open\n@");
+        unclosed.next();
+        assertThrows(NoSuchElementException.class, () -> unclosed.skipComment("@"));
+    }
+
+    @Test
+    public void testCharCursorStrings() {
+        CharCursor cursor = new CharCursor("\"Ciao mondo\";");
+        cursor.next();
+        TokenString string = cursor.ignoreContent("\"");
+        assertEquals("Ciao mondo", string.getContent());
+        assertEquals(2, string.getColumnStart());
+        assertEquals(';', cursor.next());
+
+        CharCursor multiline = new CharCursor("\"Ciao\nmondo\"");
+        multiline.next();
+        assertThrows(IllegalArgumentException.class, () -> multiline.ignoreContent("\""));
+    }
+}
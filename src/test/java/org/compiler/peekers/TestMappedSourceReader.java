@@ -0,0 +1,92 @@
+package org.compiler.peekers;
+
+import org.compiler.errors.TokenError;
+import org.compiler.token.Tokenizer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMappedSourceReader {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testMappedSourceReaderRegions() throws IOException {
+        String content = "let 🤔 = 10;\nprint(\"métter àèìòù\");\n";
+        Path file = dir.resolve("regions.mz");
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        // every region size cuts some multibyte sequence
+        for (int region = 4; region < 12; region++) {
+            StringBuilder read = new StringBuilder();
+            try (Reader reader = new MappedSourceReader(file, region)) {
+                char[] chunk = new char[3];
+                int n;
+                while ((n = reader.read(chunk, 0, chunk.length)) != -1) {
+                    read.append(chunk, 0, n);
+                }
+            }
+            assertEquals(content, read.toString());
+        }
+    }
+
+    @Test
+    public void testMappedSourceReaderEmptyAndInvalid() throws IOException {
+        Path empty = dir.resolve("empty.mz");
+        Files.write(empty, new byte[0]);
+        try (Reader reader = new MappedSourceReader(empty)) {
+            assertEquals(-1, reader.read(new char[4], 0, 4));
+        }
+        Path invalid = dir.resolve("invalid.mz");
+        Files.write(invalid, new byte[] { 'x', (byte) 0xC3 });
+        try (Reader reader = new MappedSourceReader(invalid)) {
+            assertThrows(MalformedInputException.class, () -> reader.read(new char[4], 0, 4));
+        }
+    }
+
+    @Test
+    public void testCharCursorWindowLineColumn() {
+        CharCursor cursor = new CharCursor(new StringReader("ab\n   cd\n\n      e"), 4);
+        assertEquals('a', cursor.next());
+        assertEquals('b', cursor.next());
+        assertEquals('c', cursor.next());
+        assertEquals(2, cursor.getCharLine());
+        assertEquals(4, cursor.getCharColumn());
+        assertEquals('d', cursor.next());
+        assertEquals(5, cursor.getCharColumn());
+        assertEquals('e', cursor.peekChar(8));
+        assertEquals(4, cursor.peekLine(8));
+        assertEquals(7, cursor.peekColumn(8));
+        assertEquals('e', cursor.next());
+        assertEquals(4, cursor.getCharLine());
+        assertEquals(7, cursor.getCharColumn());
+        assertFalse(cursor.hasNext());
+    }
+
+    @Test
+    public void testTokenizerFromMappedFile() throws IOException, TokenError {
+        String content = """
+                @@ a comment
+                over many lines @@
+                🔰 🤔 ⏸ 10 📝
+                🖨 ➡️ 📜 Ciao 📜 ⬅️ 📝
+                👿 ➡️ 🤔 ➕ 1 ⬅️ 📝
+                """;
+        Path file = dir.resolve("emoji.mz");
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        Tokenizer expected = new Tokenizer(content, "emoji");
+        try (Reader reader = new MappedSourceReader(file, 7)) {
+            Tokenizer tokenizer = new Tokenizer(reader, "emoji", true);
+            assertEquals(expected.getTokens(), tokenizer.getTokens());
+            assertEquals(expected.getTokens().toString(), tokenizer.getTokens().toString());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.compiler.peekers;
+
+import org.compiler.Parser;
+import org.compiler.errors.TokenError;
+import org.compiler.token.TokenType;
+import org.compiler.token.Tokenizer;
+import org.compiler.token.tokens.Token;
+import org.compiler.token.tokens.TokenIntLit;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestPeekIteratorTokenStream {
+
+    @Test
+    public void testPeekIteratorTokenStream() {
+        Iterator<Token> tokens = List.of(new Token(TokenType._exit), new TokenIntLit("42"), new Token(TokenType.semi))
+                .iterator();
+        PeekIteratorTokenStream peek = new PeekIteratorTokenStream(() -> tokens.hasNext() ? tokens.next() : null);
+        assertNull(peek.peekPrevious());
+        assertTrue(peek.hasNext());
+        assertEquals(new Token(TokenType._exit), peek.peek());
+        assertEquals(new TokenIntLit("42"), peek.peek(1));
+        assertEquals(new Token(TokenType._exit), peek.next());
+        assertEquals(new Token(TokenType._exit), peek.peekPrevious());
+        assertEquals(new TokenIntLit("42"), peek.next());
+        assertEquals(new Token(TokenType.semi), peek.peek());
+        assertNull(peek.peek(1));
+        assertEquals(new Token(TokenType.semi), peek.next());
+        assertEquals(new Token(TokenType.semi), peek.peekPrevious());
+        assertFalse(peek.hasNext());
+        assertNull(peek.peek());
+        assertNull(peek.next());
+        assertThrows(IllegalArgumentException.class, () -> peek.peek(2));
+        assertThrows(IllegalArgumentException.class, () -> peek.peekPrevious(2));
+    }
+
+    @Test
+    public void testPeekIteratorTokenStreamTokenizer() throws TokenError {
+        String program = """
+                let x = -1; @ comment
+                while (x <= 100) { x = x * 2; }
+                print("Ciao"); if (x != 0) { print(x); }
+                exit(x);
+                """;
+        Tokenizer tokenizer = Tokenizer.streaming(new StringReader(program), "default_dialect");
+        ArrayList<Token> streamed = new ArrayList<>();
+        for (Token token = tokenizer.nextToken(); token != null; token = tokenizer.nextToken()) {
+            streamed.add(token);
+        }
+        ArrayList<Token> collected = new Tokenizer(program).getTokens();
+        assertEquals(collected.toString(), streamed.toString());
+        assertThrows(IllegalStateException.class, tokenizer::getTokens);
+
+        Parser parser = new Parser(
+                new PeekIteratorTokenStream(Tokenizer.streaming(new StringReader(program), "default_dialect")));
+        assertEquals(new Parser(collected).getTree().toString(), parser.getTree().toString());
+    }
+
+    @Test
+    public void testPeekIteratorTokenStreamErrors() {
+        TokenError error = assertThrows(TokenError.class, () -> new Parser(
+                new PeekIteratorTokenStream(Tokenizer.streaming(new StringReader("let x = 1x;"), "default_dialect"))));
+        assertEquals("Unrecognised token type: \"1x\"", error.getMessage());
+        assertThrows(TokenError.class, () -> new Parser(
+                new PeekIteratorTokenStream(Tokenizer.streaming(new StringReader("let x = ;"), "default_dialect"))));
+    }
+}
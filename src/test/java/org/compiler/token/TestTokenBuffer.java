@@ -0,0 +1,108 @@
+package org.compiler.token;
+
+import org.compiler.CrossCompiler;
+import org.compiler.Parser;
+import org.compiler.errors.TokenError;
+import org.compiler.token.tokens.Token;
+import org.compiler.token.tokens.TokenIdent;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestTokenBuffer {
+    private static final String PROGRAM = """
+            @ comment
+            let x = -1;
+            let y = x;
+            while (x <= 100) { x = x * 2; }
+            print("Ciao"); print(y);
+            exit(x);
+            """;
+
+    @Test
+    public void testTokenBuffer() throws TokenError {
+        TokenBuffer buffer = Tokenizer.toTokenBuffer(new StringReader(PROGRAM), "default_dialect", true);
+        ArrayList<Token> tokens = new Tokenizer(PROGRAM).getTokens();
+        assertEquals(tokens.size(), buffer.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            assertEquals(tokens.get(i).toString(), buffer.get(i).toString());
+        }
+        assertEquals(TokenType.let, buffer.getType(0));
+        assertEquals(-1, buffer.getValue(3));
+        // x and y interned once
+        assertEquals(2, buffer.getInterner().size());
+        assertEquals(buffer.getValue(1), buffer.getValue(8));
+        assertEquals("x", buffer.getName(8));
+        TokenBuffer copy = TokenBuffer.of(tokens);
+        for (int i = 0; i < tokens.size(); i++) {
+            assertEquals(tokens.get(i).toString(), copy.get(i).toString());
+        }
+    }
+
+    @Test
+    public void testTokenBufferView() throws TokenError {
+        TokenBuffer buffer = Tokenizer.toTokenBuffer(new StringReader(PROGRAM), "default_dialect", false);
+        TokenBuffer.View view = buffer.view();
+        assertTrue(view.next());
+        assertEquals(TokenType.comment, view.getType());
+        assertEquals(" comment", view.getText());
+        assertFalse(view.isMultiline());
+        assertTrue(view.next());
+        assertEquals(TokenType.let, view.getType());
+        assertEquals(2, view.getLine());
+        int count = 2;
+        while (view.next()) {
+            count++;
+        }
+        assertEquals(buffer.size(), count);
+        assertEquals("Ciao", view.moveTo(count - 14).getText());
+        assertThrows(IndexOutOfBoundsException.class, () -> view.moveTo(buffer.size()));
+    }
+
+    @Test
+    public void testTokenBufferConsumers() throws TokenError {
+        TokenBuffer buffer = Tokenizer.toTokenBuffer(new StringReader(PROGRAM), "default_dialect", true);
+        Parser parser = new Parser(buffer);
+        assertEquals(new Parser(new Tokenizer(PROGRAM).getTokens()).getTree().toString(), parser.getTree().toString());
+
+        TokenBuffer translated = Tokenizer.toTokenBuffer(new StringReader(PROGRAM), "default_dialect", false);
+        assertEquals(new CrossCompiler(new Tokenizer(PROGRAM, "default_dialect", false).getTokens(), "emoji")
+                .getCrossCompiledCode(), new CrossCompiler(translated, "emoji").getCrossCompiledCode());
+    }
+
+    @Test
+    public void testInterner() {
+        Interner interner = new Interner();
+        assertEquals(0, interner.intern("x"));
+        assertEquals(1, interner.intern(new StringBuilder("y")));
+        assertEquals(0, interner.intern(new StringBuilder("x")));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i + 2, interner.intern("v" + i));
+        }
+        assertEquals(102, interner.size());
+        assertEquals(51, interner.intern("v49"));
+        assertEquals("v49", interner.getName(51));
+        assertSame(interner.getName(1), interner.getName(interner.intern("y")));
+        assertThrows(IndexOutOfBoundsException.class, () -> interner.getName(102));
+    }
+
+    @Test
+    public void testTokenizerIdentIds() throws TokenError {
+        Tokenizer tokenizer = new Tokenizer(PROGRAM);
+        int[] ids = tokenizer.getTokens().stream().filter(token -> token instanceof TokenIdent)
+                .mapToInt(token -> ((TokenIdent) token).getId()).toArray();
+        assertArrayEquals(new int[] { 0, 1, 0, 0, 0, 0, 1, 0 }, ids);
+        assertEquals(2, tokenizer.getInterner().size());
+        assertEquals("y", tokenizer.getInterner().getName(1));
+        TokenBuffer buffer = Tokenizer.toTokenBuffer(new StringReader(PROGRAM), "default_dialect", true);
+        for (int i = 0; i < buffer.size(); i++) {
+            if (buffer.get(i) instanceof TokenIdent ident) {
+                assertEquals(buffer.getValue(i), ident.getId());
+                assertEquals(tokenizer.getInterner().intern(ident.getName()), ident.getId());
+            }
+        }
+    }
+}
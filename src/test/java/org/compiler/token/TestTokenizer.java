@@ -206,6 +206,15 @@ public class TestTokenizer {
         Tokenizer validNegativeNumber = new Tokenizer("let a = -10;");
         assertEquals(validNegativeNumber.getTokens(), List.of(new Token(TokenType.let), new TokenIdent("a"),
                 new Token(TokenType.eq), new TokenIntLit("-10"), new Token(TokenType.semi)));
+        validNegativeNumber = new Tokenizer("-10;");
+        assertEquals(List.of(new TokenIntLit("-10"), new Token(TokenType.semi)), validNegativeNumber.getTokens());
+        assertEquals(3, validNegativeNumber.getTokens().getFirst().getColumnEnd());
+        validNegativeNumber = new Tokenizer("(-10)");
+        assertEquals(List.of(new Token(TokenType.open_paren), new TokenIntLit("-10"), new Token(TokenType.close_paren)),
+                validNegativeNumber.getTokens());
+        Tokenizer subtraction = new Tokenizer("a - 10 == -1");
+        assertEquals(List.of(new TokenIdent("a"), new Token(TokenType.minus), new TokenIntLit("10"),
+                new Token(TokenType.logic_eq), new TokenIntLit("-1")), subtraction.getTokens());
     }
 
     @Test
@@ -216,4 +225,16 @@ public class TestTokenizer {
         assertDoesNotThrow(() -> new Tokenizer("let a = -9223372036854775807;"));
 
     }
+
+    @Test
+    public void testTokenizerWordClassification() throws TokenError {
+        assertEquals(9223372036854775807L,
+                ((TokenIntLit) new Tokenizer("9223372036854775807").getTokens().getFirst()).getValue());
+        assertEquals(7L, ((TokenIntLit) new Tokenizer("0007").getTokens().getFirst()).getValue());
+        assertEquals("x9", ((TokenIdent) new Tokenizer("x9").getTokens().getFirst()).getName());
+        TokenError overflow = assertThrows(TokenError.class, () -> new Tokenizer("92233720368547758070"));
+        assertEquals("Invalid integer literal: 92233720368547758070", overflow.getMessage());
+        TokenError unrecognised = assertThrows(TokenError.class, () -> new Tokenizer("92233720368547758070x"));
+        assertEquals("Unrecognised token type: \"92233720368547758070x\"", unrecognised.getMessage());
+    }
 }
@@ -0,0 +1,65 @@
+package org.compiler.token;
+
+import org.compiler.errors.TokenError;
+import org.compiler.token.tokens.Token;
+import org.compiler.token.tokens.TokenIdent;
+import org.compiler.token.tokens.TokenIntLit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the WordClassifier with the regex classification it replaced. Not run by the tests, run it with
+ * <p>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.compiler.token.WordClassifierBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WordClassifierBenchmark {
+    private final String[] words = { "x", "counter", "10", "9223372036854775807", "a1", "0", "variabile_lunga", "42",
+            "métter", "123456789" };
+
+    @Benchmark
+    public void regex(Blackhole blackhole) throws TokenError {
+        for (String word : words) {
+            blackhole.consume(regexOf(word, 1, 1, word.length()));
+        }
+    }
+
+    @Benchmark
+    public void classifier(Blackhole blackhole) throws TokenError {
+        for (String word : words) {
+            if (WordClassifier.isIdent(word)) {
+                blackhole.consume(new TokenIdent(word, 1, 1, word.length()));
+            } else {
+                blackhole.consume(
+                        new TokenIntLit(WordClassifier.parseIntLit(word, 1, 1, word.length()), 1, 1, word.length()));
+            }
+        }
+    }
+
+    /**
+     * The classification used before the WordClassifier
+     */
+    private static Token regexOf(String word, int line, int column_start, int column_end) throws TokenError {
+        if (word.matches("[0-9]+")) {
+            return new TokenIntLit(word, line, column_start, column_end);
+        } else if (word.matches("^[^\\d].*")) {
+            return new TokenIdent(word, line, column_start, column_end);
+        } else {
+            throw new TokenError("Unrecognised token type: \"" + word + "\"", line, column_start, column_end);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(WordClassifierBenchmark.class.getSimpleName()).build()).run();
+    }
+}
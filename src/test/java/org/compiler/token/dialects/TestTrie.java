@@ -1,12 +1,12 @@
 package org.compiler.token.dialects;
 
+import org.compiler.token.TokenType;
 import org.junit.jupiter.api.Test;
 
 import java.util.HashSet;
 import java.util.Set;
 
-import static org.junit.jupiter.api.Assertions.assertFalse;
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class TestTrie {
     @Test
@@ -21,4 +21,44 @@ public class TestTrie {
         assertFalse(trie.containsPrefix("whilst"));
         assertTrue(trie.containsPrefix("+"));
     }
+
+    @Test
+    void testKeywordAutomaton() {
+        Trie trie = new Trie();
+        trie.insert("elif", TokenType.elif);
+        trie.insert("else", TokenType._else);
+        trie.insert("=", TokenType.eq);
+        trie.insert("sé_nò", TokenType.elif);
+        KeywordAutomaton automaton = trie.compile();
+        int state = KeywordAutomaton.START;
+        for (char c : "el".toCharArray()) {
+            state = automaton.step(state, c);
+        }
+        assertNull(automaton.accepting(state));
+        assertEquals(TokenType._else, automaton.accepting(automaton.step(automaton.step(state, 's'), 'e')));
+        assertEquals("elif", automaton.word(automaton.step(automaton.step(state, 'i'), 'f')));
+        assertEquals(KeywordAutomaton.DEAD, automaton.step(state, 'x'));
+        assertEquals(KeywordAutomaton.DEAD, automaton.step(KeywordAutomaton.DEAD, 'e'));
+        assertTrue(automaton.isKeyword('='));
+        assertFalse(automaton.isKeyword('e'));
+        state = KeywordAutomaton.START;
+        for (char c : "sé_nò".toCharArray()) {
+            state = automaton.step(state, c);
+        }
+        assertEquals(TokenType.elif, automaton.accepting(state));
+    }
+
+    @Test
+    void testKeywordAutomatonEmoji() {
+        KeywordAutomaton automaton = new Dialect("emoji").getAutomaton();
+        for (String key : new String[] { "🖨", "➡️", "⏸", "🗨️" }) {
+            int state = KeywordAutomaton.START;
+            for (char c : key.toCharArray()) {
+                state = automaton.step(state, c);
+            }
+            assertEquals(key, automaton.word(state));
+        }
+        assertTrue(automaton.isKeyword('⏸'));
+        assertFalse(automaton.isKeyword("🖨".charAt(0)));
+    }
 }